@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import javax.swing.JComponent;
+import javax.swing.JTable;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableModel;
+
+/**
+ * Renders numbers as a value followed by a bar, scaled to the largest value in a set of columns.
+ * A single instance paints every cell of the columns. The largest value is raised as rows are
+ * inserted or updated, and recomputed only when rows are deleted or the whole model changes.
+ * @author ani
+ */
+public class BarCellRenderer extends JComponent implements TableCellRenderer {
+
+    static final int LABEL_WIDTH = 80;
+    static final Color BAR_COLOR = new Color(0x6699cc), TRACK_COLOR = new Color(0xe8e8e8);
+
+    private final TableModel model;
+    private final int[] columns;
+    private long max;
+    private boolean stale;
+
+    private long value;
+    private boolean selected;
+    private Color selectionBackground, selectionForeground;
+
+    /**
+     * Creates a renderer for the columns of a model.
+     * @param model the model of the table
+     * @param columns the columns, holding numbers, sharing the scale of the bars
+     */
+    public BarCellRenderer(TableModel model, int... columns) {
+        this.model = model;
+        this.columns = columns;
+        stale = true;
+        getMax();
+        model.addTableModelListener((TableModelEvent e) -> {
+            if (e.getType() == TableModelEvent.DELETE || e.getFirstRow() == TableModelEvent.HEADER_ROW
+                    || e.getLastRow() == Integer.MAX_VALUE) {
+                stale = true;
+            } else if (!stale) {
+                for (int row = e.getFirstRow(); row <= e.getLastRow(); row++) {
+                    update(row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Raises the largest value to the values of a row.
+     * @param row the row
+     */
+    private void update(int row) {
+        for (int column : columns) {
+            max = Math.max(max, getValue(row, column));
+        }
+    }
+
+    /**
+     * @param row the row
+     * @param column the column
+     * @return the value of the cell, 0 if not a number
+     */
+    private long getValue(int row, int column) {
+        Object cell = model.getValueAt(row, column);
+        return cell instanceof Number ? ((Number) cell).longValue() : 0;
+    }
+
+    /**
+     * @return the largest value in the columns, recomputed if rows were deleted since
+     */
+    public long getMax() {
+        if (stale) {
+            max = 0;
+            for (int row = 0; row < model.getRowCount(); row++) {
+                update(row);
+            }
+            stale = false;
+        }
+        return max;
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object obj, boolean isSelected, boolean hasFocus, int row, int column) {
+        value = obj instanceof Number ? ((Number) obj).longValue() : 0;
+        selected = isSelected;
+        selectionBackground = table.getSelectionBackground();
+        selectionForeground = table.getSelectionForeground();
+        setFont(table.getFont());
+        return this;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        int width = getWidth(), height = getHeight();
+        if (selected) {
+            g.setColor(selectionBackground);
+            g.fillRect(0, 0, width, height);
+        }
+        FontMetrics metrics = g.getFontMetrics(getFont());
+        g.setColor(selected ? selectionForeground : Color.BLACK);
+        g.setFont(getFont());
+        g.drawString(Long.toString(value), 2, (height + metrics.getAscent() - metrics.getDescent()) / 2);
+        int barWidth = width - LABEL_WIDTH - 4;
+        if (barWidth > 0) {
+            long largest = getMax();
+            g.setColor(TRACK_COLOR);
+            g.fillRect(LABEL_WIDTH, 3, barWidth, height - 6);
+            g.setColor(BAR_COLOR);
+            g.fillRect(LABEL_WIDTH, 3, largest > 0 ? (int) (barWidth * (double) value / largest) : 0, height - 6);
+        }
+        Metrics.getMetrics().time("render.stats.cell", start);
+    }
+
+    //Overridden for performance, as in DefaultTableCellRenderer.
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a batch of programs with tracing, several at once, each writing a trace file of its own.
+ * The trace files are imported as the programs complete, one at a time through a single import
+ * thread, while the other programs keep running.
+ * <p>
+ * A batch is read from a file with a job per line, of tab separated fields:
+ * <pre>
+ * NAME  PROGRAM  MAIN_CLASS  METHODS  JVM_OPTIONS  [ARGUMENT...]
+ * </pre>
+ * PROGRAM is the root directory of the compiled classes or a JAR file, MAIN_CLASS is '-' to run the
+ * Main-Class of a JAR file, METHODS is a methods specification of the -Xtrace option, as parsed by
+ * {@link MethodSpec}, and JVM_OPTIONS are whitespace separated, '-' for none. Empty lines and lines
+ * starting with '#' are ignored. The trace is imported as NAME.
+ * @author ani
+ */
+public class BatchRunner {
+
+    /**
+     * Receives the progress of the jobs. Called from the threads running and importing them.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the state of a job changes.
+         * @param job the job
+         */
+        void changed(Job job);
+    }
+
+    /**
+     * The states of a job.
+     */
+    public static final String QUEUED = "Queued", RUNNING = "Running", IMPORTING = "Importing", DONE = "Done",
+            FAILED = "Failed", CANCELLED = "Cancelled";
+
+    /**
+     * A program run with tracing.
+     */
+    public static class Job {
+
+        public final String name;
+        /**
+         * The root directory of the compiled classes, or the JAR file.
+         */
+        public final File program;
+        /**
+         * The class to run, null for the Main-Class of the JAR file.
+         */
+        public final String mainClass;
+        public final MethodSpec methods;
+        public final List<String> jvmOptions, arguments;
+        public File output;
+        public volatile String state = QUEUED;
+        public volatile int exitCode = -1;
+        public volatile long runningTime;
+
+        /**
+         * Creates a job.
+         * @param name the name of the trace to import
+         * @param program the root directory of the compiled classes, or the JAR file
+         * @param mainClass the class to run, null for the Main-Class of the JAR file
+         * @param methods the methods to trace
+         * @param jvmOptions the options of the JVM
+         * @param arguments the arguments of the program
+         */
+        public Job(String name, File program, String mainClass, MethodSpec methods, List<String> jvmOptions, List<String> arguments) {
+            this.name = name;
+            this.program = program;
+            this.mainClass = mainClass;
+            this.methods = methods;
+            this.jvmOptions = jvmOptions;
+            this.arguments = arguments;
+        }
+
+        /**
+         * @return true if the program is a JAR file
+         */
+        public boolean isJar() {
+            return program.getName().toLowerCase().endsWith(".jar");
+        }
+
+        /**
+         * @return the directory the program is run in
+         */
+        public File getDirectory() {
+            return isJar() ? new File(System.getProperty("user.home")) : program;
+        }
+
+        /**
+         * Builds the command running the program with method tracing into the output file, capturing
+         * a stack trace on entry of each of the methods included.
+         * @return the command
+         */
+        public List<String> getCommand() {
+            return getCommand(true);
+        }
+
+        /**
+         * Builds the command running the program, with or without tracing.
+         * @param traced true to trace the methods into the output file, as {@link #getCommand()}
+         * @return the command
+         */
+        public List<String> getCommand(boolean traced) {
+            ArrayList<String> commands = new ArrayList<>();
+            commands.add(Preferences.getPreferences().config.get("jre") + File.separator + "bin" + File.separator + "java");
+            commands.addAll(jvmOptions);
+            if (traced) {
+                StringBuilder targets = new StringBuilder();
+                for (MethodSpec.Clause clause : methods.getClauses()) {
+                    if (!clause.negated) {
+                        targets.append(",trigger=method{").append(clause.getMethodText()).append(",jstacktrace}");
+                    }
+                }
+                commands.add("-Xtrace:maximal=mt,output=" + output + ",methods=" + methods + targets);
+            }
+            if (mainClass == null) {
+                commands.add("-jar");
+                commands.add(program.getAbsolutePath());
+            } else {
+                if (isJar()) {
+                    commands.add("-cp");
+                    commands.add(program.getAbsolutePath());
+                }
+                commands.add(mainClass);
+            }
+            commands.addAll(arguments);
+            return commands;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final List<Job> jobs;
+    private final TraceManager traceManager;
+    private final List<Process> processes;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a batch.
+     * @param jobs the jobs
+     * @param outputDirectory the directory to write the trace files to, as NAME.trc
+     * @param traceManager the TraceManager to import the traces with
+     */
+    public BatchRunner(List<Job> jobs, File outputDirectory, TraceManager traceManager) {
+        this.jobs = jobs;
+        this.traceManager = traceManager;
+        processes = Collections.synchronizedList(new ArrayList<>());
+        for (Job job : jobs) {
+            job.output = new File(outputDirectory.getAbsoluteFile(), job.name + ".trc");
+        }
+    }
+
+    /**
+     * Reads the jobs of a batch file.
+     * @param file the batch file
+     * @return the jobs
+     * @throws IOException on error reading the file
+     * @throws ParseException if a line is not valid, at its number
+     */
+    public static List<Job> read(File file) throws IOException, ParseException {
+        ArrayList<Job> jobs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            int number = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                number++;
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    throw new ParseException("Line " + number + " of " + file + " has less than 5 fields", number);
+                }
+                if (!names.add(fields[0])) {
+                    throw new ParseException("Line " + number + " of " + file + " repeats the name " + fields[0], number);
+                }
+                MethodSpec methods;
+                try {
+                    methods = MethodSpec.parse(fields[3]);
+                } catch (ParseException ex) {
+                    throw new ParseException("Line " + number + " of " + file + ": " + ex.getMessage(), number);
+                }
+                List<String> jvmOptions = fields[4].trim().equals("-") ? Collections.emptyList() : Arrays.asList(fields[4].trim().split("\\s+"));
+                jobs.add(new Job(fields[0], new File(fields[1]), fields[2].equals("-") ? null : fields[2], methods,
+                        jvmOptions, Arrays.asList(fields).subList(5, fields.length)));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @return the jobs of the batch
+     */
+    public List<Job> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Runs the jobs, returning once all of them have been run and imported.
+     * @param parallelism the number of programs run at once
+     * @param listener the listener receiving the progress
+     * @return true if every job has been run and imported
+     */
+    public boolean run(int parallelism, Listener listener) {
+        long start = System.nanoTime();
+        ExecutorService runners = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, jobs.size())));
+        //The traces are imported one at a time, as each import already decodes and inserts in parallel
+        ExecutorService importer = Executors.newSingleThreadExecutor();
+        for (Job job : jobs) {
+            runners.submit(guard(job, listener, () -> {
+                if (execute(job, listener)) {
+                    importer.submit(guard(job, listener, () -> importTrace(job, listener)));
+                }
+            }));
+        }
+        runners.shutdown();
+        try {
+            runners.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            importer.shutdown();
+            importer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            cancel();
+            runners.shutdownNow();
+            importer.shutdownNow();
+        }
+        Metrics.getMetrics().time("batch", start);
+        return jobs.stream().allMatch((job) -> job.state.equals(DONE));
+    }
+
+    /**
+     * Wraps a task of a job so that an exception thrown by it is logged and fails the job,
+     * rather than being kept in the unread future of the task.
+     * @param job the job
+     * @param listener the listener receiving the progress
+     * @param task the task
+     * @return the wrapped task
+     */
+    private Runnable guard(Job job, Listener listener, Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, job.name, ex);
+                setState(job, FAILED, listener);
+            }
+        };
+    }
+
+    /**
+     * Runs the program of a job, writing its output next to its trace file, as NAME.log.
+     * @param job the job
+     * @param listener the listener receiving the progress
+     * @return true if the program completed, whatever its exit code
+     */
+    private boolean execute(Job job, Listener listener) {
+        if (cancelled) {
+            setState(job, CANCELLED, listener);
+            return false;
+        }
+        long start = System.nanoTime();
+        setState(job, RUNNING, listener);
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(job.getCommand());
+            processBuilder.directory(job.getDirectory());
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(new File(job.output.getParentFile(), job.name + ".log"));
+            Process process = processBuilder.start();
+            processes.add(process);
+            //Started after cancel() destroyed the programs running
+            if (cancelled) {
+                process.destroy();
+            }
+            try {
+                job.exitCode = process.waitFor();
+            } finally {
+                processes.remove(process);
+            }
+            job.runningTime = System.nanoTime() - start;
+            Metrics.getMetrics().time("batch.run", start);
+            if (cancelled) {
+                setState(job, CANCELLED, listener);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(BatchRunner.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        setState(job, FAILED, listener);
+        return false;
+    }
+
+    /**
+     * Imports the trace file of a job.
+     * @param job the job
+     * @param listener the listener receiving the progress
+     */
+    private void importTrace(Job job, Listener listener) {
+        if (cancelled) {
+            setState(job, CANCELLED, listener);
+            return;
+        }
+        setState(job, IMPORTING, listener);
+        boolean imported = job.output.exists() && traceManager.importTrace(Arrays.asList(job.output), job.name);
+        setState(job, imported ? DONE : FAILED, listener);
+    }
+
+    /**
+     * @param job the job
+     * @param state the new state of the job
+     * @param listener the listener to tell
+     */
+    private void setState(Job job, String state, Listener listener) {
+        job.state = state;
+        listener.changed(job);
+    }
+
+    /**
+     * Stops the batch, destroying the programs running; the jobs not yet started are not run.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (processes) {
+            processes.forEach(Process::destroy);
+        }
+    }
+}
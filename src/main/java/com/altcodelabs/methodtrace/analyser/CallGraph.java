@@ -0,0 +1,571 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * The call graph of a trace: a node per method and an edge per caller and callee pair, weighted by
+ * the number of calls and their inclusive and self time. The calls from no method come from the
+ * root, with the caller -1. The inclusive time of a method excludes its recursive invocations, which
+ * are already counted in the outermost one.
+ * The graph is built in one pass over the invocations, with the edges looked up by the caller and
+ * callee packed in a long, and is stored in the 'call_node' and 'call_edge' tables of the trace.
+ * @author ani
+ */
+public class CallGraph {
+
+    /**
+     * The number of partial paths searched, at most, for the heaviest paths.
+     */
+    static final int MAX_PATH_SEARCH = 100000;
+
+    /**
+     * The number of heaviest paths shown.
+     */
+    static final int HEAVIEST_PATHS = 50;
+
+    private final HashMap<String, Integer> nodeOfName;
+    private String[] names;
+    private long[] nodeInvocations, nodeInclusive, nodeSelf;
+    private int nodeCount;
+
+    private final LongIntHashMap edgeOfKey;
+    private int[] edgeCaller, edgeCallee;
+    private long[] edgeCalls, edgeInclusive, edgeSelf;
+    private int edgeCount;
+
+    private int[] outStart, outEdges, inStart, inEdges;
+
+    /**
+     * Creates an empty graph.
+     */
+    public CallGraph() {
+        nodeOfName = new HashMap<>();
+        names = new String[64];
+        nodeInvocations = new long[64];
+        nodeInclusive = new long[64];
+        nodeSelf = new long[64];
+        edgeOfKey = new LongIntHashMap();
+        edgeCaller = new int[64];
+        edgeCallee = new int[64];
+        edgeCalls = new long[64];
+        edgeInclusive = new long[64];
+        edgeSelf = new long[64];
+    }
+
+    /**
+     * Builds the call graph of the invocations of a trace.
+     * @param store the invocations of the trace
+     * @return the graph
+     */
+    public static CallGraph build(InvocationStore store) {
+        long start = System.nanoTime();
+        CallGraph graph = new CallGraph();
+        int[] nodeOfMethod = new int[store.getMethodCount()];
+        for (int m = 0; m < nodeOfMethod.length; m++) {
+            nodeOfMethod[m] = graph.getNode(store.getMethodClassName(m) + "||" + store.getMethodName(m) + "||" + store.getMethodParameters(m));
+        }
+        //The open invocations of the current thread, and how many times each method is open among them.
+        int[] path = new int[64], active = new int[nodeOfMethod.length];
+        int depth = 0;
+        for (int i = 0; i < store.size(); i++) {
+            int caller = store.getParent(i);
+            while (depth > 0 && path[depth - 1] != caller) {
+                active[store.getMethod(path[--depth])]--;
+            }
+            int method = store.getMethod(i), node = nodeOfMethod[method];
+            int callerNode = caller >= 0 ? nodeOfMethod[store.getMethod(caller)] : -1;
+            long duration = store.isCompleted(i) ? store.getTimeOut(i) - store.getTimeIn(i) : 0;
+            int edge = graph.getEdge(callerNode, node);
+            graph.edgeCalls[edge]++;
+            graph.edgeInclusive[edge] += duration;
+            graph.edgeSelf[edge] += duration;
+            graph.nodeInvocations[node]++;
+            graph.nodeSelf[node] += duration;
+            if (active[method] == 0) {
+                graph.nodeInclusive[node] += duration;
+            }
+            if (caller >= 0 && store.isCompleted(caller)) {
+                int callersCaller = store.getParent(caller);
+                graph.nodeSelf[callerNode] -= duration;
+                graph.edgeSelf[graph.getEdge(callersCaller >= 0 ? nodeOfMethod[store.getMethod(callersCaller)] : -1, callerNode)] -= duration;
+            }
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = i;
+            active[method]++;
+        }
+        Metrics.getMetrics().time("callgraph", start);
+        return graph;
+    }
+
+    /**
+     * Gets the node of a method, adding it if not present.
+     * @param name the '||' separated class name, method name and parameters of the method
+     * @return the node
+     */
+    private int getNode(String name) {
+        Integer node = nodeOfName.get(name);
+        if (node == null) {
+            if (nodeCount == names.length) {
+                names = Arrays.copyOf(names, nodeCount * 2);
+                nodeInvocations = Arrays.copyOf(nodeInvocations, nodeCount * 2);
+                nodeInclusive = Arrays.copyOf(nodeInclusive, nodeCount * 2);
+                nodeSelf = Arrays.copyOf(nodeSelf, nodeCount * 2);
+            }
+            names[nodeCount] = name;
+            node = nodeCount++;
+            nodeOfName.put(name, node);
+            outStart = null;
+        }
+        return node;
+    }
+
+    /**
+     * Gets the edge from a caller to a callee, adding it if not present.
+     * @param caller the node of the caller, -1 for the root
+     * @param callee the node of the callee
+     * @return the edge
+     */
+    private int getEdge(int caller, int callee) {
+        long key = ((long) caller << 32) | (callee & 0xffffffffL);
+        int edge = edgeOfKey.get(key);
+        if (edge < 0) {
+            if (edgeCount == edgeCaller.length) {
+                edgeCaller = Arrays.copyOf(edgeCaller, edgeCount * 2);
+                edgeCallee = Arrays.copyOf(edgeCallee, edgeCount * 2);
+                edgeCalls = Arrays.copyOf(edgeCalls, edgeCount * 2);
+                edgeInclusive = Arrays.copyOf(edgeInclusive, edgeCount * 2);
+                edgeSelf = Arrays.copyOf(edgeSelf, edgeCount * 2);
+            }
+            edgeCaller[edgeCount] = caller;
+            edgeCallee[edgeCount] = callee;
+            edge = edgeCount++;
+            edgeOfKey.put(key, edge);
+            outStart = null;
+        }
+        return edge;
+    }
+
+    /**
+     * @return the number of methods
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of caller and callee pairs, including the calls from the root
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @param name the '||' separated class name, method name and parameters of a method
+     * @return the node of the method; if none, the first node whose name contains name; -1 if none either
+     */
+    public int findNode(String name) {
+        Integer node = nodeOfName.get(name);
+        if (node != null) {
+            return node;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            if (names[n].contains(name)) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param node the node, -1 for the root
+     * @return the name of the method of the node
+     */
+    public String getName(int node) {
+        return node >= 0 ? names[node] : "(root)";
+    }
+
+    /**
+     * Indexes the outgoing and incoming edges of the nodes, the root's being last.
+     */
+    private void index() {
+        if (outStart != null) {
+            return;
+        }
+        outStart = new int[nodeCount + 2];
+        inStart = new int[nodeCount + 2];
+        for (int e = 0; e < edgeCount; e++) {
+            outStart[slotOf(edgeCaller[e]) + 1]++;
+            inStart[slotOf(edgeCallee[e]) + 1]++;
+        }
+        for (int n = 0; n <= nodeCount; n++) {
+            outStart[n + 1] += outStart[n];
+            inStart[n + 1] += inStart[n];
+        }
+        outEdges = new int[edgeCount];
+        inEdges = new int[edgeCount];
+        int[] outNext = Arrays.copyOf(outStart, nodeCount + 1), inNext = Arrays.copyOf(inStart, nodeCount + 1);
+        for (int e = 0; e < edgeCount; e++) {
+            outEdges[outNext[slotOf(edgeCaller[e])]++] = e;
+            inEdges[inNext[slotOf(edgeCallee[e])]++] = e;
+        }
+    }
+
+    /**
+     * @param node the node, -1 for the root
+     * @return the position of the node in the edge index
+     */
+    private int slotOf(int node) {
+        return node >= 0 ? node : nodeCount;
+    }
+
+    /**
+     * Gets the calls into a method, the heaviest first.
+     * @param node the node of the method
+     * @return the edges from the callers of the method
+     */
+    public int[] getCallers(int node) {
+        index();
+        return sortByInclusive(Arrays.copyOfRange(inEdges, inStart[slotOf(node)], inStart[slotOf(node) + 1]));
+    }
+
+    /**
+     * Gets the calls from a method, the heaviest first.
+     * @param node the node of the method, -1 for the root
+     * @return the edges to the callees of the method
+     */
+    public int[] getCallees(int node) {
+        index();
+        return sortByInclusive(Arrays.copyOfRange(outEdges, outStart[slotOf(node)], outStart[slotOf(node) + 1]));
+    }
+
+    /**
+     * @param edges the edges
+     * @return the edges, sorted by decreasing inclusive time
+     */
+    private int[] sortByInclusive(int[] edges) {
+        Integer[] sorted = new Integer[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            sorted[i] = edges[i];
+        }
+        Arrays.sort(sorted, (a, b) -> Long.compare(edgeInclusive[b], edgeInclusive[a]));
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = sorted[i];
+        }
+        return edges;
+    }
+
+    /**
+     * A path from the root, weighted by its lightest edge.
+     */
+    private static class Path {
+
+        final int[] nodes;
+        final long weight;
+
+        Path(int[] nodes, long weight) {
+            this.nodes = nodes;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Finds the heaviest paths from the root to a method calling no other, a path being as heavy as
+     * the inclusive time of its lightest edge. The paths are searched best first, so they are found
+     * in the order of their weights; a path does not visit a method twice.
+     * @param count the number of paths to find
+     * @return the paths, each as its nodes from the outermost, with its weight last
+     */
+    public List<long[]> getHeaviestPaths(int count) {
+        index();
+        ArrayList<long[]> found = new ArrayList<>();
+        PriorityQueue<Path> queue = new PriorityQueue<>((a, b) -> Long.compare(b.weight, a.weight));
+        queue.add(new Path(new int[0], Long.MAX_VALUE));
+        for (int searched = 0; !queue.isEmpty() && found.size() < count && searched < MAX_PATH_SEARCH; searched++) {
+            Path path = queue.poll();
+            int last = path.nodes.length > 0 ? path.nodes[path.nodes.length - 1] : -1;
+            boolean extended = false;
+            for (int e = outStart[slotOf(last)]; e < outStart[slotOf(last) + 1]; e++) {
+                int edge = outEdges[e], callee = edgeCallee[edge];
+                boolean visited = false;
+                for (int node : path.nodes) {
+                    visited |= node == callee;
+                }
+                if (!visited) {
+                    int[] nodes = Arrays.copyOf(path.nodes, path.nodes.length + 1);
+                    nodes[path.nodes.length] = callee;
+                    queue.add(new Path(nodes, Math.min(path.weight, edgeInclusive[edge])));
+                    extended = true;
+                }
+            }
+            if (!extended && path.nodes.length > 0) {
+                long[] result = new long[path.nodes.length + 1];
+                for (int i = 0; i < path.nodes.length; i++) {
+                    result[i] = path.nodes[i];
+                }
+                result[path.nodes.length] = path.weight;
+                found.add(result);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the recursion cycles, as the strongly connected components of the graph with Tarjan's
+     * algorithm, run without recursion.
+     * @return the cycles, each as its nodes; a method calling itself is a cycle of one
+     */
+    public List<int[]> getCycles() {
+        index();
+        ArrayList<int[]> cycles = new ArrayList<>();
+        int[] order = new int[nodeCount], low = new int[nodeCount], stack = new int[nodeCount];
+        int[] callStack = new int[nodeCount], nextEdge = new int[nodeCount];
+        boolean[] onStack = new boolean[nodeCount];
+        Arrays.fill(order, -1);
+        int counter = 0, stackSize = 0;
+        for (int root = 0; root < nodeCount; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth++] = root;
+            order[root] = low[root] = counter++;
+            nextEdge[root] = outStart[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int node = callStack[depth - 1];
+                if (nextEdge[node] < outStart[node + 1]) {
+                    int callee = edgeCallee[outEdges[nextEdge[node]++]];
+                    if (order[callee] < 0) {
+                        order[callee] = low[callee] = counter++;
+                        nextEdge[callee] = outStart[callee];
+                        stack[stackSize++] = callee;
+                        onStack[callee] = true;
+                        callStack[depth++] = callee;
+                    } else if (onStack[callee]) {
+                        low[node] = Math.min(low[node], order[callee]);
+                    }
+                } else {
+                    depth--;
+                    if (depth > 0) {
+                        int caller = callStack[depth - 1];
+                        low[caller] = Math.min(low[caller], low[node]);
+                    }
+                    if (low[node] == order[node]) {
+                        int size = 0;
+                        while (stack[stackSize - 1 - size] != node) {
+                            size++;
+                        }
+                        int[] component = Arrays.copyOfRange(stack, stackSize - 1 - size, stackSize);
+                        stackSize -= size + 1;
+                        for (int member : component) {
+                            onStack[member] = false;
+                        }
+                        if (component.length > 1 || edgeOfKey.get(((long) node << 32) | (node & 0xffffffffL)) >= 0) {
+                            cycles.add(component);
+                        }
+                    }
+                }
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Creates a table of the methods, by decreasing inclusive time.
+     * @return the TableModel with a row per method
+     */
+    public DefaultTableModel getNodeTableModel() {
+        DefaultTableModel model = createTableModel("Method Name", "Invocations", "Inclusive Time", "Self Time", "Callers", "Callees");
+        index();
+        Integer[] sorted = new Integer[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            sorted[n] = n;
+        }
+        Arrays.sort(sorted, (a, b) -> Long.compare(nodeInclusive[b], nodeInclusive[a]));
+        for (int n : sorted) {
+            model.addRow(new Object[]{names[n], nodeInvocations[n], nodeInclusive[n], nodeSelf[n],
+                (long) (inStart[n + 1] - inStart[n]), (long) (outStart[n + 1] - outStart[n])});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of edges.
+     * @param edges the edges
+     * @param callers true to show the callers of the edges, false to show the callees
+     * @return the TableModel with a row per edge
+     */
+    public DefaultTableModel getEdgeTableModel(int[] edges, boolean callers) {
+        DefaultTableModel model = createTableModel(callers ? "Caller" : "Callee", "Calls", "Inclusive Time", "Self Time");
+        for (int edge : edges) {
+            model.addRow(new Object[]{getName(callers ? edgeCaller[edge] : edgeCallee[edge]), edgeCalls[edge], edgeInclusive[edge], edgeSelf[edge]});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the heaviest paths.
+     * @param count the number of paths
+     * @return the TableModel with a row per path
+     */
+    public DefaultTableModel getPathTableModel(int count) {
+        DefaultTableModel model = createTableModel("Call Path", "Weight", "Depth");
+        for (long[] path : getHeaviestPaths(count)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < path.length - 1; i++) {
+                text.append(i > 0 ? " > " : "").append(names[(int) path[i]]);
+            }
+            model.addRow(new Object[]{text.toString(), path[path.length - 1], (long) (path.length - 1)});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the recursion cycles, by decreasing inclusive time.
+     * @return the TableModel with a row per cycle
+     */
+    public DefaultTableModel getCycleTableModel() {
+        DefaultTableModel model = createTableModel("Methods", "Size", "Calls Within", "Inclusive Time");
+        List<int[]> cycles = getCycles();
+        long[] calls = new long[cycles.size()], inclusive = new long[cycles.size()];
+        int[] componentOf = new int[nodeCount];
+        Arrays.fill(componentOf, -1);
+        for (int c = 0; c < cycles.size(); c++) {
+            for (int node : cycles.get(c)) {
+                componentOf[node] = c;
+                inclusive[c] = Math.max(inclusive[c], nodeInclusive[node]);
+            }
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeCaller[e] >= 0 && componentOf[edgeCaller[e]] >= 0 && componentOf[edgeCaller[e]] == componentOf[edgeCallee[e]]) {
+                calls[componentOf[edgeCaller[e]]] += edgeCalls[e];
+            }
+        }
+        Integer[] sorted = new Integer[cycles.size()];
+        for (int c = 0; c < sorted.length; c++) {
+            sorted[c] = c;
+        }
+        Arrays.sort(sorted, (a, b) -> Long.compare(inclusive[b], inclusive[a]));
+        for (int c : sorted) {
+            StringBuilder text = new StringBuilder();
+            for (int node : cycles.get(c)) {
+                text.append(text.length() > 0 ? ", " : "").append(names[node]);
+            }
+            model.addRow(new Object[]{text.toString(), (long) cycles.get(c).length, calls[c], inclusive[c]});
+        }
+        return model;
+    }
+
+    /**
+     * @param columnNames the names of the columns, all but the first holding numbers
+     * @return an empty, read-only TableModel
+     */
+    private static DefaultTableModel createTableModel(String... columnNames) {
+        return new DefaultTableModel(columnNames, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Stores the graph in the 'call_node' and 'call_edge' tables, replacing their rows.
+     * @param con the connection to the trace database
+     * @throws SQLException on error inserting
+     */
+    public void write(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS call_node(method TEXT PRIMARY KEY, invocations INTEGER, inclusive_time INTEGER, self_time INTEGER);");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS call_edge(caller TEXT, callee TEXT, calls INTEGER, inclusive_time INTEGER, self_time INTEGER);");
+            stmt.executeUpdate("DELETE FROM call_node;");
+            stmt.executeUpdate("DELETE FROM call_edge;");
+        }
+        try (PreparedStatement insert = con.prepareStatement("INSERT INTO call_node VALUES(?,?,?,?);")) {
+            for (int n = 0; n < nodeCount; n++) {
+                insert.setString(1, names[n]);
+                insert.setLong(2, nodeInvocations[n]);
+                insert.setLong(3, nodeInclusive[n]);
+                insert.setLong(4, nodeSelf[n]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        try (PreparedStatement insert = con.prepareStatement("INSERT INTO call_edge VALUES(?,?,?,?,?);")) {
+            for (int e = 0; e < edgeCount; e++) {
+                insert.setString(1, edgeCaller[e] >= 0 ? names[edgeCaller[e]] : null);
+                insert.setString(2, names[edgeCallee[e]]);
+                insert.setLong(3, edgeCalls[e]);
+                insert.setLong(4, edgeInclusive[e]);
+                insert.setLong(5, edgeSelf[e]);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the graph stored in the 'call_node' and 'call_edge' tables of a trace.
+     * @param con the connection to the trace database
+     * @return the graph, null if not stored
+     * @throws SQLException on error reading
+     */
+    public static CallGraph read(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='call_edge';");
+            if (!rs.next()) {
+                return null;
+            }
+            CallGraph graph = new CallGraph();
+            rs = stmt.executeQuery("SELECT method,invocations,inclusive_time,self_time FROM call_node;");
+            while (rs.next()) {
+                int node = graph.getNode(rs.getString(1));
+                graph.nodeInvocations[node] = rs.getLong(2);
+                graph.nodeInclusive[node] = rs.getLong(3);
+                graph.nodeSelf[node] = rs.getLong(4);
+            }
+            rs = stmt.executeQuery("SELECT caller,callee,calls,inclusive_time,self_time FROM call_edge;");
+            while (rs.next()) {
+                String caller = rs.getString(1);
+                int edge = graph.getEdge(caller != null ? graph.getNode(caller) : -1, graph.getNode(rs.getString(2)));
+                graph.edgeCalls[edge] = rs.getLong(3);
+                graph.edgeInclusive[edge] = rs.getLong(4);
+                graph.edgeSelf[edge] = rs.getLong(5);
+            }
+            return graph;
+        }
+    }
+}
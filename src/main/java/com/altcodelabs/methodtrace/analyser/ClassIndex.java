@@ -0,0 +1,465 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Indexes the classes of a directory of compiled classes or of a JAR file, finding the classes that
+ * can be run, those having a public static void main(String[]), from their bytecode, without loading them.
+ * The directories are walked, and the class files read, in parallel on a fork/join pool; a JAR file is
+ * read through a zip file system, listing its classes from its central directory.
+ * <p>
+ * What is found is cached in a file, by the path and the time of last modification of every class file
+ * and JAR file, so that indexing again reads only what has changed.
+ * @author ani
+ */
+public class ClassIndex {
+
+    /**
+     * The classes found in a directory or a JAR file.
+     */
+    public static class Result {
+
+        /**
+         * The names of the classes, and of those that can be run, sorted.
+         */
+        public final List<String> classNames, mainClasses;
+        /**
+         * The Main-Class of the manifest of a JAR file, null if none.
+         */
+        public final String manifestMainClass;
+
+        /**
+         * @param classNames the names of the classes
+         * @param mainClasses the names of the classes that can be run
+         * @param manifestMainClass the Main-Class of the manifest, null if none
+         */
+        Result(List<String> classNames, List<String> mainClasses, String manifestMainClass) {
+            this.classNames = classNames;
+            this.mainClasses = mainClasses;
+            this.manifestMainClass = manifestMainClass;
+        }
+    }
+
+    /**
+     * What is cached of a class file or a JAR file.
+     */
+    private static class Entry {
+
+        final long modified;
+        final String[] classNames;
+        final boolean[] main;
+        final String manifestMainClass;
+
+        /**
+         * @param modified the time of last modification of the file
+         * @param classNames the names of the classes of the file
+         * @param main whether each class can be run
+         * @param manifestMainClass the Main-Class of the manifest, null if none
+         */
+        Entry(long modified, String[] classNames, boolean[] main, String manifestMainClass) {
+            this.modified = modified;
+            this.classNames = classNames;
+            this.main = main;
+            this.manifestMainClass = manifestMainClass;
+        }
+    }
+
+    private static final byte[] MAIN_NAME = "main".getBytes(StandardCharsets.UTF_8),
+            MAIN_DESCRIPTOR = "([Ljava/lang/String;)V".getBytes(StandardCharsets.UTF_8);
+    private static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008;
+
+    private final File cacheFile;
+    private final Map<String, Entry> cache;
+    private final ForkJoinPool pool;
+    private boolean loaded;
+
+    /**
+     * Creates an index cached in a file.
+     * @param cacheFile the cache file
+     */
+    private ClassIndex(File cacheFile) {
+        this.cacheFile = cacheFile;
+        cache = new ConcurrentHashMap<>();
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Indexes the classes of a directory or a JAR file, reading only the files changed since cached.
+     * @param file the directory of the compiled classes, or the JAR file
+     * @return the classes found
+     */
+    public synchronized Result scan(File file) {
+        long start = System.nanoTime();
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        ConcurrentLinkedQueue<String> classNames = new ConcurrentLinkedQueue<>(), mainClasses = new ConcurrentLinkedQueue<>();
+        String manifestMainClass = null;
+        try {
+            if (file.isDirectory()) {
+                ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<>();
+                pool.invoke(new DirectoryTask(file, "", classNames, mainClasses, seen));
+                //Forgets the class files removed from the directory
+                String prefix = file.getAbsolutePath() + File.separator;
+                cache.keySet().removeIf((path) -> path.startsWith(prefix) && !seen.containsKey(path));
+            } else {
+                Entry entry = scanJar(file);
+                for (int i = 0; i < entry.classNames.length; i++) {
+                    classNames.add(entry.classNames[i]);
+                    if (entry.main[i]) {
+                        mainClasses.add(entry.classNames[i]);
+                    }
+                }
+                manifestMainClass = entry.manifestMainClass;
+            }
+            save();
+        } catch (IOException | ExecutionException | RuntimeException ex) {
+            Logger.getLogger(ClassIndex.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Metrics.getMetrics().count("classindex.classes", classNames.size());
+        Metrics.getMetrics().time("classindex", start);
+        return new Result(sorted(classNames), sorted(mainClasses), manifestMainClass);
+    }
+
+    /**
+     * @param names the names
+     * @return the names, sorted
+     */
+    private static List<String> sorted(ConcurrentLinkedQueue<String> names) {
+        ArrayList<String> list = new ArrayList<>(names);
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Indexes a directory, forking a task for each of its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveAction {
+
+        private final File directory;
+        private final String packagePrefix;
+        private final ConcurrentLinkedQueue<String> classNames, mainClasses;
+        private final Map<String, Boolean> seen;
+
+        /**
+         * @param directory the directory
+         * @param packagePrefix the '.' terminated package of the directory, empty for the root
+         * @param classNames the queue to add the names of the classes to
+         * @param mainClasses the queue to add the names of the classes that can be run to
+         * @param seen the paths of the class files found
+         */
+        DirectoryTask(File directory, String packagePrefix, ConcurrentLinkedQueue<String> classNames,
+                ConcurrentLinkedQueue<String> mainClasses, Map<String, Boolean> seen) {
+            this.directory = directory;
+            this.packagePrefix = packagePrefix;
+            this.classNames = classNames;
+            this.mainClasses = mainClasses;
+            this.seen = seen;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            ArrayList<DirectoryTask> tasks = new ArrayList<>();
+            for (File file : files) {
+                String fileName = file.getName();
+                if (file.isDirectory()) {
+                    tasks.add(new DirectoryTask(file, packagePrefix + fileName + ".", classNames, mainClasses, seen));
+                } else if (fileName.toLowerCase().endsWith(".class")) {
+                    String path = file.getAbsolutePath();
+                    long modified = file.lastModified();
+                    Entry entry = cache.get(path);
+                    if (entry == null || entry.modified != modified) {
+                        String className = packagePrefix + fileName.substring(0, fileName.length() - 6);
+                        boolean main = false;
+                        try {
+                            main = isMainClass(Files.readAllBytes(file.toPath()));
+                        } catch (IOException | RuntimeException ex) {
+                            //Listed, but not as a class that can be run
+                            Logger.getLogger(ClassIndex.class.getName()).log(Level.SEVERE, null, ex);
+                        }
+                        entry = new Entry(modified, new String[]{className}, new boolean[]{main}, null);
+                        cache.put(path, entry);
+                        Metrics.getMetrics().count("classindex.read", 1);
+                    }
+                    seen.put(path, Boolean.TRUE);
+                    classNames.add(entry.classNames[0]);
+                    if (entry.main[0]) {
+                        mainClasses.add(entry.classNames[0]);
+                    }
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Indexes a JAR file, unless cached since its last modification.
+     * @param jar the JAR file
+     * @return the entry of the JAR file
+     * @throws IOException on error reading the JAR file
+     * @throws InterruptedException if interrupted while reading the classes
+     * @throws ExecutionException on error reading the classes
+     */
+    private Entry scanJar(File jar) throws IOException, InterruptedException, ExecutionException {
+        String path = jar.getAbsolutePath();
+        long modified = jar.lastModified();
+        Entry entry = cache.get(path);
+        if (entry != null && entry.modified == modified) {
+            return entry;
+        }
+        try (FileSystem zip = FileSystems.newFileSystem(jar.toPath(), (ClassLoader) null)) {
+            Path root = zip.getPath("/");
+            String manifestMainClass = null;
+            Path manifestPath = zip.getPath("/META-INF/MANIFEST.MF");
+            if (Files.exists(manifestPath)) {
+                try (InputStream in = Files.newInputStream(manifestPath)) {
+                    manifestMainClass = new Manifest(in).getMainAttributes().getValue("Main-Class");
+                }
+            }
+            List<Path> classFiles;
+            try (Stream<Path> paths = Files.walk(root)) {
+                classFiles = paths.filter((p) -> p.toString().endsWith(".class") && !p.startsWith("/META-INF/")).collect(Collectors.toList());
+            }
+            String[] classNames = new String[classFiles.size()];
+            boolean[] main = new boolean[classFiles.size()];
+            //Reads the classes in parallel, on the pool of the index
+            pool.submit(() -> IntStream.range(0, classFiles.size()).parallel().forEach((i) -> {
+                String name = root.relativize(classFiles.get(i)).toString();
+                classNames[i] = name.substring(0, name.length() - 6).replace('/', '.');
+                try {
+                    main[i] = isMainClass(Files.readAllBytes(classFiles.get(i)));
+                } catch (IOException | RuntimeException ex) {
+                    Logger.getLogger(ClassIndex.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            })).get();
+            Metrics.getMetrics().count("classindex.read", classFiles.size());
+            entry = new Entry(modified, classNames, main, manifestMainClass);
+            cache.put(path, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Checks from the bytecode of a class if it declares a public static void main(String[]).
+     * Only the constant pool and the methods of the class are read.
+     * @param bytes the class file
+     * @return true if the class can be run
+     */
+    static boolean isMainClass(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != 0xCAFEBABE) {
+            return false;
+        }
+        in.position(8);
+        int count = in.getShort() & 0xffff;
+        int mainName = -1, mainDescriptor = -1;
+        for (int i = 1; i < count; i++) {
+            int tag = in.get();
+            switch (tag) {
+                case 1: //Utf8
+                    int length = in.getShort() & 0xffff, offset = in.position();
+                    if (equals(bytes, offset, length, MAIN_NAME)) {
+                        mainName = i;
+                    } else if (equals(bytes, offset, length, MAIN_DESCRIPTOR)) {
+                        mainDescriptor = i;
+                    }
+                    in.position(offset + length);
+                    break;
+                case 7: //Class
+                case 8: //String
+                case 16: //MethodType
+                case 19: //Module
+                case 20: //Package
+                    in.position(in.position() + 2);
+                    break;
+                case 15: //MethodHandle
+                    in.position(in.position() + 3);
+                    break;
+                case 3: //Integer
+                case 4: //Float
+                case 9: //Fieldref
+                case 10: //Methodref
+                case 11: //InterfaceMethodref
+                case 12: //NameAndType
+                case 17: //Dynamic
+                case 18: //InvokeDynamic
+                    in.position(in.position() + 4);
+                    break;
+                case 5: //Long
+                case 6: //Double
+                    in.position(in.position() + 8);
+                    i++;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        if (mainName < 0 || mainDescriptor < 0) {
+            return false;
+        }
+        //Access flags, this and super class
+        in.position(in.position() + 6);
+        int interfaces = in.getShort() & 0xffff;
+        in.position(in.position() + 2 * interfaces);
+        skipMembers(in);
+        for (int methods = in.getShort() & 0xffff; methods > 0; methods--) {
+            int access = in.getShort(), name = in.getShort() & 0xffff, descriptor = in.getShort() & 0xffff;
+            if (name == mainName && descriptor == mainDescriptor && (access & (ACC_PUBLIC | ACC_STATIC)) == (ACC_PUBLIC | ACC_STATIC)) {
+                return true;
+            }
+            skipAttributes(in);
+        }
+        return false;
+    }
+
+    /**
+     * Skips the fields or methods of a class file.
+     * @param in the class file, at the count of the members
+     */
+    private static void skipMembers(ByteBuffer in) {
+        for (int members = in.getShort() & 0xffff; members > 0; members--) {
+            in.position(in.position() + 6);
+            skipAttributes(in);
+        }
+    }
+
+    /**
+     * Skips the attributes of a member of a class file.
+     * @param in the class file, at the count of the attributes
+     */
+    private static void skipAttributes(ByteBuffer in) {
+        for (int attributes = in.getShort() & 0xffff; attributes > 0; attributes--) {
+            in.position(in.position() + 2);
+            int length = in.getInt();
+            in.position(in.position() + length);
+        }
+    }
+
+    /**
+     * @param bytes the bytes
+     * @param offset the offset of the text in bytes
+     * @param length the length of the text
+     * @param text the text to compare with
+     * @return true if the text is equal
+     */
+    private static boolean equals(byte[] bytes, int offset, int length, byte[] text) {
+        if (length != text.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the cache file, a line per file: its path, time of last modification, Main-Class of the
+     * manifest and the names of its classes, tab separated, those that can be run marked by a leading '*'.
+     */
+    private void load() {
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 3) {
+                    continue;
+                }
+                String[] classNames = new String[fields.length - 3];
+                boolean[] main = new boolean[classNames.length];
+                for (int i = 0; i < classNames.length; i++) {
+                    String name = fields[i + 3];
+                    main[i] = name.startsWith("*");
+                    classNames[i] = main[i] ? name.substring(1) : name;
+                }
+                cache.put(fields[0], new Entry(Long.parseLong(fields[1]), classNames, main, fields[2].isEmpty() ? null : fields[2]));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            Logger.getLogger(ClassIndex.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Saves the cache file.
+     */
+    private void save() {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(cacheFile))) {
+            for (Map.Entry<String, Entry> cached : cache.entrySet()) {
+                Entry entry = cached.getValue();
+                writer.write(cached.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(entry.modified));
+                writer.write('\t');
+                writer.write(entry.manifestMainClass != null ? entry.manifestMainClass : "");
+                for (int i = 0; i < entry.classNames.length; i++) {
+                    writer.write('\t');
+                    writer.write(entry.main[i] ? "*" + entry.classNames[i] : entry.classNames[i]);
+                }
+                writer.newLine();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ClassIndex.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private static final ClassIndex INDEX = new ClassIndex(new File(System.getProperty("user.home") + File.separator + ".mtrace.classes"));
+
+    /**
+     * @return the class index of the application
+     */
+    public static ClassIndex getClassIndex() {
+        return INDEX;
+    }
+}
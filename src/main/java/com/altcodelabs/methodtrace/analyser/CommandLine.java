@@ -0,0 +1,484 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.table.TableModel;
+
+/**
+ * Performs the operations of the application without the GUI.
+ * Used when the application is started with arguments:
+ * <pre>
+ * [--metrics-out=FILE] import [--methods=SPEC] NAME TRACE_FILE...
+ * [--metrics-out=FILE] export NAME ARCHIVE
+ * [--metrics-out=FILE] stats NAME...
+ * [--metrics-out=FILE] tree [--methods=SPEC] [--merged] NAME...
+ * [--metrics-out=FILE] hot NAME
+ * [--metrics-out=FILE] regress BASE NAME...
+ * [--metrics-out=FILE] query [--limit=N] SQL [NAME...]
+ * [--metrics-out=FILE] hangs NAME
+ * [--metrics-out=FILE] callgraph NAME [METHOD]
+ * [--metrics-out=FILE] critical NAME [COUNT]
+ * [--metrics-out=FILE] batch [--parallel=N] BATCH_FILE OUTPUT_DIRECTORY
+ * [--metrics-out=FILE] throughput [--window=MS] [--methods=SPEC] NAME
+ * [--metrics-out=FILE] concurrency [--window=MS] [--methods=SPEC] NAME
+ * </pre>
+ * The metrics are written as JSON if FILE ends with '.json', otherwise as CSV.
+ * TRACE_FILE may be a single archive written by export, or '-' to read one from the standard input;
+ * ARCHIVE is '-' to write it to the standard output.
+ * SPEC is a methods specification of the -Xtrace option, as parsed by {@link MethodSpec}.
+ * @author ani
+ */
+public class CommandLine {
+
+    /**
+     * The standard output, kept for the results of the commands; anything else printed, such as the
+     * traces loaded or the messages of the trace formatter, goes to the standard error.
+     */
+    private static final PrintStream STDOUT = System.out;
+
+    /**
+     * Runs the command.
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        File metricsOut = null;
+        List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--metrics-out=")) {
+                metricsOut = new File(arg.substring(14));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() < 2) {
+            usage();
+            return;
+        }
+        //The results alone go to the standard output, to be piped or compared between runs
+        System.setOut(System.err);
+        if (!Preferences.getPreferences().loadPreferences()) {
+            System.err.println("Preferences not found. Start the application without arguments to set them.");
+            System.exit(1);
+        }
+        boolean result = run(arguments.get(0), arguments.subList(1, arguments.size()));
+        if (metricsOut != null && !Metrics.getMetrics().write(metricsOut)) {
+            System.err.println("Unable to write metrics to " + metricsOut);
+        }
+        System.exit(result ? 0 : 1);
+    }
+
+    /**
+     * Runs a command on the traces of the workspace.
+     * @param command the name of the command
+     * @param arguments the arguments of the command
+     * @return true if successful
+     */
+    private static boolean run(String command, List<String> arguments) {
+        TraceManager traceManager = TraceManager.getTraceManager();
+        traceManager.loadTraces();
+        switch (command) {
+            case "import": {
+                MethodSpec methods = null;
+                if (arguments.get(0).startsWith("--methods=")) {
+                    methods = parseMethods(arguments.get(0).substring(10));
+                    if (methods == null) {
+                        return false;
+                    }
+                    arguments = arguments.subList(1, arguments.size());
+                }
+                if (arguments.size() < 2) {
+                    usage();
+                    return false;
+                }
+                ImportProgress.Listener listener = (progress) -> System.err.print("\r" + progress + "    ");
+                boolean imported;
+                if (arguments.size() == 2 && arguments.get(1).equals("-")) {
+                    imported = traceManager.importArchive(System.in, arguments.get(0), listener, methods);
+                } else {
+                    List<File> files = new ArrayList<>();
+                    arguments.subList(1, arguments.size()).forEach((path) -> files.add(new File(path)));
+                    imported = traceManager.importTrace(files, arguments.get(0), listener, methods);
+                }
+                System.err.println();
+                return imported;
+            }
+            case "export": {
+                if (arguments.size() < 2) {
+                    usage();
+                    return false;
+                }
+                boolean exported = arguments.get(1).equals("-") ? traceManager.exportTrace(arguments.get(0), STDOUT)
+                        : traceManager.exportTrace(arguments.get(0), new File(arguments.get(1)));
+                if (!exported) {
+                    System.err.println("Unable to export " + arguments.get(0) + " to " + arguments.get(1));
+                }
+                return exported;
+            }
+            case "stats": {
+                TableModel model = traceManager.getMethodStats(arguments.toArray(new String[arguments.size()]));
+                print(model);
+                return model.getColumnCount() > 1;
+            }
+            case "hot": {
+                TableModel model = traceManager.getHotMethods(arguments.get(0));
+                if (model == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                print(model);
+                return true;
+            }
+            case "regress": {
+                if (arguments.size() < 2) {
+                    usage();
+                    return false;
+                }
+                TableModel model = traceManager.getRegressions(arguments.get(0), arguments.subList(1, arguments.size()).toArray(new String[0]));
+                if (model == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                print(model);
+                return true;
+            }
+            case "query": {
+                int limit = 0;
+                if (arguments.get(0).startsWith("--limit=")) {
+                    Integer number = parseNumber(arguments.get(0).substring(8), 0);
+                    if (number == null) {
+                        return false;
+                    }
+                    limit = number;
+                    arguments = arguments.subList(1, arguments.size());
+                }
+                if (arguments.isEmpty()) {
+                    usage();
+                    return false;
+                }
+                FederatedQuery query = traceManager.query(arguments.get(0), limit, arguments.subList(1, arguments.size()).toArray(new String[0]));
+                return query.run(Runtime.getRuntime().availableProcessors(), new FederatedQuery.Listener() {
+                    @Override
+                    public void columns(String[] columnNames) {
+                        STDOUT.println(String.join("\t", columnNames));
+                    }
+
+                    @Override
+                    public void rows(List<Object[]> rows) {
+                        StringBuilder out = new StringBuilder();
+                        for (Object[] row : rows) {
+                            for (int j = 0; j < row.length; j++) {
+                                out.append(j > 0 ? "\t" : "").append(row[j]);
+                            }
+                            out.append('\n');
+                        }
+                        STDOUT.print(out);
+                    }
+
+                    @Override
+                    public void done(long rowCount, List<String> failed) {
+                        failed.forEach((name) -> System.err.println("Query failed on " + name));
+                    }
+                });
+            }
+            case "hangs": {
+                InvocationStore store = traceManager.getInvocations(arguments.get(0));
+                if (store == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                HangDetector hangs = new HangDetector(store);
+                print(hangs.getHotspotTableModel());
+                STDOUT.println();
+                print(hangs.getThreadTableModel());
+                return true;
+            }
+            case "callgraph": {
+                CallGraph graph = traceManager.getCallGraph(arguments.get(0));
+                if (graph == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                if (arguments.size() > 1) {
+                    int node = graph.findNode(arguments.get(1));
+                    if (node < 0) {
+                        System.err.println("Method not found: " + arguments.get(1));
+                        return false;
+                    }
+                    print(graph.getEdgeTableModel(graph.getCallers(node), true));
+                    STDOUT.println();
+                    print(graph.getEdgeTableModel(graph.getCallees(node), false));
+                } else {
+                    print(graph.getNodeTableModel());
+                    STDOUT.println();
+                    print(graph.getPathTableModel(CallGraph.HEAVIEST_PATHS));
+                    STDOUT.println();
+                    print(graph.getCycleTableModel());
+                }
+                return true;
+            }
+            case "critical": {
+                Integer count = arguments.size() > 1 ? parseNumber(arguments.get(1), 1) : Integer.valueOf(CriticalPath.TOP_PATHS);
+                if (count == null) {
+                    return false;
+                }
+                InvocationStore store = traceManager.getInvocations(arguments.get(0));
+                if (store == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                CriticalPath critical = new CriticalPath(store);
+                print(critical.getPathTableModel(count));
+                for (int r = 0; r < Math.min(count, critical.getPaths().size()); r++) {
+                    STDOUT.println();
+                    STDOUT.println("Path " + (r + 1));
+                    print(critical.getStepTableModel(critical.getPaths().get(r)));
+                }
+                return true;
+            }
+            case "batch": {
+                int parallelism = Runtime.getRuntime().availableProcessors();
+                if (arguments.get(0).startsWith("--parallel=")) {
+                    Integer number = parseNumber(arguments.get(0).substring(11), 1);
+                    if (number == null) {
+                        return false;
+                    }
+                    parallelism = number;
+                    arguments = arguments.subList(1, arguments.size());
+                }
+                if (arguments.size() < 2) {
+                    usage();
+                    return false;
+                }
+                List<BatchRunner.Job> jobs;
+                try {
+                    jobs = BatchRunner.read(new File(arguments.get(0)));
+                } catch (IOException | ParseException ex) {
+                    System.err.println(ex.getMessage());
+                    return false;
+                }
+                BatchRunner batch = new BatchRunner(jobs, new File(arguments.get(1)), traceManager);
+                //Stops the programs running if interrupted
+                Thread hook = new Thread(batch::cancel);
+                Runtime.getRuntime().addShutdownHook(hook);
+                boolean done = batch.run(parallelism, (job) -> System.err.println(job.name + "\t" + job.state
+                        + (job.exitCode >= 0 ? "\texit code " + job.exitCode : "")));
+                Runtime.getRuntime().removeShutdownHook(hook);
+                return done;
+            }
+            case "throughput":
+            case "concurrency": {
+                long window = 100000000L;
+                MethodSpec methods = null;
+                while (!arguments.isEmpty() && arguments.get(0).startsWith("--")) {
+                    String option = arguments.get(0);
+                    if (option.startsWith("--window=")) {
+                        try {
+                            window = (long) (Double.parseDouble(option.substring(9)) * 1000000);
+                        } catch (NumberFormatException ex) {
+                            window = 0;
+                        }
+                        if (window <= 0) {
+                            System.err.println("Not a positive number of milliseconds: " + option.substring(9));
+                            usage();
+                            return false;
+                        }
+                    } else if (option.startsWith("--methods=")) {
+                        methods = parseMethods(option.substring(10));
+                        if (methods == null) {
+                            return false;
+                        }
+                    } else {
+                        usage();
+                        return false;
+                    }
+                    arguments = arguments.subList(1, arguments.size());
+                }
+                if (arguments.isEmpty()) {
+                    usage();
+                    return false;
+                }
+                InvocationStore store = traceManager.getInvocations(arguments.get(0));
+                if (store == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                try {
+                    if (command.equals("throughput")) {
+                        LatencyTimeline timeline = new LatencyTimeline(store, methods, window);
+                        print(timeline.getSummaryTableModel());
+                        STDOUT.println();
+                        print(timeline.getBucketTableModel(timeline.getAll()));
+                    } else {
+                        ConcurrencyAnalyzer concurrency = new ConcurrencyAnalyzer(store, methods, window);
+                        print(concurrency.getSummaryTableModel());
+                        if (!concurrency.getMethods().isEmpty()) {
+                            STDOUT.println();
+                            print(concurrency.getWindowTableModel(concurrency.getMethods().get(0)));
+                        }
+                    }
+                } catch (IllegalArgumentException ex) {
+                    System.err.println(ex.getMessage());
+                    return false;
+                }
+                return true;
+            }
+            case "tree": {
+                MethodSpec methods = null;
+                boolean merged = false;
+                while (!arguments.isEmpty() && arguments.get(0).startsWith("--")) {
+                    String option = arguments.get(0);
+                    if (option.startsWith("--methods=")) {
+                        methods = parseMethods(option.substring(10));
+                        if (methods == null) {
+                            return false;
+                        }
+                    } else if (option.equals("--merged")) {
+                        merged = true;
+                    } else {
+                        usage();
+                        return false;
+                    }
+                    arguments = arguments.subList(1, arguments.size());
+                }
+                if (arguments.isEmpty()) {
+                    usage();
+                    return false;
+                }
+                if (merged) {
+                    String[] names = arguments.toArray(new String[0]);
+                    InvocationStore[] stores = new InvocationStore[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        stores[i] = traceManager.getInvocations(names[i]);
+                        if (stores[i] == null) {
+                            System.err.println("Trace not found: " + names[i]);
+                            return false;
+                        }
+                        if (methods != null) {
+                            stores[i] = stores[i].filter(methods);
+                        }
+                    }
+                    print(new Timeline(names, stores).getEventTableModel());
+                    return true;
+                }
+                if (arguments.size() > 1) {
+                    usage();
+                    return false;
+                }
+                String trace = traceManager.getMethodTrace(arguments.get(0), true, methods);
+                if (trace == null) {
+                    System.err.println("Trace not found: " + arguments.get(0));
+                    return false;
+                }
+                STDOUT.print(trace);
+                return true;
+            }
+            default:
+                usage();
+                return false;
+        }
+    }
+
+    /**
+     * Parses a methods specification, printing what is wrong if invalid.
+     * @param text the specification
+     * @return the specification, null if invalid
+     */
+    private static MethodSpec parseMethods(String text) {
+        try {
+            return MethodSpec.parse(text);
+        } catch (ParseException ex) {
+            System.err.println(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Parses a whole number argument, printing the usage if it is not one.
+     * @param text the argument
+     * @param min the smallest value allowed
+     * @return the number, null if not a whole number of at least min
+     */
+    private static Integer parseNumber(String text, int min) {
+        try {
+            int number = Integer.parseInt(text.trim());
+            if (number >= min) {
+                return number;
+            }
+        } catch (NumberFormatException ex) {
+        }
+        System.err.println("Not a whole number of at least " + min + ": " + text);
+        usage();
+        return null;
+    }
+
+    /**
+     * Prints the TableModel as tab separated values.
+     * @param model the TableModel
+     */
+    static void print(TableModel model) {
+        StringBuilder out = new StringBuilder();
+        for (int j = 0; j < model.getColumnCount(); j++) {
+            out.append(j > 0 ? "\t" : "").append(model.getColumnName(j));
+        }
+        out.append('\n');
+        for (int i = 0; i < model.getRowCount(); i++) {
+            for (int j = 0; j < model.getColumnCount(); j++) {
+                out.append(j > 0 ? "\t" : "").append(model.getValueAt(i, j));
+            }
+            out.append('\n');
+        }
+        STDOUT.print(out);
+    }
+
+    /**
+     * Prints the usage of the command line.
+     */
+    private static void usage() {
+        System.err.println("Usage: [--metrics-out=FILE] COMMAND ARGUMENTS\n"
+                + "Commands:\n"
+                + "  import [--methods=SPEC] NAME TRACE_FILE...\n"
+                + "                             imports the binary trace file(s), or an archive ('-' to read it from the standard\n"
+                + "                             input), into the workspace, keeping the methods of SPEC\n"
+                + "  export NAME ARCHIVE        writes the trace into a compressed archive, to be imported elsewhere ('-' for the\n"
+                + "                             standard output)\n"
+                + "  stats NAME...              prints the method statistics of the trace(s)\n"
+                + "  tree [--methods=SPEC] [--merged] NAME...\n"
+                + "                             prints the method trace entries of the trace, of the methods of SPEC, or with\n"
+                + "                             --merged the invocations of the trace(s) across all threads in the order of time\n"
+                + "  hot NAME                   prints the methods of the trace ranked by self time\n"
+                + "  regress BASE NAME...       prints the methods of the trace(s) that got slower than in BASE first\n"
+                + "  query [--limit=N] SQL [NAME...]\n"
+                + "                             runs the SELECT statement on the trace(s), or on every trace, with at most N rows per trace\n"
+                + "  hangs NAME                 prints the invocations left open at the end of the trace, by method and by thread\n"
+                + "  callgraph NAME [METHOD]    prints the call graph of the trace: its methods, heaviest paths and recursion\n"
+                + "                             cycles, or the callers and callees of METHOD\n"
+                + "  critical NAME [COUNT]      prints the COUNT heaviest critical paths of the trace, with the self time of their steps\n"
+                + "  batch [--parallel=N] BATCH_FILE OUTPUT_DIRECTORY\n"
+                + "                             runs the programs of BATCH_FILE with tracing, N at once, importing their traces\n"
+                + "  throughput [--window=MS] [--methods=SPEC] NAME\n"
+                + "                             prints the calls per second and latency percentiles of the methods of SPEC in\n"
+                + "                             windows of MS milliseconds (100 by default): their peaks, then every window\n"
+                + "  concurrency [--window=MS] [--methods=SPEC] NAME\n"
+                + "                             prints the invocations of the methods of SPEC in flight at once across threads:\n"
+                + "                             their peaks and when, then the windows of the most concurrent method");
+    }
+}
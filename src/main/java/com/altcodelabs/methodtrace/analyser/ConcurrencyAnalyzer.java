@@ -0,0 +1,327 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * The invocations of each method in flight at once, across the threads of a trace, to reveal contention
+ * such as many threads inside the same synchronized method. Only the outermost invocation of a method in
+ * each thread is counted, so recursion does not add to its concurrency, and the invocations left open are
+ * taken to be in flight until the end of the trace.
+ * <p>
+ * The times of entry and exit of the invocations of each method are sorted, and swept in time order:
+ * the number in flight rises at each entry and falls at each exit, the events at the same time being
+ * applied together so that an invocation starting as another ends does not overlap it. The times are the
+ * raw times of the trace, taken as nanoseconds.
+ * @author ani
+ */
+public class ConcurrencyAnalyzer {
+
+    /**
+     * The concurrency of a method.
+     */
+    public static class Method {
+
+        public final String name;
+        /**
+         * The number of outermost invocations and of the threads they ran in.
+         */
+        public long calls;
+        public int threads;
+        /**
+         * The largest number of invocations in flight at once, and the time it was first reached.
+         */
+        public int peak;
+        public long peakAt;
+        /**
+         * The time with the peak number in flight, with at least one and with at least two in flight.
+         */
+        public long peakTime, busyTime, contendedTime;
+        /**
+         * The mean number in flight while at least one is.
+         */
+        public double meanInFlight;
+        /**
+         * The range of the method in the sorted times of entry and exit.
+         */
+        private int from, to;
+        private int lastThread = -1;
+
+        /**
+         * @param name the name of the method
+         */
+        Method(String name) {
+            this.name = name;
+        }
+    }
+
+    private final long window;
+    private long startTime, endTime;
+    private int windows;
+    private final List<Method> methods = new ArrayList<>();
+    /**
+     * The times of entry and of exit of the invocations counted, grouped by method, each group sorted.
+     */
+    private final long[] entries, exits;
+
+    /**
+     * Sweeps the invocations of the methods matched by a specification.
+     * @param store the invocations of the trace, reconstructed by thread
+     * @param spec the methods to include, null for all
+     * @param window the length of a window of the chart and of the window table, in nanoseconds
+     * @throws IllegalArgumentException if the invocations span more than {@link LatencyTimeline#MAX_BUCKETS} windows
+     */
+    public ConcurrencyAnalyzer(InvocationStore store, MethodSpec spec, long window) {
+        long start = System.nanoTime();
+        this.window = Math.max(1, window);
+        BitSet matching = spec != null ? store.getMatchingMethods(spec) : null;
+        long traceEnd = Long.MIN_VALUE;
+        for (int i = 0; i < store.size(); i++) {
+            traceEnd = Math.max(traceEnd, store.isCompleted(i) ? Math.max(store.getTimeIn(i), store.getTimeOut(i)) : store.getTimeIn(i));
+        }
+        //Keeps the outermost invocation of each method per thread, following the open call path of the thread
+        BitSet counted = new BitSet(store.size());
+        Method[] byMethod = new Method[store.getMethodCount()];
+        int[] open = new int[store.getMethodCount()], path = new int[64];
+        int depth = 0, thread = -1, total = 0;
+        for (int i = 0; i < store.size(); i++) {
+            int parent = store.getParent(i);
+            if (store.getThread(i) != thread) {
+                thread = store.getThread(i);
+                parent = -1;
+            }
+            while (depth > 0 && path[depth - 1] != parent) {
+                open[store.getMethod(path[--depth])]--;
+            }
+            int method = store.getMethod(i);
+            if (open[method] == 0 && (matching == null || matching.get(method))) {
+                if (byMethod[method] == null) {
+                    byMethod[method] = new Method(store.getMethodClassName(method) + "." + store.getMethodName(method)
+                            + store.getMethodParameters(method));
+                    methods.add(byMethod[method]);
+                }
+                Method m = byMethod[method];
+                m.calls++;
+                if (m.lastThread != thread) {
+                    m.lastThread = thread;
+                    m.threads++;
+                }
+                counted.set(i);
+                total++;
+            }
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = i;
+            open[method]++;
+        }
+        //Groups the times by method
+        int offset = 0;
+        for (Method m : byMethod) {
+            if (m != null) {
+                m.from = m.to = offset;
+                offset += m.calls;
+            }
+        }
+        entries = new long[total];
+        exits = new long[total];
+        startTime = Long.MAX_VALUE;
+        endTime = Long.MIN_VALUE;
+        for (int i = counted.nextSetBit(0); i >= 0; i = counted.nextSetBit(i + 1)) {
+            Method m = byMethod[store.getMethod(i)];
+            entries[m.to] = store.getTimeIn(i);
+            exits[m.to] = store.isCompleted(i) ? Math.max(store.getTimeIn(i), store.getTimeOut(i)) : traceEnd;
+            startTime = Math.min(startTime, entries[m.to]);
+            endTime = Math.max(endTime, exits[m.to]);
+            m.to++;
+        }
+        if (total > 0) {
+            startTime = Math.floorDiv(startTime, this.window) * this.window;
+            long count = (endTime - startTime) / this.window + 1;
+            if (count > LatencyTimeline.MAX_BUCKETS) {
+                throw new IllegalArgumentException("The trace spans more than " + LatencyTimeline.MAX_BUCKETS + " windows, choose longer windows");
+            }
+            windows = (int) count;
+        } else {
+            startTime = endTime = 0;
+        }
+        for (Method m : methods) {
+            Arrays.sort(entries, m.from, m.to);
+            Arrays.sort(exits, m.from, m.to);
+            sweep(m, null, null);
+        }
+        methods.sort((a, b) -> a.peak != b.peak ? Integer.compare(b.peak, a.peak) : Long.compare(b.contendedTime, a.contendedTime));
+        Metrics.getMetrics().time("concurrency", start);
+    }
+
+    /**
+     * Sweeps the times of entry and exit of a method in order, keeping the number in flight. Without
+     * windows, finds the peak and the times in flight of the method; with, the largest and mean number
+     * in flight in each window.
+     * @param method the method
+     * @param max the largest number in flight in each window, null to find the peak
+     * @param mean the mean number in flight in each window, null to find the peak
+     */
+    private void sweep(Method method, double[] max, double[] mean) {
+        int i = method.from, j = method.from, count = 0;
+        long last = 0;
+        double weighted = 0;
+        while (i < method.to || j < method.to) {
+            long time = i < method.to ? Math.min(entries[i], exits[j]) : exits[j];
+            if (count > 0 && time > last) {
+                if (max == null) {
+                    method.busyTime += time - last;
+                    weighted += count * (double) (time - last);
+                    if (count > 1) {
+                        method.contendedTime += time - last;
+                    }
+                    if (count == method.peak) {
+                        method.peakTime += time - last;
+                    }
+                } else {
+                    for (long b = (last - startTime) / window; b < windows && startTime + b * window < time; b++) {
+                        long from = Math.max(last, startTime + b * window), to = Math.min(time, startTime + (b + 1) * window);
+                        max[(int) b] = Math.max(max[(int) b], count);
+                        mean[(int) b] += count * (double) (to - from) / window;
+                    }
+                }
+            }
+            while (j < method.to && exits[j] == time) {
+                count--;
+                j++;
+            }
+            while (i < method.to && entries[i] == time) {
+                count++;
+                i++;
+            }
+            if (max == null && count > method.peak) {
+                method.peak = count;
+                method.peakAt = time;
+                method.peakTime = 0;
+            }
+            last = time;
+        }
+        if (max == null) {
+            method.meanInFlight = method.busyTime > 0 ? weighted / method.busyTime : 0;
+        }
+    }
+
+    /**
+     * @return the length of a window, in nanoseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the time of the start of the first window
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the number of windows from the first entry to the last exit
+     */
+    public int getWindowCount() {
+        return windows;
+    }
+
+    /**
+     * @return the methods, by decreasing peak, then contended time
+     */
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Computes the number of invocations of a method in flight in each window.
+     * @param method the method
+     * @return the largest number in flight in each window, followed by the mean number
+     */
+    public double[][] getInFlight(Method method) {
+        double[] max = new double[windows], mean = new double[windows];
+        sweep(method, max, mean);
+        return new double[][]{max, mean};
+    }
+
+    /**
+     * Creates a table of the methods, with their peak concurrency and when it happened.
+     * @return the TableModel with a row per method, the most concurrent first
+     */
+    public DefaultTableModel getSummaryTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Method Name", "Calls", "Threads", "Peak In Flight", "Peak At",
+            "Time At Peak", "Mean In Flight", "Busy Time", "Contended Time", "Contended %"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : columnIndex == 2 || columnIndex == 3 ? Integer.class
+                        : columnIndex == 6 || columnIndex == 9 ? Double.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (Method m : methods) {
+            model.addRow(new Object[]{m.name, m.calls, m.threads, m.peak, m.peakAt, m.peakTime, m.meanInFlight, m.busyTime,
+                m.contendedTime, m.busyTime > 0 ? 100.0 * m.contendedTime / m.busyTime : 0.0});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the windows of a method.
+     * @param method the method
+     * @return the TableModel with a row per window, with its start time and the largest and mean number in flight
+     */
+    public DefaultTableModel getWindowTableModel(Method method) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Time", "Max In Flight", "Mean In Flight"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? Long.class : columnIndex == 1 ? Integer.class : Double.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        double[][] inFlight = getInFlight(method);
+        for (int b = 0; b < windows; b++) {
+            model.addRow(new Object[]{startTime + b * window, (int) inFlight[0][b], inFlight[1][b]});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a chart of the largest and mean number of invocations in flight of the most concurrent methods over the windows.
+     * @param maxMethods the maximum number of methods charted
+     * @return the chart
+     */
+    public SparklineChart createChart(int maxMethods) {
+        SparklineChart chart = new SparklineChart(startTime, window, windows);
+        for (Method m : methods.subList(0, Math.min(maxMethods, methods.size()))) {
+            chart.addRow(m.name + " - in flight", new String[]{"max", "mean"}, getInFlight(m));
+        }
+        return chart;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Finds the critical paths of a trace: from each root invocation, the path that follows the callee
+ * with the largest inclusive time down to an invocation calling no other. The paths through the same
+ * methods are merged across the roots, adding up their times, and ranked by their total time.
+ * The heaviest callee and the time spent in callees of every invocation are found in a single pass
+ * over the invocations from the last, as the callees of an invocation follow it.
+ * @author ani
+ */
+public class CriticalPath {
+
+    /**
+     * The number of paths shown by default.
+     */
+    static final int TOP_PATHS = 20;
+
+    /**
+     * A distinct critical path, merged across the roots following it.
+     */
+    public static class HotPath {
+
+        /**
+         * The methods of the path, from the root.
+         */
+        public int[] methods;
+        public long occurrences;
+        public long totalTime, maxTime;
+        /**
+         * The self and inclusive times of the steps of the path, added up across the occurrences.
+         */
+        public long[] selfTime, inclusiveTime;
+        /**
+         * The index of the root invocation of the first occurrence.
+         */
+        public int firstRoot;
+    }
+
+    private final InvocationStore store;
+    private final List<HotPath> paths;
+
+    /**
+     * Computes the critical paths of a trace.
+     * @param store the invocations of the trace
+     */
+    public CriticalPath(InvocationStore store) {
+        long start = System.nanoTime();
+        this.store = store;
+        int size = store.size();
+        int[] heaviest = new int[size];
+        long[] calleeTime = new long[size];
+        Arrays.fill(heaviest, -1);
+        for (int i = size - 1; i >= 0; i--) {
+            int caller = store.getParent(i);
+            if (caller >= 0) {
+                long duration = getDuration(i);
+                calleeTime[caller] += duration;
+                if (heaviest[caller] < 0 || duration >= getDuration(heaviest[caller])) {
+                    heaviest[caller] = i;
+                }
+            }
+        }
+
+        //The paths are interned into a trie of method ids, and merged by the node of their last method.
+        LongIntHashMap trie = new LongIntHashMap();
+        HashMap<Integer, HotPath> byLeaf = new HashMap<>();
+        int[] steps = new int[64];
+        int nodes = 0;
+        for (int root = 0; root < size; root++) {
+            if (store.getParent(root) >= 0) {
+                continue;
+            }
+            int depth = 0, node = -1;
+            for (int i = root; i >= 0; i = heaviest[i]) {
+                if (depth == steps.length) {
+                    steps = Arrays.copyOf(steps, depth * 2);
+                }
+                steps[depth++] = i;
+                long key = ((long) node << 32) | (store.getMethod(i) & 0xffffffffL);
+                int next = trie.get(key);
+                if (next < 0) {
+                    next = nodes++;
+                    trie.put(key, next);
+                }
+                node = next;
+            }
+            HotPath path = byLeaf.get(node);
+            if (path == null) {
+                path = new HotPath();
+                path.methods = new int[depth];
+                path.selfTime = new long[depth];
+                path.inclusiveTime = new long[depth];
+                path.firstRoot = root;
+                for (int d = 0; d < depth; d++) {
+                    path.methods[d] = store.getMethod(steps[d]);
+                }
+                byLeaf.put(node, path);
+            }
+            long duration = getDuration(root);
+            path.occurrences++;
+            path.totalTime += duration;
+            path.maxTime = Math.max(path.maxTime, duration);
+            for (int d = 0; d < depth; d++) {
+                path.selfTime[d] += Math.max(0, getDuration(steps[d]) - calleeTime[steps[d]]);
+                path.inclusiveTime[d] += getDuration(steps[d]);
+            }
+        }
+        paths = new ArrayList<>(byLeaf.values());
+        paths.sort((a, b) -> a.totalTime != b.totalTime ? Long.compare(b.totalTime, a.totalTime) : Integer.compare(a.firstRoot, b.firstRoot));
+        Metrics.getMetrics().time("critical", start);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the running time of the invocation, 0 if incomplete
+     */
+    private long getDuration(int index) {
+        return store.isCompleted(index) ? store.getTimeOut(index) - store.getTimeIn(index) : 0;
+    }
+
+    /**
+     * @return the distinct critical paths, by decreasing total time
+     */
+    public List<HotPath> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the class and method name of the method
+     */
+    private String getMethodText(int methodId) {
+        return store.getMethodClassName(methodId) + "." + store.getMethodName(methodId);
+    }
+
+    /**
+     * Creates a table of the heaviest critical paths.
+     * @param count the number of paths
+     * @return the TableModel with a row per path
+     */
+    public DefaultTableModel getPathTableModel(int count) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Rank", "Call Path", "Depth", "Occurrences",
+            "Total Time", "Max Time", "Hottest Step", "Hottest Self Time"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 1 || columnIndex == 6 ? String.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (int r = 0; r < Math.min(count, paths.size()); r++) {
+            HotPath path = paths.get(r);
+            StringBuilder text = new StringBuilder();
+            int hottest = 0;
+            for (int d = 0; d < path.methods.length; d++) {
+                text.append(d > 0 ? " > " : "").append(getMethodText(path.methods[d]));
+                if (path.selfTime[d] > path.selfTime[hottest]) {
+                    hottest = d;
+                }
+            }
+            model.addRow(new Object[]{(long) r + 1, text.toString(), (long) path.methods.length, path.occurrences,
+                path.totalTime, path.maxTime, getMethodText(path.methods[hottest]), path.selfTime[hottest]});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the steps of a critical path, with what each contributes in self time.
+     * @param path the path
+     * @return the TableModel with a row per step, from the root
+     */
+    public DefaultTableModel getStepTableModel(HotPath path) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Depth", "Method Name", "Inclusive Time", "Self Time", "Self Time %"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 1 ? String.class : columnIndex == 4 ? Double.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (int d = 0; d < path.methods.length; d++) {
+            model.addRow(new Object[]{(long) d, getMethodText(path.methods[d]), path.inclusiveTime[d], path.selfTime[d],
+                path.totalTime > 0 ? 100.0 * path.selfTime[d] / path.totalTime : 0.0});
+        }
+        return model;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Shows the hunks of the difference of two method traces, a line per row, so that every row has the
+ * same height. A hunk of several lines is collapsed to its first line until expanded.
+ * The line counts of the hunks are computed once; the rows of the expanded hunks are tracked in a
+ * Fenwick tree, so the hunk of a row is found in O(log hunks) and expanding a hunk costs the same.
+ * The first column marks the hunks that can be expanded or collapsed.
+ * @author ani
+ */
+public class DiffTableModel extends AbstractTableModel {
+
+    /**
+     * Hunks of up to these many lines, other than the common ones, are expanded at first.
+     */
+    static final int EXPANDED_LINES = 10;
+
+    private final String[] columnNames;
+    private final String[][] texts;
+    private final int[][][] lineStarts;
+    private final int[] lineCounts;
+    private final BitSet expanded;
+    private final int[] tree;
+    private int rowCount;
+
+    /**
+     * Creates the model.
+     * @param names the names of the two traces
+     * @param hunks the hunks, each holding the text deleted from the first trace, the common text and the text inserted into the second trace
+     */
+    public DiffTableModel(String[] names, List<String[]> hunks) {
+        columnNames = new String[]{"", names[0], "common", names[1]};
+        texts = hunks.toArray(new String[hunks.size()][]);
+        lineStarts = new int[texts.length][3][];
+        lineCounts = new int[texts.length];
+        expanded = new BitSet(texts.length);
+        tree = new int[texts.length + 1];
+        for (int h = 0; h < texts.length; h++) {
+            int lines = 1;
+            for (int c = 0; c < 3; c++) {
+                lineStarts[h][c] = getLineStarts(texts[h][c]);
+                lines = Math.max(lines, lineStarts[h][c].length);
+            }
+            lineCounts[h] = lines;
+            boolean common = texts[h][0].isEmpty() && texts[h][2].isEmpty();
+            if (lines > 1 && lines <= EXPANDED_LINES && !common) {
+                expanded.set(h);
+            }
+            add(h, expanded.get(h) ? lines : 1);
+        }
+    }
+
+    /**
+     * @param text the text
+     * @return the offsets at which the lines of the text start
+     */
+    private static int[] getLineStarts(String text) {
+        int[] starts = new int[4];
+        int count = 0;
+        for (int start = 0; start < text.length();) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = start;
+            int end = text.indexOf('\n', start);
+            start = end < 0 ? text.length() : end + 1;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Adds to the number of rows of a hunk.
+     * @param hunk the hunk
+     * @param rows the number of rows to add
+     */
+    private void add(int hunk, int rows) {
+        rowCount += rows;
+        for (int i = hunk + 1; i < tree.length; i += i & -i) {
+            tree[i] += rows;
+        }
+    }
+
+    /**
+     * @param hunk the hunk
+     * @return the first row of the hunk
+     */
+    public int getFirstRow(int hunk) {
+        int row = 0;
+        for (int i = hunk; i > 0; i -= i & -i) {
+            row += tree[i];
+        }
+        return row;
+    }
+
+    /**
+     * @param row the row
+     * @return the hunk shown in the row
+     */
+    public int getHunk(int row) {
+        int hunk = 0;
+        for (int step = Integer.highestOneBit(tree.length); step > 0; step >>= 1) {
+            if (hunk + step < tree.length && tree[hunk + step] <= row) {
+                hunk += step;
+                row -= tree[hunk];
+            }
+        }
+        return hunk;
+    }
+
+    /**
+     * @param hunk the hunk
+     * @return the number of lines of the hunk
+     */
+    public int getLineCount(int hunk) {
+        return lineCounts[hunk];
+    }
+
+    /**
+     * @param hunk the hunk
+     * @return true if all the lines of the hunk are shown
+     */
+    public boolean isExpanded(int hunk) {
+        return expanded.get(hunk);
+    }
+
+    /**
+     * Expands a collapsed hunk, or collapses an expanded one.
+     * @param hunk the hunk
+     */
+    public void toggle(int hunk) {
+        int lines = lineCounts[hunk];
+        if (lines <= 1) {
+            return;
+        }
+        int first = getFirstRow(hunk);
+        if (expanded.get(hunk)) {
+            expanded.clear(hunk);
+            add(hunk, 1 - lines);
+            fireTableRowsDeleted(first + 1, first + lines - 1);
+        } else {
+            expanded.set(hunk);
+            add(hunk, lines - 1);
+            fireTableRowsInserted(first + 1, first + lines - 1);
+        }
+        fireTableRowsUpdated(first, first);
+    }
+
+    /**
+     * @param hunk the hunk
+     * @return the kind of the hunk: 0 if deleted from the first trace, 1 if common, 2 if inserted into the second trace, 3 if replaced
+     */
+    public int getKind(int hunk) {
+        boolean deleted = !texts[hunk][0].isEmpty(), inserted = !texts[hunk][2].isEmpty();
+        return deleted && inserted ? 3 : deleted ? 0 : inserted ? 2 : 1;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int hunk = getHunk(rowIndex), line = rowIndex - getFirstRow(hunk);
+        if (columnIndex == 0) {
+            if (line > 0 || lineCounts[hunk] <= 1) {
+                return "";
+            }
+            return expanded.get(hunk) ? "[-]" : "[+] " + (lineCounts[hunk] - 1);
+        }
+        String text = texts[hunk][columnIndex - 1];
+        int[] starts = lineStarts[hunk][columnIndex - 1];
+        if (line >= starts.length) {
+            return "";
+        }
+        int end = line + 1 < starts.length ? starts[line + 1] - 1 : text.endsWith("\n") ? text.length() - 1 : text.length();
+        return text.substring(starts[line], end);
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return false;
+    }
+}
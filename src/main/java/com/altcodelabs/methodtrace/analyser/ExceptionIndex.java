@@ -0,0 +1,267 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Lists the invocations of a trace that exited with an exception, a row per exit, grouped by the
+ * call path from the root to the exiting method; the groups with the most exits come first.
+ * The call paths are interned into a trie of method ids, so an exit only walks up its callers until
+ * it reaches an exceptional caller already indexed. The rows are computed when shown, so the index
+ * costs a few ints per exceptional exit, whatever the size of the trace.
+ * An exit is marked as 'thrown' unless one of its callees exited with the exception first.
+ * @author ani
+ */
+public class ExceptionIndex extends AbstractTableModel {
+
+    static final String[] COLUMN_NAMES = {"Method Name", "Call Path", "Exits", "Origin", "Thread", "Time", "Stack ID"};
+
+    private final InvocationStore store;
+    private final int[] exits;
+    private final int[] groupStarts;
+    private final int[] rowGroups;
+    private final int[] groupPaths;
+    private final BitSet propagated;
+
+    private int pathCount;
+    private int[] pathParent, pathMethod;
+    private final HashMap<Long, Integer> pathChildren;
+    private final HashMap<Integer, String> pathTexts;
+
+    /**
+     * Indexes the exceptional exits of a trace.
+     * @param store the invocations of the trace
+     */
+    public ExceptionIndex(InvocationStore store) {
+        long start = System.nanoTime();
+        this.store = store;
+        pathParent = new int[256];
+        pathMethod = new int[256];
+        pathChildren = new HashMap<>();
+        pathTexts = new HashMap<>();
+        propagated = new BitSet();
+
+        int count = 0;
+        for (int i = store.nextException(0); i >= 0; i = store.nextException(i + 1)) {
+            count++;
+        }
+        int[] found = new int[count], foundPaths = new int[count];
+        //The path of an exceptional exit, by its invocation, to stop at callers already indexed.
+        HashMap<Integer, Integer> pathOf = new HashMap<>();
+        HashMap<Integer, Integer> groupOfPath = new HashMap<>();
+        int[] groupSizes = new int[16];
+        int[] callers = new int[64];
+        count = 0;
+        for (int i = store.nextException(0); i >= 0; i = store.nextException(i + 1)) {
+            int caller = store.getParent(i);
+            if (caller >= 0 && store.hasException(caller)) {
+                propagated.set(caller);
+            }
+            int depth = 0, path = -1;
+            for (int j = i; j >= 0; j = store.getParent(j)) {
+                Integer known = j != i ? pathOf.get(j) : null;
+                if (known != null) {
+                    path = known;
+                    break;
+                }
+                if (depth == callers.length) {
+                    callers = Arrays.copyOf(callers, depth * 2);
+                }
+                callers[depth++] = store.getMethod(j);
+            }
+            while (depth > 0) {
+                path = getPath(path, callers[--depth]);
+            }
+            pathOf.put(i, path);
+            Integer group = groupOfPath.get(path);
+            if (group == null) {
+                group = groupOfPath.size();
+                groupOfPath.put(path, group);
+                if (group == groupSizes.length) {
+                    groupSizes = Arrays.copyOf(groupSizes, group * 2);
+                }
+            }
+            groupSizes[group]++;
+            found[count] = i;
+            foundPaths[count++] = group;
+        }
+
+        //Orders the groups by their number of exits, and the exits of a group by their entry.
+        int groups = groupOfPath.size();
+        Integer[] order = new Integer[groups];
+        for (int g = 0; g < groups; g++) {
+            order[g] = g;
+        }
+        final int[] sizes = groupSizes;
+        Arrays.sort(order, (a, b) -> sizes[b] != sizes[a] ? Integer.compare(sizes[b], sizes[a]) : Integer.compare(a, b));
+        int[] rank = new int[groups];
+        groupPaths = new int[groups];
+        groupStarts = new int[groups + 1];
+        for (Map.Entry<Integer, Integer> entry : groupOfPath.entrySet()) {
+            groupPaths[entry.getValue()] = entry.getKey();
+        }
+        int[] paths = groupPaths.clone();
+        for (int r = 0; r < groups; r++) {
+            rank[order[r]] = r;
+            groupPaths[r] = paths[order[r]];
+            groupStarts[r + 1] = groupStarts[r] + sizes[order[r]];
+        }
+        exits = new int[count];
+        rowGroups = new int[count];
+        int[] next = Arrays.copyOf(groupStarts, groups);
+        for (int k = 0; k < count; k++) {
+            int r = rank[foundPaths[k]];
+            rowGroups[next[r]] = r;
+            exits[next[r]++] = found[k];
+        }
+        Metrics.getMetrics().time("exceptions", start);
+    }
+
+    /**
+     * Gets the id of a call path, adding it if not present.
+     * @param caller the id of the path of the caller, -1 for the root
+     * @param methodId the id of the called method
+     * @return the id of the path
+     */
+    private int getPath(int caller, int methodId) {
+        long key = ((long) caller << 32) | (methodId & 0xffffffffL);
+        Integer path = pathChildren.get(key);
+        if (path == null) {
+            if (pathCount == pathParent.length) {
+                pathParent = Arrays.copyOf(pathParent, pathCount * 2);
+                pathMethod = Arrays.copyOf(pathMethod, pathCount * 2);
+            }
+            pathParent[pathCount] = caller;
+            pathMethod[pathCount] = methodId;
+            path = pathCount++;
+            pathChildren.put(key, path);
+        }
+        return path;
+    }
+
+    /**
+     * @param path the id of the path
+     * @return the methods of the path from the root, separated by ' > '
+     */
+    public String getPathText(int path) {
+        return pathTexts.computeIfAbsent(path, (key) -> {
+            StringBuilder text = new StringBuilder();
+            for (int p = key; p >= 0; p = pathParent[p]) {
+                text.insert(0, (pathParent[p] >= 0 ? " > " : "") + getMethodText(pathMethod[p]));
+            }
+            return text.toString();
+        });
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the class and method name of the method
+     */
+    private String getMethodText(int methodId) {
+        return store.getMethodClassName(methodId) + "." + store.getMethodName(methodId);
+    }
+
+    /**
+     * @return the number of distinct call paths that exited with an exception
+     */
+    public int getGroupCount() {
+        return groupPaths.length;
+    }
+
+    /**
+     * @param group the group, in the order shown
+     * @return the first row of the group
+     */
+    public int getFirstRow(int group) {
+        return groupStarts[group];
+    }
+
+    /**
+     * @param row the row
+     * @return the index of the exceptional invocation shown in the row
+     */
+    public int getInvocation(int row) {
+        return exits[row];
+    }
+
+    /**
+     * @param row the row
+     * @return true if the exception was thrown in the invocation, rather than passed on from a callee
+     */
+    public boolean isThrown(int row) {
+        return !propagated.get(exits[row]);
+    }
+
+    @Override
+    public int getRowCount() {
+        return exits.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        switch (columnIndex) {
+            case 2:
+            case 6:
+                return Integer.class;
+            case 4:
+            case 5:
+                return Long.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int index = exits[rowIndex], group = rowGroups[rowIndex];
+        switch (columnIndex) {
+            case 0:
+                return getMethodText(store.getMethod(index));
+            case 1:
+                return getPathText(groupPaths[group]);
+            case 2:
+                return groupStarts[group + 1] - groupStarts[group];
+            case 3:
+                return isThrown(rowIndex) ? "thrown" : "propagated";
+            case 4:
+                return store.getThreadId(store.getThread(index));
+            case 5:
+                return store.getTimeOut(index);
+            default:
+                return store.getStackTraceId(index);
+        }
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return false;
+    }
+}
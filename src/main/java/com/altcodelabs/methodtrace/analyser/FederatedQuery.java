@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the same read-only SQL query on many traces, on a pool of workers with a connection per trace,
+ * streaming the rows of all the traces to a {@link Listener} with the name of their trace as the first column.
+ * The limit on the rows per trace is pushed down into the query run on each trace.
+ * @author ani
+ */
+public class FederatedQuery {
+
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Receives the results of the query, one call at a time.
+     */
+    public interface Listener {
+
+        /**
+         * Called once, before the first rows, with the columns of the first trace to answer.
+         * @param columnNames the names of the columns, the first being 'trace'
+         */
+        void columns(String[] columnNames);
+
+        /**
+         * Called with the next rows of a trace.
+         * @param rows the rows, each starting with the name of the trace
+         */
+        void rows(List<Object[]> rows);
+
+        /**
+         * Called once, after all the traces have been queried.
+         * @param rowCount the number of rows returned
+         * @param failed the names of the traces on which the query failed, or returned columns other
+         * than those of the first trace to answer
+         */
+        void done(long rowCount, List<String> failed);
+    }
+
+    private final Map<String, String> urls;
+    private final String sql;
+    private final int limit;
+    private final AtomicInteger pending;
+    private final List<String> failed;
+    private String[] columnNames;
+    private long rowCount;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates the query.
+     * @param urls the JDBC urls of the trace databases, by the names of the traces
+     * @param sql the SELECT statement
+     * @param limit the maximum number of rows per trace, 0 for no limit
+     */
+    public FederatedQuery(Map<String, String> urls, String sql, int limit) {
+        this.urls = urls;
+        this.sql = sql.trim().replaceAll(";+$", "");
+        this.limit = limit;
+        pending = new AtomicInteger(urls.size());
+        failed = new ArrayList<>();
+    }
+
+    /**
+     * @return the statement run on each trace, with the limit pushed down
+     */
+    String getStatement() {
+        return limit > 0 ? "SELECT * FROM (" + sql + ") LIMIT " + limit + ";" : sql + ";";
+    }
+
+    /**
+     * Runs the query on the traces, returning once all of them have been queried.
+     * @param parallelism the number of traces queried at once
+     * @param listener the listener receiving the results
+     * @return true unless the query failed on every trace
+     */
+    public boolean run(int parallelism, Listener listener) {
+        long start = System.nanoTime();
+        String first = sql.replaceAll("^\\(+", "").toUpperCase();
+        if (!first.startsWith("SELECT") && !first.startsWith("WITH")) {
+            synchronized (this) {
+                failed.addAll(urls.keySet());
+                listener.done(0, failed);
+            }
+            return false;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, urls.size())));
+        for (Map.Entry<String, String> trace : urls.entrySet()) {
+            pool.submit(() -> query(trace.getKey(), trace.getValue(), listener));
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            cancel();
+            pool.shutdownNow();
+        }
+        Metrics.getMetrics().time("query", start);
+        Metrics.getMetrics().count("query.rows", rowCount);
+        return urls.isEmpty() || failed.size() < urls.size();
+    }
+
+    /**
+     * Stops querying, the traces already being queried stopping at their next batch of rows.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Queries a trace through a read-only connection of its own.
+     * @param name the name of the trace
+     * @param url the JDBC url of the trace database
+     * @param listener the listener receiving the results
+     */
+    private void query(String name, String url, Listener listener) {
+        Properties properties = new Properties();
+        //SQLITE_OPEN_READONLY
+        properties.setProperty("open_mode", "1");
+        try (Connection con = DriverManager.getConnection(url, properties); Statement stmt = con.createStatement()) {
+            if (!cancelled) {
+                ResultSet rs = stmt.executeQuery(getStatement());
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                boolean mismatch;
+                synchronized (this) {
+                    if (columnNames == null) {
+                        columnNames = new String[columnCount + 1];
+                        columnNames[0] = "trace";
+                        for (int column = 1; column <= columnCount; column++) {
+                            columnNames[column] = metaData.getColumnName(column);
+                        }
+                        listener.columns(columnNames);
+                    }
+                    mismatch = columnCount != columnNames.length - 1;
+                    if (mismatch) {
+                        failed.add(name);
+                    }
+                }
+                if (mismatch) {
+                    //The rows would not line up with the columns of the other traces
+                    Logger.getLogger(FederatedQuery.class.getName()).log(Level.WARNING, "{0} returned {1} columns instead of {2}",
+                            new Object[]{name, columnCount, columnNames.length - 1});
+                    return;
+                }
+                ArrayList<Object[]> rows = new ArrayList<>();
+                while (!cancelled && rs.next()) {
+                    Object[] row = new Object[columnNames.length];
+                    row[0] = name;
+                    for (int column = 1; column <= columnCount; column++) {
+                        row[column] = rs.getObject(column);
+                    }
+                    rows.add(row);
+                    if (rows.size() == BATCH_SIZE) {
+                        send(rows, listener);
+                        rows = new ArrayList<>();
+                    }
+                }
+                send(rows, listener);
+            }
+        } catch (SQLException ex) {
+            Logger.getLogger(FederatedQuery.class.getName()).log(Level.WARNING, name, ex);
+            synchronized (this) {
+                failed.add(name);
+            }
+        } finally {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    listener.done(rowCount, failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands rows over to the listener.
+     * @param rows the rows
+     * @param listener the listener
+     */
+    private synchronized void send(List<Object[]> rows, Listener listener) {
+        if (!rows.isEmpty()) {
+            rowCount += rows.size();
+            listener.rows(rows);
+        }
+    }
+}
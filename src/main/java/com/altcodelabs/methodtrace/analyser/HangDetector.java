@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Finds the invocations still running when a trace ends, to spot hangs and lock convoys.
+ * For each thread, the invocations left open are the incomplete callers of the last invocation
+ * entered by the thread; they are reported with how long they had been running at the last event
+ * of the trace, along with how long the thread had been idle. The innermost open invocations are
+ * then grouped by method across the threads, so many threads stuck in the same method stand out.
+ * @author ani
+ */
+public class HangDetector {
+
+    /**
+     * The invocations left open by a thread.
+     */
+    public static class ThreadState {
+
+        public long threadId;
+        /**
+         * The open invocations, from the outermost to the innermost.
+         */
+        public int[] open;
+        public long openTime;
+        public long idleTime;
+        /**
+         * The number of other invocations of the thread whose exit was not found.
+         */
+        public int lostExits;
+    }
+
+    /**
+     * A method in which threads were left open.
+     */
+    public static class Hotspot {
+
+        public int methodId;
+        public List<ThreadState> threads = new ArrayList<>();
+        public long longestOpenTime;
+    }
+
+    private final InvocationStore store;
+    private final List<ThreadState> threads;
+    private final List<Hotspot> hotspots;
+    private long endTime;
+
+    /**
+     * Analyses the invocations of a trace.
+     * @param store the invocations of the trace
+     */
+    public HangDetector(InvocationStore store) {
+        long start = System.nanoTime();
+        this.store = store;
+        threads = new ArrayList<>();
+        hotspots = new ArrayList<>();
+        int threadCount = store.getThreadCount();
+        int[] lastEntry = new int[threadCount], incomplete = new int[threadCount];
+        long[] lastEvent = new long[threadCount];
+        Arrays.fill(lastEntry, -1);
+        Arrays.fill(lastEvent, Long.MIN_VALUE);
+        for (int i = 0; i < store.size(); i++) {
+            int thread = store.getThread(i);
+            lastEntry[thread] = i;
+            long time = store.isCompleted(i) ? Math.max(store.getTimeIn(i), store.getTimeOut(i)) : store.getTimeIn(i);
+            lastEvent[thread] = Math.max(lastEvent[thread], time);
+            if (!store.isCompleted(i)) {
+                incomplete[thread]++;
+            }
+        }
+        endTime = Long.MIN_VALUE;
+        for (long time : lastEvent) {
+            endTime = Math.max(endTime, time);
+        }
+
+        LinkedHashMap<Integer, Hotspot> byMethod = new LinkedHashMap<>();
+        for (int thread = 0; thread < threadCount; thread++) {
+            if (lastEntry[thread] < 0) {
+                continue;
+            }
+            int depth = 0;
+            for (int i = lastEntry[thread]; i >= 0; i = store.getParent(i)) {
+                if (!store.isCompleted(i)) {
+                    depth++;
+                }
+            }
+            ThreadState state = new ThreadState();
+            state.threadId = store.getThreadId(thread);
+            state.idleTime = endTime - lastEvent[thread];
+            state.open = new int[depth];
+            for (int i = lastEntry[thread]; i >= 0; i = store.getParent(i)) {
+                if (!store.isCompleted(i)) {
+                    state.open[--depth] = i;
+                }
+            }
+            state.lostExits = incomplete[thread] - state.open.length;
+            threads.add(state);
+            if (state.open.length > 0) {
+                int innermost = state.open[state.open.length - 1];
+                state.openTime = endTime - store.getTimeIn(innermost);
+                Hotspot hotspot = byMethod.computeIfAbsent(store.getMethod(innermost), (methodId) -> {
+                    Hotspot created = new Hotspot();
+                    created.methodId = methodId;
+                    return created;
+                });
+                hotspot.threads.add(state);
+                hotspot.longestOpenTime = Math.max(hotspot.longestOpenTime, endTime - store.getTimeIn(state.open[0]));
+            }
+        }
+        hotspots.addAll(byMethod.values());
+        hotspots.sort((a, b) -> a.threads.size() != b.threads.size() ? Integer.compare(b.threads.size(), a.threads.size())
+                : Long.compare(b.longestOpenTime, a.longestOpenTime));
+        threads.sort((a, b) -> Long.compare(b.openTime, a.openTime));
+        Metrics.getMetrics().time("hangs", start);
+    }
+
+    /**
+     * @return the time of the last event of the trace
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return the threads, the ones open the longest first
+     */
+    public List<ThreadState> getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the methods in which threads were left open, the ones holding the most threads first
+     */
+    public List<Hotspot> getHotspots() {
+        return hotspots;
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the class and method name of the method
+     */
+    private String getMethodText(int methodId) {
+        return store.getMethodClassName(methodId) + "." + store.getMethodName(methodId);
+    }
+
+    /**
+     * @param state the thread
+     * @return the open invocations of the thread from the outermost, separated by ' > '
+     */
+    public String getOpenPath(ThreadState state) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < state.open.length; i++) {
+            path.append(i > 0 ? " > " : "").append(getMethodText(store.getMethod(state.open[i])));
+        }
+        return path.toString();
+    }
+
+    /**
+     * Creates a table of the methods in which threads were left open.
+     * @return the TableModel with a row per method
+     */
+    public DefaultTableModel getHotspotTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Method Name", "Threads", "Longest Open", "Thread IDs"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 1 ? Integer.class : columnIndex == 2 ? Long.class : String.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (Hotspot hotspot : hotspots) {
+            StringBuilder ids = new StringBuilder();
+            for (ThreadState state : hotspot.threads) {
+                ids.append(ids.length() > 0 ? ", " : "").append(state.threadId);
+            }
+            model.addRow(new Object[]{getMethodText(hotspot.methodId), hotspot.threads.size(), hotspot.longestOpenTime, ids.toString()});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the threads and their open invocations.
+     * @return the TableModel with a row per thread
+     */
+    public DefaultTableModel getThreadTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Thread ID", "Open Invocations", "Innermost Open For",
+            "Outermost Open For", "Idle For", "Lost Exits", "Open Call Path"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                switch (columnIndex) {
+                    case 6:
+                        return String.class;
+                    case 1:
+                    case 5:
+                        return Integer.class;
+                    default:
+                        return Long.class;
+                }
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (ThreadState state : threads) {
+            model.addRow(new Object[]{state.threadId, state.open.length, state.openTime,
+                state.open.length > 0 ? endTime - store.getTimeIn(state.open[0]) : 0L, state.idleTime, state.lostExits,
+                getOpenPath(state)});
+        }
+        return model;
+    }
+}
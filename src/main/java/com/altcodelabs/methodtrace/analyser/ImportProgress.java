@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+/**
+ * The progress of an import, as reported to a {@link Listener}.
+ * The stages are reading the trace blocks, then decoding the tracepoints and inserting the rows,
+ * which overlap, and finally committing the database.
+ * @author ani
+ */
+public class ImportProgress {
+
+    public static final String READING = "Reading", DECODING = "Decoding", COMMITTING = "Committing", DONE = "Done";
+
+    /**
+     * Receives the progress of an import, from the thread running it.
+     */
+    public interface Listener {
+
+        /**
+         * Called as the import progresses, at most a few times a second, and once at the end of each stage.
+         * @param progress the progress of the import
+         */
+        void update(ImportProgress progress);
+    }
+
+    public volatile String stage = READING;
+    public volatile long bytesRead, bytesDecoded, totalBytes;
+    public volatile long records, points, rowsInserted;
+    public volatile int threadsDecoded, threads;
+    public volatile long stageStartTime = System.nanoTime();
+
+    private final Listener listener;
+    private long lastReport;
+
+    /**
+     * Creates the progress of an import.
+     * @param listener the listener to report to, null if none
+     */
+    public ImportProgress(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports the progress to the listener, unless reported within the last 250 ms.
+     * @param force true to report regardless of the last report
+     */
+    synchronized void report(boolean force) {
+        long now = System.nanoTime();
+        if (listener != null && (force || now - lastReport > 250000000L)) {
+            lastReport = now;
+            listener.update(this);
+        }
+    }
+
+    /**
+     * Moves the import to a new stage.
+     * @param stage the new stage
+     */
+    void setStage(String stage) {
+        report(true);
+        this.stage = stage;
+        stageStartTime = System.nanoTime();
+        report(true);
+    }
+
+    /**
+     * @return the fraction of the bytes of the trace read or decoded in the current stage, between 0 and 1
+     */
+    public double getFraction() {
+        if (totalBytes <= 0) {
+            return 0;
+        }
+        return Math.min(1, (READING.equals(stage) ? bytesRead : bytesDecoded) / (double) totalBytes);
+    }
+
+    /**
+     * @return the bytes decoded per second since decoding started
+     */
+    public double getDecodeRate() {
+        return bytesDecoded / Math.max(1e-3, (System.nanoTime() - stageStartTime) / 1e9);
+    }
+
+    /**
+     * @return the rows inserted per second since decoding started
+     */
+    public double getInsertRate() {
+        return rowsInserted / Math.max(1e-3, (System.nanoTime() - stageStartTime) / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        switch (stage) {
+            case READING:
+                return String.format("%s: %d%% (%d records)", stage, (int) (getFraction() * 100), records);
+            case DECODING:
+                return String.format("%s: %d%% (%d of %d threads, %.1f MB/s), inserted %d of %d rows (%.0f rows/s)", stage,
+                        (int) (getFraction() * 100), threadsDecoded, threads, getDecodeRate() / (1024 * 1024), rowsInserted, points, getInsertRate());
+            default:
+                return String.format("%s: %d rows", stage, rowsInserted);
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Stores the method invocations of a trace as parallel primitive arrays, indexed by the invocation.
+ * The invocations are kept in the order of their entries, so the callees of an invocation directly
+ * follow it. The names of methods are interned into a {@link SymbolTable}, and the stack traces
+ * into a {@link StackTable}.
+ * @author ani
+ */
+public class InvocationStore {
+
+    final SymbolTable symbols;
+    final StackTable stacks;
+
+    private int methodCount;
+    private int[] methodOfSymbol, methodClass, methodName, methodParameters, methodDefinition;
+
+    private long[] threadIds;
+    private int threadCount;
+    private final HashMap<Long, Integer> threadIndices;
+
+    private int size;
+    private int[] method, thread, stackLevel, parent, tpIn, tpOut, stackTrace;
+    private long[] timeIn, timeOut;
+    private final BitSet completed, exception;
+
+    /**
+     * Creates an empty store.
+     */
+    public InvocationStore() {
+        symbols = new SymbolTable();
+        stacks = new StackTable();
+        methodOfSymbol = new int[256];
+        Arrays.fill(methodOfSymbol, -1);
+        methodClass = new int[256];
+        methodName = new int[256];
+        methodParameters = new int[256];
+        methodDefinition = new int[256];
+        threadIds = new long[16];
+        threadIndices = new HashMap<>();
+        int capacity = 1024;
+        method = new int[capacity];
+        thread = new int[capacity];
+        stackLevel = new int[capacity];
+        parent = new int[capacity];
+        tpIn = new int[capacity];
+        tpOut = new int[capacity];
+        stackTrace = new int[capacity];
+        timeIn = new long[capacity];
+        timeOut = new long[capacity];
+        completed = new BitSet();
+        exception = new BitSet();
+    }
+
+    /**
+     * Gets the id of a method, adding it if not present.
+     * @param key the '||' separated class name, method name and parameters, identifying the method
+     * @param parameters key split into the class name, method name and parameters
+     * @return the id of the method
+     */
+    public int getMethodId(String key, String[] parameters) {
+        int symbol = symbols.intern(key);
+        if (symbol >= methodOfSymbol.length) {
+            int length = methodOfSymbol.length;
+            methodOfSymbol = Arrays.copyOf(methodOfSymbol, Math.max(symbol + 1, length * 2));
+            Arrays.fill(methodOfSymbol, length, methodOfSymbol.length, -1);
+        }
+        if (methodOfSymbol[symbol] < 0) {
+            if (methodCount == methodClass.length) {
+                methodClass = Arrays.copyOf(methodClass, methodCount * 2);
+                methodName = Arrays.copyOf(methodName, methodCount * 2);
+                methodParameters = Arrays.copyOf(methodParameters, methodCount * 2);
+                methodDefinition = Arrays.copyOf(methodDefinition, methodCount * 2);
+            }
+            methodClass[methodCount] = symbols.intern(parameters[0]);
+            methodName[methodCount] = symbols.intern(parameters[1]);
+            methodParameters[methodCount] = symbols.intern(parameters[2]);
+            methodDefinition[methodCount] = -1;
+            methodOfSymbol[symbol] = methodCount++;
+        }
+        return methodOfSymbol[symbol];
+    }
+
+    /**
+     * Gets the index of a thread, adding it if not present.
+     * @param threadId the id of the thread in the trace
+     * @return the index of the thread
+     */
+    public int getThreadIndex(long threadId) {
+        Integer index = threadIndices.get(threadId);
+        if (index == null) {
+            if (threadCount == threadIds.length) {
+                threadIds = Arrays.copyOf(threadIds, threadCount * 2);
+            }
+            threadIds[threadCount] = threadId;
+            index = threadCount++;
+            threadIndices.put(threadId, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds the entry of an invocation.
+     * @param methodId the id of the invoked method
+     * @param definitionText the definition of the method, as formatted in the entry tracepoint;
+     * only the definition of the first invocation of a method is kept
+     * @param threadIndex the index of the invoking thread
+     * @param level the stack level of the invocation
+     * @param parentIndex the index of the calling invocation, -1 if none
+     * @param tpId the id of the entry tracepoint
+     * @param time the time of entry
+     * @return the index of the invocation
+     */
+    public int addEntry(int methodId, String definitionText, int threadIndex, int level, int parentIndex, int tpId, long time) {
+        ensureCapacity(size + 1);
+        method[size] = methodId;
+        if (methodDefinition[methodId] < 0) {
+            methodDefinition[methodId] = symbols.intern(definitionText);
+        }
+        thread[size] = threadIndex;
+        stackLevel[size] = level;
+        parent[size] = parentIndex;
+        tpIn[size] = tpId;
+        tpOut[size] = -1;
+        stackTrace[size] = -1;
+        timeIn[size] = time;
+        return size++;
+    }
+
+    /**
+     * Grows the arrays of the invocations to hold at least a number of invocations.
+     * @param capacity the number of invocations
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > method.length) {
+            capacity = Math.max(capacity, method.length + (method.length >> 1));
+            method = Arrays.copyOf(method, capacity);
+            thread = Arrays.copyOf(thread, capacity);
+            stackLevel = Arrays.copyOf(stackLevel, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            tpIn = Arrays.copyOf(tpIn, capacity);
+            tpOut = Arrays.copyOf(tpOut, capacity);
+            stackTrace = Arrays.copyOf(stackTrace, capacity);
+            timeIn = Arrays.copyOf(timeIn, capacity);
+            timeOut = Arrays.copyOf(timeOut, capacity);
+        }
+    }
+
+    /**
+     * Appends the invocations of another store, remapping its methods, threads, callers and stack traces.
+     * The ids of the stack traces of other are remapped from its own stack table, unless that is empty,
+     * in which case they are taken to refer to the stack table of this store (both read from the same database).
+     * @param other the store to append
+     */
+    public void append(InvocationStore other) {
+        int[] methods = new int[other.methodCount];
+        for (int symbol = 0; symbol < other.methodOfSymbol.length && symbol < other.symbols.size(); symbol++) {
+            int otherMethod = other.methodOfSymbol[symbol];
+            if (otherMethod >= 0) {
+                String[] parameters = {other.getMethodClassName(otherMethod), other.getMethodName(otherMethod), other.getMethodParameters(otherMethod)};
+                methods[otherMethod] = getMethodId(other.symbols.get(symbol), parameters);
+                if (methodDefinition[methods[otherMethod]] < 0 && other.methodDefinition[otherMethod] >= 0) {
+                    methodDefinition[methods[otherMethod]] = symbols.intern(other.symbols.get(other.methodDefinition[otherMethod]));
+                }
+            }
+        }
+        int[] threads = new int[other.threadCount];
+        for (int t = 0; t < other.threadCount; t++) {
+            threads[t] = getThreadIndex(other.threadIds[t]);
+        }
+        boolean ownStacks = other.stacks.size() > 0;
+        int base = size;
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            method[base + i] = methods[other.method[i]];
+            thread[base + i] = threads[other.thread[i]];
+            stackLevel[base + i] = other.stackLevel[i];
+            parent[base + i] = other.parent[i] < 0 ? -1 : other.parent[i] + base;
+            tpIn[base + i] = other.tpIn[i];
+            tpOut[base + i] = other.tpOut[i];
+            stackTrace[base + i] = ownStacks && other.stackTrace[i] >= 0 ? stacks.add(other.stacks, other.stackTrace[i]) : other.stackTrace[i];
+            timeIn[base + i] = other.timeIn[i];
+            timeOut[base + i] = other.timeOut[i];
+            completed.set(base + i, other.completed.get(i));
+            exception.set(base + i, other.exception.get(i));
+        }
+        size += other.size;
+    }
+
+    /**
+     * Records the exit of an invocation.
+     * @param index the index of the invocation
+     * @param tpId the id of the exit tracepoint
+     * @param time the time of exit
+     * @param hasException true if the method exited with an exception
+     */
+    public void setExit(int index, int tpId, long time, boolean hasException) {
+        tpOut[index] = tpId;
+        timeOut[index] = time;
+        completed.set(index);
+        exception.set(index, hasException);
+    }
+
+    /**
+     * Sets the stack trace captured at the entry of an invocation.
+     * @param index the index of the invocation
+     * @param stackId the id of the stack trace in {@link #getStacks()}
+     */
+    public void setStackTrace(int index, int stackId) {
+        stackTrace[index] = stackId;
+    }
+
+    /**
+     * @return the stack traces of the invocations
+     */
+    public StackTable getStacks() {
+        return stacks;
+    }
+
+    /**
+     * @return the number of invocations
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct methods invoked
+     */
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * @return the number of threads
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadIndex the index of the thread
+     * @return the id of the thread in the trace
+     */
+    public long getThreadId(int threadIndex) {
+        return threadIds[threadIndex];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the id of the invoked method
+     */
+    public int getMethod(int index) {
+        return method[index];
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the class name of the method
+     */
+    public String getMethodClassName(int methodId) {
+        return symbols.get(methodClass[methodId]);
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the name of the method
+     */
+    public String getMethodName(int methodId) {
+        return symbols.get(methodName[methodId]);
+    }
+
+    /**
+     * @param methodId the id of the method
+     * @return the parameters of the method
+     */
+    public String getMethodParameters(int methodId) {
+        return symbols.get(methodParameters[methodId]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the class name of the invoked method
+     */
+    public String getClassName(int index) {
+        return getMethodClassName(method[index]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the name of the invoked method
+     */
+    public String getMethodNameOf(int index) {
+        return getMethodName(method[index]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the parameters of the invoked method
+     */
+    public String getParameters(int index) {
+        return getMethodParameters(method[index]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the definition of the invoked method
+     */
+    public String getDefinition(int index) {
+        return symbols.get(methodDefinition[method[index]]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the index of the invoking thread
+     */
+    public int getThread(int index) {
+        return thread[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the stack level of the invocation
+     */
+    public int getStackLevel(int index) {
+        return stackLevel[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the index of the calling invocation, -1 if none
+     */
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the time of entry
+     */
+    public long getTimeIn(int index) {
+        return timeIn[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the time of exit, 0 if not completed
+     */
+    public long getTimeOut(int index) {
+        return timeOut[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return true if the exit of the invocation was found
+     */
+    public boolean isCompleted(int index) {
+        return completed.get(index);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return true if the method exited with an exception
+     */
+    public boolean hasException(int index) {
+        return exception.get(index);
+    }
+
+    /**
+     * @param from the index of the invocation to start from
+     * @return the index of the first invocation at or after from that exited with an exception, -1 if none
+     */
+    public int nextException(int from) {
+        return exception.nextSetBit(from);
+    }
+
+    /**
+     * Matches the methods of the store, once each, against a methods specification.
+     * @param spec the methods specification
+     * @return the ids of the methods matched
+     */
+    public BitSet getMatchingMethods(MethodSpec spec) {
+        BitSet matching = new BitSet(methodCount);
+        for (int m = 0; m < methodCount; m++) {
+            matching.set(m, spec.matches(getMethodClassName(m), getMethodName(m)));
+        }
+        return matching;
+    }
+
+    /**
+     * Finds the next invocation of a method matched by a specification.
+     * @param matching the ids of the methods matched, from {@link #getMatchingMethods}
+     * @param from the index of the invocation to start from
+     * @return the index of the first such invocation at or after from, -1 if none
+     */
+    public int find(BitSet matching, int from) {
+        for (int i = Math.max(from, 0); i < size; i++) {
+            if (matching.get(method[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Prunes the store to the invocations of the methods matched by a specification. The callees of an
+     * invocation left out are attached to its nearest caller kept, so the tree keeps its shape.
+     * @param spec the methods specification
+     * @return the pruned store
+     */
+    public InvocationStore filter(MethodSpec spec) {
+        long start = System.nanoTime();
+        BitSet matching = getMatchingMethods(spec);
+        InvocationStore pruned = new InvocationStore();
+        int[] methods = new int[methodCount];
+        Arrays.fill(methods, -1);
+        //The index in the pruned store of each invocation, or of its nearest caller kept, -1 if none
+        int[] nearest = new int[size];
+        boolean ownStacks = stacks.size() > 0;
+        for (int i = 0; i < size; i++) {
+            int caller = parent[i] >= 0 ? nearest[parent[i]] : -1;
+            if (!matching.get(method[i])) {
+                nearest[i] = caller;
+                continue;
+            }
+            int m = method[i];
+            if (methods[m] < 0) {
+                String[] parameters = {getMethodClassName(m), getMethodName(m), getMethodParameters(m)};
+                methods[m] = pruned.getMethodId(String.join("||", parameters), parameters);
+            }
+            int index = pruned.addEntry(methods[m], getDefinition(i), pruned.getThreadIndex(threadIds[thread[i]]),
+                    caller >= 0 ? pruned.stackLevel[caller] + 1 : 0, caller, tpIn[i], timeIn[i]);
+            if (completed.get(i)) {
+                pruned.setExit(index, tpOut[i], timeOut[i], exception.get(i));
+            }
+            if (stackTrace[i] >= 0) {
+                pruned.setStackTrace(index, ownStacks ? pruned.stacks.add(stacks, stackTrace[i]) : stackTrace[i]);
+            }
+            nearest[i] = index;
+        }
+        Metrics.getMetrics().time("filter", start);
+        return pruned;
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the id of the stack trace captured at entry in {@link #getStacks()}, -1 if none
+     */
+    public int getStackTraceId(int index) {
+        return stackTrace[index];
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return the stack trace captured at entry, empty if none
+     */
+    public String getStackTrace(int index) {
+        return stackTrace[index] < 0 ? "" : stacks.getText(stackTrace[index]);
+    }
+
+    /**
+     * @param index the index of the invocation
+     * @return true if the invocation has callees
+     */
+    public boolean hasChildren(int index) {
+        return index + 1 < size && parent[index + 1] == index;
+    }
+
+    /**
+     * Gets the callees of an invocation, or the invocations without callers.
+     * @param index the index of the invocation, -1 for the invocations without callers
+     * @return the indices of the callees, in the order of invocation
+     */
+    public int[] getChildren(int index) {
+        int[] children = new int[8];
+        int count = 0;
+        int start = index + 1, end = size;
+        for (int i = start; i < end; i++) {
+            if (index >= 0 && (stackLevel[i] <= stackLevel[index] || thread[i] != thread[index])) {
+                break;
+            }
+            if (parent[i] == index) {
+                if (count == children.length) {
+                    children = Arrays.copyOf(children, count * 2);
+                }
+                children[count++] = i;
+            }
+        }
+        return Arrays.copyOf(children, count);
+    }
+
+    /**
+     * Creates a MethodTrace holding the details of an invocation.
+     * @param index the index of the invocation
+     * @return the MethodTrace
+     */
+    public TraceManager.MethodTrace get(int index) {
+        TraceManager.MethodTrace methodTrace = new TraceManager.MethodTrace();
+        methodTrace.className = getClassName(index);
+        methodTrace.methodName = getMethodNameOf(index);
+        methodTrace.parameters = getParameters(index);
+        methodTrace.definition = getDefinition(index);
+        methodTrace.stack_level = stackLevel[index];
+        methodTrace.tp_ids = new String[]{Integer.toString(tpIn[index]), tpOut[index] < 0 ? "" : Integer.toString(tpOut[index])};
+        methodTrace.isCompleted = isCompleted(index);
+        methodTrace.hasException = hasException(index);
+        methodTrace.stackTrace = getStackTrace(index);
+        methodTrace.timeIn = timeIn[index];
+        methodTrace.timeOut = timeOut[index];
+        return methodTrace;
+    }
+
+    /**
+     * @return a List view of the invocations, creating the MethodTrace of an invocation on access
+     */
+    public List<TraceManager.MethodTrace> asList() {
+        return new AbstractList<TraceManager.MethodTrace>() {
+            @Override
+            public TraceManager.MethodTrace get(int index) {
+                return InvocationStore.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
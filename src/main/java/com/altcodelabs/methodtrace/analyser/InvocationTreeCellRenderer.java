@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import javax.swing.JComponent;
+import javax.swing.JTree;
+import javax.swing.UIManager;
+import javax.swing.tree.TreeCellRenderer;
+
+/**
+ * Renders the nodes of an {@link InvocationTreeModel}: the class name and the italic method name,
+ * followed by bold notes on exceptions, incomplete executions and long running times.
+ * A single instance paints every node with the fonts derived once, instead of parsing HTML per node;
+ * the stack trace shown as the tool tip is only built when asked for.
+ * @author ani
+ */
+public class InvocationTreeCellRenderer extends JComponent implements TreeCellRenderer {
+
+    private final InvocationStore store;
+    private final String name;
+    private final long avgRuntime;
+
+    private Font plain, italic, bold;
+    private int index;
+    private boolean selected;
+    private String className, methodName, note;
+    private Color foreground;
+
+    /**
+     * Creates the renderer.
+     * @param store the invocations of the trace
+     * @param name the name of the trace, shown on the root node
+     * @param avgRuntime the running time above which the running time of an invocation is shown
+     */
+    public InvocationTreeCellRenderer(InvocationStore store, String name, long avgRuntime) {
+        this.store = store;
+        this.name = name;
+        this.avgRuntime = avgRuntime;
+    }
+
+    @Override
+    public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded, boolean leaf, int row, boolean hasFocus) {
+        if (plain != tree.getFont()) {
+            plain = tree.getFont();
+            italic = plain.deriveFont(Font.ITALIC);
+            bold = plain.deriveFont(Font.BOLD);
+        }
+        index = (Integer) value;
+        selected = sel;
+        if (index < 0) {
+            className = "METHOD CALLS - " + name;
+            methodName = note = "";
+            foreground = Color.BLACK;
+        } else {
+            long runtime = store.getTimeOut(index) - store.getTimeIn(index);
+            boolean hasException = store.hasException(index), isCompleted = store.isCompleted(index);
+            className = store.getClassName(index) + " -> ";
+            methodName = store.getMethodNameOf(index);
+            note = (hasException ? "; exception thrown" : isCompleted ? "" : "; incomplete execution")
+                    + (runtime > avgRuntime ? "; takes " + runtime + " ms to execute" : "");
+            foreground = hasException ? Color.RED : !isCompleted ? Color.GRAY : Color.BLACK;
+        }
+        return this;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics plainMetrics = getFontMetrics(plain);
+        int width = plainMetrics.stringWidth(className) + getFontMetrics(italic).stringWidth(methodName)
+                + getFontMetrics(bold).stringWidth(note) + 4;
+        return new Dimension(width, plainMetrics.getHeight() + 2);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        if (selected) {
+            g.setColor(UIManager.getColor("Tree.selectionBackground"));
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        FontMetrics plainMetrics = g.getFontMetrics(plain);
+        int x = 2, y = (getHeight() + plainMetrics.getAscent() - plainMetrics.getDescent()) / 2;
+        g.setColor(selected && foreground == Color.BLACK ? UIManager.getColor("Tree.selectionForeground") : foreground);
+        g.setFont(plain);
+        g.drawString(className, x, y);
+        x += plainMetrics.stringWidth(className);
+        g.setFont(italic);
+        g.drawString(methodName, x, y);
+        x += g.getFontMetrics(italic).stringWidth(methodName);
+        g.setFont(bold);
+        g.drawString(note, x, y);
+        Metrics.getMetrics().time("render.tree.cell", start);
+    }
+
+    @Override
+    public String getToolTipText() {
+        String stackTrace = index >= 0 ? store.getStackTrace(index) : "";
+        return stackTrace.isEmpty() ? null : stackTrace;
+    }
+
+    //Overridden for performance, as in DefaultTreeCellRenderer.
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * A TreeModel over the invocations of an {@link InvocationStore}. The nodes are the Integer indices of
+ * the invocations, with {@link #ROOT} as the root; the callees of a node are found only when it is expanded.
+ * @author ani
+ */
+public class InvocationTreeModel implements TreeModel {
+
+    public static final Integer ROOT = -1;
+
+    private final InvocationStore store;
+    private final HashMap<Integer, int[]> children;
+
+    /**
+     * Creates the model.
+     * @param store the invocations of the trace
+     */
+    public InvocationTreeModel(InvocationStore store) {
+        this.store = store;
+        children = new HashMap<>();
+    }
+
+    /**
+     * @return the invocations of the trace
+     */
+    public InvocationStore getStore() {
+        return store;
+    }
+
+    /**
+     * @param node the node
+     * @return the indices of the callees of the node
+     */
+    private int[] getChildren(Object node) {
+        return children.computeIfAbsent((Integer) node, store::getChildren);
+    }
+
+    /**
+     * Gets the path from the root to an invocation.
+     * @param index the index of the invocation
+     * @return the TreePath of the invocation
+     */
+    public TreePath getPath(int index) {
+        int length = 1;
+        for (int i = index; i >= 0; i = store.getParent(i)) {
+            length++;
+        }
+        Object[] path = new Object[length];
+        path[0] = ROOT;
+        for (int i = index; i >= 0; i = store.getParent(i)) {
+            path[--length] = i;
+        }
+        return new TreePath(path);
+    }
+
+    @Override
+    public Object getRoot() {
+        return ROOT;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return getChildren(parent)[index];
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        return getChildren(parent).length;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return !ROOT.equals(node) && !store.hasChildren((Integer) node);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        int index = Arrays.binarySearch(getChildren(parent), (Integer) child);
+        return index < 0 ? -1 : index;
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+    }
+}
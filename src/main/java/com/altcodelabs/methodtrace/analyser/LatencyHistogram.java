@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with log-linear buckets, in the manner of HdrHistogram.
+ * Values below 32 have a bucket each; above that, every power of two is split into 16
+ * buckets, so any recorded value is known within 1/16th (about 6%) of it, whatever its magnitude.
+ * @author ani
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private long[] counts;
+    private long count, total, min = Long.MAX_VALUE, max;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        counts = new long[64];
+    }
+
+    /**
+     * @param value a non-negative value
+     * @return the index of the bucket of the value
+     */
+    static int getIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the lowest value of the bucket
+     */
+    static long getLowestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the highest value of the bucket
+     */
+    static long getHighestValue(int index) {
+        return getLowestValue(index + 1) - 1;
+    }
+
+    /**
+     * Records a value.
+     * @param value the value, negative values being recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        int index = getIndex(value);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+        count++;
+        total += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values recorded in another histogram.
+     * @param other the histogram
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the smallest value recorded, 0 if none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest value recorded, 0 if none
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the values recorded, 0 if none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : total / (double) count;
+    }
+
+    /**
+     * Gets the value at a percentile, as the highest value of the bucket holding it.
+     * @param percentile the percentile, between 0 and 100
+     * @return the value, 0 if none recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, getHighestValue(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of buckets, including the empty buckets below the highest non-empty one
+     */
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the number of values recorded in the bucket
+     */
+    public long getCountAt(int index) {
+        return index < counts.length ? counts[index] : 0;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the value representing the bucket, in the middle of its range
+     */
+    public static long getBucketValue(int index) {
+        return (getLowestValue(index) + getHighestValue(index)) / 2;
+    }
+
+    /**
+     * Encodes the histogram as variable length integers: the count, total, min and max,
+     * followed by the pairs of the index gap and the count of the non-empty buckets.
+     * @return the encoded histogram
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeLong(out, count);
+        writeLong(out, total);
+        writeLong(out, getMin());
+        writeLong(out, max);
+        int last = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                writeLong(out, i - last);
+                writeLong(out, counts[i]);
+                last = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a histogram encoded by {@link #toBytes()}.
+     * @param bytes the encoded histogram
+     * @return the histogram
+     */
+    public static LatencyHistogram fromBytes(byte[] bytes) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int[] position = {0};
+        histogram.count = readLong(bytes, position);
+        histogram.total = readLong(bytes, position);
+        histogram.min = readLong(bytes, position);
+        if (histogram.count == 0) {
+            histogram.min = Long.MAX_VALUE;
+        }
+        histogram.max = readLong(bytes, position);
+        int index = -1;
+        while (position[0] < bytes.length) {
+            index += (int) readLong(bytes, position);
+            if (index >= histogram.counts.length) {
+                histogram.counts = Arrays.copyOf(histogram.counts, Math.max(index + 1, histogram.counts.length * 2));
+            }
+            histogram.counts[index] = readLong(bytes, position);
+        }
+        return histogram;
+    }
+
+    /**
+     * Writes a non-negative long as 7 bits per byte, the high bit marking a following byte.
+     * @param out the stream to write to
+     * @param value the value
+     */
+    static void writeLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a long written by {@link #writeLong(java.io.ByteArrayOutputStream, long)}.
+     * @param bytes the bytes to read from
+     * @param position the position to read at, advanced past the value
+     * @return the value
+     */
+    static long readLong(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
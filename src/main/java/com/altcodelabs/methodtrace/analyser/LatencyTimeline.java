@@ -0,0 +1,353 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * The throughput and latency of methods over the time of a trace. The invocations are bucketed by
+ * their time of entry into windows of a fixed length; each window counts the calls entered and the
+ * errors, and records the durations of the calls completed in a {@link LatencyHistogram}, for their
+ * percentiles. The buckets are filled in a single pass over the invocations, in the order stored,
+ * growing at either end as earlier or later windows are met, so windows without any call show as
+ * stalls. The times are the raw times of the trace, taken as nanoseconds.
+ * @author ani
+ */
+public class LatencyTimeline {
+
+    /**
+     * The maximum number of windows from the first call to the last.
+     */
+    public static final int MAX_BUCKETS = 1 << 20;
+
+    /**
+     * The buckets of a method, or of all the methods matched.
+     */
+    public static class Series {
+
+        /**
+         * The name of the method, "All" for all the methods matched.
+         */
+        public final String name;
+        public long calls, errors;
+        private long firstWindow;
+        private long[] bucketCalls = new long[0], bucketErrors = new long[0];
+        private LatencyHistogram[] histograms = new LatencyHistogram[0];
+
+        /**
+         * @param name the name of the method
+         */
+        Series(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds an invocation to the bucket of its window.
+         * @param window the window of its time of entry, as the time divided by the length of a window
+         * @param duration its duration, -1 if it did not complete
+         * @param error true if it exited with an exception
+         */
+        void add(long window, long duration, boolean error) {
+            int bucket = ensure(window);
+            calls++;
+            bucketCalls[bucket]++;
+            if (error) {
+                errors++;
+                bucketErrors[bucket]++;
+            }
+            if (duration >= 0) {
+                if (histograms[bucket] == null) {
+                    histograms[bucket] = new LatencyHistogram();
+                }
+                histograms[bucket].record(duration);
+            }
+        }
+
+        /**
+         * Grows the buckets to hold a window, doubling at the end it is beyond.
+         * @param window the window
+         * @return the index of its bucket
+         * @throws IllegalArgumentException if the buckets would span more than {@link #MAX_BUCKETS} windows
+         */
+        private int ensure(long window) {
+            if (bucketCalls.length > 0 && Math.max(window, firstWindow + bucketCalls.length - 1) - Math.min(window, firstWindow) >= MAX_BUCKETS) {
+                throw new IllegalArgumentException("The trace spans more than " + MAX_BUCKETS + " windows, choose longer windows");
+            }
+            if (bucketCalls.length == 0) {
+                firstWindow = window;
+                resize(16, 0);
+            } else if (window < firstWindow) {
+                int shift = (int) Math.min(MAX_BUCKETS - bucketCalls.length, Math.max(firstWindow - window, bucketCalls.length));
+                resize(bucketCalls.length + shift, shift);
+                firstWindow -= shift;
+            } else if (window - firstWindow >= bucketCalls.length) {
+                resize((int) Math.min(MAX_BUCKETS, Math.max(window - firstWindow + 1, bucketCalls.length * 2L)), 0);
+            }
+            return (int) (window - firstWindow);
+        }
+
+        /**
+         * @param length the new number of buckets
+         * @param shift the number of buckets added before the first
+         */
+        private void resize(int length, int shift) {
+            long[] calls = new long[length], errors = new long[length];
+            LatencyHistogram[] newHistograms = new LatencyHistogram[length];
+            System.arraycopy(bucketCalls, 0, calls, shift, bucketCalls.length);
+            System.arraycopy(bucketErrors, 0, errors, shift, bucketErrors.length);
+            System.arraycopy(histograms, 0, newHistograms, shift, histograms.length);
+            bucketCalls = calls;
+            bucketErrors = errors;
+            histograms = newHistograms;
+        }
+
+        /**
+         * @param window the window
+         * @return the index of the bucket of the window, -1 if out of the buckets
+         */
+        private int indexOf(long window) {
+            long bucket = window - firstWindow;
+            return bucketCalls.length > 0 && bucket >= 0 && bucket < bucketCalls.length ? (int) bucket : -1;
+        }
+    }
+
+    private final long window;
+    private final Series all = new Series("All");
+    private final List<Series> series = new ArrayList<>();
+    private long firstWindow = Long.MAX_VALUE, lastWindow = Long.MIN_VALUE;
+
+    /**
+     * Buckets the invocations of the methods matched by a specification.
+     * @param store the invocations of the trace
+     * @param methods the methods to include, null for all
+     * @param window the length of a window, in nanoseconds
+     * @throws IllegalArgumentException if the calls span more than {@link #MAX_BUCKETS} windows
+     */
+    public LatencyTimeline(InvocationStore store, MethodSpec methods, long window) {
+        long start = System.nanoTime();
+        this.window = Math.max(1, window);
+        BitSet matching = methods != null ? store.getMatchingMethods(methods) : null;
+        Series[] byMethod = new Series[store.getMethodCount()];
+        for (int i = 0; i < store.size(); i++) {
+            int method = store.getMethod(i);
+            if (matching != null && !matching.get(method)) {
+                continue;
+            }
+            long bucket = Math.floorDiv(store.getTimeIn(i), this.window);
+            long duration = store.isCompleted(i) ? store.getTimeOut(i) - store.getTimeIn(i) : -1;
+            boolean error = store.hasException(i);
+            if (byMethod[method] == null) {
+                byMethod[method] = new Series(store.getMethodClassName(method) + "." + store.getMethodName(method)
+                        + store.getMethodParameters(method));
+                series.add(byMethod[method]);
+            }
+            byMethod[method].add(bucket, duration, error);
+            all.add(bucket, duration, error);
+            firstWindow = Math.min(firstWindow, bucket);
+            lastWindow = Math.max(lastWindow, bucket);
+        }
+        series.sort((a, b) -> Long.compare(b.calls, a.calls));
+        Metrics.getMetrics().time("throughput", start);
+    }
+
+    /**
+     * @return the length of a window, in nanoseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the time of the start of the first window
+     */
+    public long getStartTime() {
+        return getBucketCount() > 0 ? firstWindow * window : 0;
+    }
+
+    /**
+     * @return the number of windows from the first call to the last
+     */
+    public int getBucketCount() {
+        return lastWindow >= firstWindow ? (int) (lastWindow - firstWindow + 1) : 0;
+    }
+
+    /**
+     * @return the series of all the methods matched
+     */
+    public Series getAll() {
+        return all;
+    }
+
+    /**
+     * @return the series of each method, the most called first
+     */
+    public List<Series> getSeries() {
+        return series;
+    }
+
+    /**
+     * @param series a series
+     * @param bucket the index of a window, from the first
+     * @return the calls entered in the window
+     */
+    public long getCalls(Series series, int bucket) {
+        int index = series.indexOf(firstWindow + bucket);
+        return index >= 0 ? series.bucketCalls[index] : 0;
+    }
+
+    /**
+     * @param series a series
+     * @param bucket the index of a window, from the first
+     * @return the calls entered in the window that exited with an exception
+     */
+    public long getErrors(Series series, int bucket) {
+        int index = series.indexOf(firstWindow + bucket);
+        return index >= 0 ? series.bucketErrors[index] : 0;
+    }
+
+    /**
+     * @param series a series
+     * @param bucket the index of a window, from the first
+     * @return the calls entered per second in the window
+     */
+    public double getCallRate(Series series, int bucket) {
+        return getCalls(series, bucket) * 1e9 / window;
+    }
+
+    /**
+     * @param series a series
+     * @param bucket the index of a window, from the first
+     * @param percentile the percentile, between 0 and 100
+     * @return the duration at the percentile of the calls entered in the window and completed, 0 if none
+     */
+    public long getPercentile(Series series, int bucket, double percentile) {
+        int index = series.indexOf(firstWindow + bucket);
+        LatencyHistogram histogram = index >= 0 ? series.histograms[index] : null;
+        return histogram != null ? histogram.getValueAtPercentile(percentile) : 0;
+    }
+
+    /**
+     * @param series a series
+     * @param percentile the percentile, between 0 and 100
+     * @return the durations at the percentile in each window
+     */
+    public double[] getPercentiles(Series series, double percentile) {
+        double[] values = new double[getBucketCount()];
+        for (int b = 0; b < values.length; b++) {
+            values[b] = getPercentile(series, b, percentile);
+        }
+        return values;
+    }
+
+    /**
+     * @param series a series
+     * @return the calls entered per second in each window
+     */
+    public double[] getCallRates(Series series) {
+        double[] values = new double[getBucketCount()];
+        for (int b = 0; b < values.length; b++) {
+            values[b] = getCallRate(series, b);
+        }
+        return values;
+    }
+
+    /**
+     * Creates a table of the series, with their peaks of throughput and latency and when they happened,
+     * and the longest run of windows in which all the methods matched were not called.
+     * @return the TableModel with a row per series, all the methods matched first
+     */
+    public DefaultTableModel getSummaryTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Method Name", "Calls", "Errors", "Peak Calls/s", "Peak At",
+            "Max p50", "Max p99", "Max p99 At", "Longest Stall"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : columnIndex == 3 ? Double.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        ArrayList<Series> rows = new ArrayList<>();
+        rows.add(all);
+        rows.addAll(series);
+        for (Series s : rows) {
+            int peak = 0, slowest = 0;
+            long maxP50 = 0, maxP99 = 0, stall = 0, run = 0;
+            for (int b = 0; b < getBucketCount(); b++) {
+                if (getCalls(s, b) > getCalls(s, peak)) {
+                    peak = b;
+                }
+                long p99 = getPercentile(s, b, 99);
+                if (p99 > maxP99) {
+                    maxP99 = p99;
+                    slowest = b;
+                }
+                maxP50 = Math.max(maxP50, getPercentile(s, b, 50));
+                run = getCalls(s, b) == 0 ? run + 1 : 0;
+                stall = Math.max(stall, run);
+            }
+            model.addRow(new Object[]{s.name, s.calls, s.errors, getCallRate(s, peak), getStartTime() + peak * window,
+                maxP50, maxP99, getStartTime() + slowest * window, stall * window});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a table of the windows of a series.
+     * @param series the series
+     * @return the TableModel with a row per window, with its start time, calls, errors, calls per second and percentiles
+     */
+    public DefaultTableModel getBucketTableModel(Series series) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Time", "Calls", "Errors", "Calls/s", "p50", "p90", "p99", "Max"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 3 ? Double.class : Long.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (int b = 0; b < getBucketCount(); b++) {
+            model.addRow(new Object[]{getStartTime() + b * window, getCalls(series, b), getErrors(series, b), getCallRate(series, b),
+                getPercentile(series, b, 50), getPercentile(series, b, 90), getPercentile(series, b, 99), getPercentile(series, b, 100)});
+        }
+        return model;
+    }
+
+    /**
+     * Creates a chart of the calls per second and the p50 and p99 durations of the series over the windows.
+     * @param maxSeries the maximum number of methods charted, beside all the methods matched
+     * @return the chart
+     */
+    public SparklineChart createChart(int maxSeries) {
+        SparklineChart chart = new SparklineChart(getStartTime(), window, getBucketCount());
+        ArrayList<Series> rows = new ArrayList<>();
+        rows.add(all);
+        rows.addAll(series.subList(0, Math.min(maxSeries, series.size())));
+        for (Series s : rows) {
+            chart.addRow(s.name + " - calls/s", new String[]{"calls/s"}, getCallRates(s));
+            chart.addRow(s.name + " - latency", new String[]{"p50", "p99"}, getPercentiles(s, 50), getPercentiles(s, 99));
+        }
+        return chart;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to non-negative int values, with open addressing over primitive
+ * arrays, so that neither keys nor values are boxed.
+ * @author ani
+ */
+public class LongIntHashMap {
+
+    private long[] keys;
+    private int[] values;
+    private int size, mask;
+
+    /**
+     * Creates an empty map.
+     */
+    public LongIntHashMap() {
+        keys = new long[64];
+        values = new int[64];
+        Arrays.fill(values, -1);
+        mask = 63;
+    }
+
+    /**
+     * @param key the key
+     * @return the slot holding the key, or the empty slot where it belongs
+     */
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (values[slot] >= 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, -1 if not present
+     */
+    public int get(long key) {
+        return values[slot(key)];
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key the key
+     * @param value the value, not negative
+     */
+    public void put(long key, int value) {
+        int slot = slot(key);
+        if (values[slot] < 0) {
+            if (++size > keys.length >> 1) {
+                grow();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Doubles the capacity of the map.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(values, -1);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] >= 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+}
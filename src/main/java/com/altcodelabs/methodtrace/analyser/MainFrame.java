@@ -26,33 +26,36 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
-import java.util.Vector;
 import javax.swing.AbstractAction;
-import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
 import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
-import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
 import javax.swing.JTree;
 import javax.swing.JViewport;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
+import javax.swing.event.ListSelectionEvent;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.TableCellRenderer;
+import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableModel;
 import javax.swing.table.TableRowSorter;
-import javax.swing.tree.DefaultTreeCellRenderer;
 import javax.swing.tree.TreePath;
 import name.fraser.neil.plaintext.diff_match_patch;
 import name.fraser.neil.plaintext.diff_match_patch.Diff;
@@ -137,6 +140,21 @@ public class MainFrame extends javax.swing.JFrame {
         jMenuItem4 = new javax.swing.JMenuItem();
         jMenuItem6 = new javax.swing.JMenuItem();
         jMenuItem8 = new javax.swing.JMenuItem();
+        jMenuItem9 = new javax.swing.JMenuItem();
+        jMenuItem10 = new javax.swing.JMenuItem();
+        jMenuItem11 = new javax.swing.JMenuItem();
+        jMenuItem12 = new javax.swing.JMenuItem();
+        jMenuItem13 = new javax.swing.JMenuItem();
+        jMenuItem14 = new javax.swing.JMenuItem();
+        jMenuItem15 = new javax.swing.JMenuItem();
+        jMenuItem16 = new javax.swing.JMenuItem();
+        jMenuItem17 = new javax.swing.JMenuItem();
+        jMenuItem18 = new javax.swing.JMenuItem();
+        jMenuItem19 = new javax.swing.JMenuItem();
+        jMenuItem20 = new javax.swing.JMenuItem();
+        jMenuItem21 = new javax.swing.JMenuItem();
+        jMenuItem22 = new javax.swing.JMenuItem();
+        jMenuItem23 = new javax.swing.JMenuItem();
 
         jMenuItem7.setText("Search");
         jMenuItem7.addActionListener(new java.awt.event.ActionListener() {
@@ -248,6 +266,15 @@ public class MainFrame extends javax.swing.JFrame {
         });
         jMenu1.add(jMenuItem3);
 
+        jMenuItem20.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_E, java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem20.setText("Export Trace...");
+        jMenuItem20.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem20ActionPerformed(evt);
+            }
+        });
+        jMenu1.add(jMenuItem20);
+
         jMenuBar1.add(jMenu1);
 
         jMenu2.setText("Edit");
@@ -310,6 +337,131 @@ public class MainFrame extends javax.swing.JFrame {
         });
         jMenu3.add(jMenuItem8);
 
+        jMenuItem9.setText("Performance");
+        jMenuItem9.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem9ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem9);
+
+        jMenuItem10.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_L, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem10.setText("Timeline");
+        jMenuItem10.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem10ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem10);
+
+        jMenuItem11.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_H, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem11.setText("Hot Methods");
+        jMenuItem11.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem11ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem11);
+
+        jMenuItem12.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_R, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem12.setText("Compare Latency");
+        jMenuItem12.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem12ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem12);
+
+        jMenuItem13.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Q, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem13.setText("Query Traces");
+        jMenuItem13.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem13ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem13);
+
+        jMenuItem14.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_E, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem14.setText("Exceptions");
+        jMenuItem14.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem14ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem14);
+
+        jMenuItem15.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_G, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem15.setText("Hangs");
+        jMenuItem15.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem15ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem15);
+
+        jMenuItem16.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_C, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem16.setText("Call Graph");
+        jMenuItem16.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem16ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem16);
+
+        jMenuItem17.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_P, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem17.setText("Critical Path");
+        jMenuItem17.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem17ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem17);
+
+        jMenuItem18.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_F, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem18.setText("Filter Methods");
+        jMenuItem18.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem18ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem18);
+
+        jMenuItem19.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_B, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem19.setText("Batch Run with Tracing");
+        jMenuItem19.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem19ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem19);
+
+        jMenuItem21.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_W, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem21.setText("Throughput Timeline");
+        jMenuItem21.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem21ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem21);
+
+        jMenuItem22.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_N, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem22.setText("Concurrency");
+        jMenuItem22.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem22ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem22);
+
+        jMenuItem23.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_M, java.awt.event.InputEvent.SHIFT_MASK | java.awt.event.InputEvent.CTRL_MASK));
+        jMenuItem23.setText("Merged Events");
+        jMenuItem23.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jMenuItem23ActionPerformed(evt);
+            }
+        });
+        jMenu3.add(jMenuItem23);
+
         jMenuBar1.add(jMenu3);
 
         setJMenuBar(jMenuBar1);
@@ -394,11 +546,15 @@ public class MainFrame extends javax.swing.JFrame {
             String name1 = JOptionPane.showInputDialog("Enter a name for the trace:", file[0].getName());
             updateWorking(true);
             new Thread(() -> {
-                if (!traceManager.importTrace(Arrays.asList(file), name1)) {
+                if (!traceManager.importTrace(Arrays.asList(file), name1, (progress) -> {
+                    String text = "Importing " + name1 + " - " + progress;
+                    SwingUtilities.invokeLater(() -> jLabel1.setText(text));
+                })) {
                     JOptionPane.showMessageDialog(this, "There was an error importing the binary trace files.");
                 }
                 loadTraces();
-                updateWorking(false);
+                //Queued after the progress updates, so that the status is cleared after them
+                SwingUtilities.invokeLater(() -> updateWorking(false));
             }).start();
         }
     }//GEN-LAST:event_jMenuItem3ActionPerformed
@@ -417,7 +573,6 @@ public class MainFrame extends javax.swing.JFrame {
 //        }
 //    }
 
-    List<TraceManager.MethodTrace> method_traces;
     String name;
     boolean runSQL = false, methodTree = false, methodStats = false, computeDifference = false;
 
@@ -586,6 +741,67 @@ public class MainFrame extends javax.swing.JFrame {
 
     }
 
+    /**
+     * Allows a method tree to find the next invocation of the methods of a methods specification upon right click.
+     */
+    class TreeSearchAdapter extends MouseAdapter implements MouseListener {
+
+        private final InvocationStore store;
+        String lastSearch;
+
+        /**
+         * @param store the invocations shown by the tree
+         */
+        TreeSearchAdapter(InvocationStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            super.mouseClicked(e);
+            if (e.getButton() == 3) {
+                JTree c = (JTree) e.getComponent();
+                JPopupMenu menu = new JPopupMenu("Tree");
+                menu.add(new AbstractAction("Find Methods") {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        String q = JOptionPane.showInputDialog("Enter the methods to find (as in -Xtrace, e.g. {com/acme/*,!com/acme/Log*.*}):", lastSearch == null ? "*.*" : lastSearch);
+                        if (q == null) {
+                            return;
+                        }
+                        lastSearch = q;
+                        MethodSpec spec;
+                        try {
+                            spec = MethodSpec.parse(q);
+                        } catch (ParseException ex) {
+                            JOptionPane.showMessageDialog(MainFrame.this, ex.getMessage());
+                            return;
+                        }
+                        TreePath selected = c.getSelectionPath();
+                        int from = selected != null ? (Integer) selected.getLastPathComponent() + 1 : 0;
+                        updateWorking(true);
+                        new Thread(() -> {
+                            int found = store.find(store.getMatchingMethods(spec), from);
+                            SwingUtilities.invokeLater(() -> {
+                                if (found >= 0) {
+                                    TreePath path = ((InvocationTreeModel) c.getModel()).getPath(found);
+                                    c.setSelectionPath(path);
+                                    c.scrollPathToVisible(path);
+                                } else {
+                                    JOptionPane.showMessageDialog(MainFrame.this, "No further invocation of " + q + ".");
+                                }
+                                updateWorking(false);
+                            });
+                        }).start();
+                    }
+
+                });
+                menu.show(c, e.getX(), e.getY());
+            }
+        }
+
+    }
+
     /**
      * Scrolls JTable such that the corresponding cell is visible.
      * @param table  the JTable
@@ -616,53 +832,44 @@ public class MainFrame extends javax.swing.JFrame {
         new Thread(() -> {
             int[] indices = jList2.getSelectedIndices();
             if (indices.length == 2) {
+                long start = System.nanoTime();
                 String names[] = new String[]{jList2.getModel().getElementAt(indices[0]), jList2.getModel().getElementAt(indices[1])},
                         mt1 = traceManager.getMethodTrace(names[0], true),
                         mt2 = traceManager.getMethodTrace(names[1], true);
                 //System.out.println(mt1+" \n\n"+mt2);
-                Vector<Vector<String>> data = new Vector<>();
-                Vector<String> columns = new Vector<>();
-                columns.add(names[0]);
-                columns.add("common");
-                columns.add(names[1]);
+                ArrayList<String[]> data = new ArrayList<>();
                 diff_match_patch dmp = new diff_match_patch();
                 diff_match_patch.LinesToCharsResult res = dmp.diff_linesToChars(mt1, mt2);
                 LinkedList<Diff> diffs = dmp.diff_main(res.chars1, res.chars2, false);
                 dmp.diff_charsToLines(diffs, res.lineArray);
                 Diff l_diff = null;
                 for (Diff diff : diffs) {
-                    diff.text = diff.text.replaceAll("[\n]", "\\\\n");
                     if (diff.operation.equals(diff_match_patch.Operation.EQUAL)) {
-                        Vector<String> row = new Vector<>();
-                        row.add("");
-                        row.add(diff.text);
-                        row.add("");
-                        data.add(row);
+                        data.add(new String[]{"", diff.text, ""});
                     }
                     if (diff.operation.equals(diff_match_patch.Operation.DELETE) || diff.operation.equals(diff_match_patch.Operation.INSERT)) {
-                        Vector<String> row = null;
+                        String[] row = null;
                         if (l_diff != null) {
                             if (!l_diff.operation.equals(diff.operation) && (l_diff.operation.equals(diff_match_patch.Operation.DELETE) || l_diff.operation.equals(diff_match_patch.Operation.INSERT))) {
-                                row = data.lastElement();
+                                row = data.get(data.size() - 1);
                                 if (l_diff.operation.equals(diff_match_patch.Operation.INSERT)) {
-                                    row.set(0, diff.text);
+                                    row[0] = diff.text;
                                 }
                                 if (l_diff.operation.equals(diff_match_patch.Operation.DELETE)) {
-                                    row.set(2, diff.text);
+                                    row[2] = diff.text;
                                 }
                             }
                         }
                         if (row == null) {
-                            row = new Vector<>();
-                            row.add(diff.operation.equals(diff_match_patch.Operation.DELETE) ? diff.text : "");
-                            row.add("");
-                            row.add(diff.operation.equals(diff_match_patch.Operation.INSERT) ? diff.text : "");
+                            row = new String[]{diff.operation.equals(diff_match_patch.Operation.DELETE) ? diff.text : "", "",
+                                diff.operation.equals(diff_match_patch.Operation.INSERT) ? diff.text : ""};
                             data.add(row);
                         }
                     }
                     l_diff = diff;
 
                 }
+                Metrics.getMetrics().time("diff", start);
                 /*
                 //Uses DiffUtils API, requires artifact diff-utils-1.2.jar
                 Vector<Vector<String>> data = new Vector<>();
@@ -682,12 +889,25 @@ public class MainFrame extends javax.swing.JFrame {
                     fdiff.add(rev);
                     data.add(fdiff);
                 }*/
-                JTable table = new JTable(data, columns);
+                //A line per row, of fixed height, with the hunks of several lines collapsed until expanded.
+                DiffTableModel diffModel = new DiffTableModel(names, data);
+                JTable table = new JTable(diffModel);
                 TableColumnModel model = table.getColumnModel();
-                TextAreaCellRenderer renderer = new TextAreaCellRenderer();
-                model.getColumn(0).setCellRenderer(renderer);
-                model.getColumn(1).setCellRenderer(renderer);
-                model.getColumn(2).setCellRenderer(renderer);
+                model.getColumn(0).setPreferredWidth(60);
+                model.getColumn(0).setMaxWidth(80);
+                DiffCellRenderer renderer = new DiffCellRenderer(diffModel);
+                for (int i = 0; i < model.getColumnCount(); i++) {
+                    model.getColumn(i).setCellRenderer(renderer);
+                }
+                table.addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mouseClicked(MouseEvent e) {
+                        int row = table.rowAtPoint(e.getPoint());
+                        if (row >= 0 && (e.getClickCount() == 2 || table.columnAtPoint(e.getPoint()) == 0)) {
+                            diffModel.toggle(diffModel.getHunk(row));
+                        }
+                    }
+                });
                 jTabbedPane2.setSelectedComponent(jTabbedPane2.add(names[0] + " " + names[1] + " - difference", new JScrollPane(table)));
 
             }
@@ -696,65 +916,56 @@ public class MainFrame extends javax.swing.JFrame {
     }//GEN-LAST:event_jButton5ActionPerformed
 
     /**
-     * TextAreaCellRenderer Used to show multiline cells in a JTable, with
-     * automatic height allocation. Collected from:
-     * obtained from http://blog.botunge.dk/post/2009/10/09/JTable-multiline-cell-renderer.aspx
+     * Colours the cells of a DiffTableModel by the kind of their hunk.
      */
-    private class TextAreaCellRenderer extends JTextArea implements TableCellRenderer {
+    private static class DiffCellRenderer extends DefaultTableCellRenderer {
 
-        private final List< List< Integer>> rowAndCellHeightList = new ArrayList<>();
+        private static final Color DELETED = new Color(0xffe0e0), INSERTED = new Color(0xe0ffe0), MARKER = new Color(0xeeeeee);
 
-        @Override
-        public void updateUI() {
-            super.updateUI();
-            setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
-            setName("Table.cellRenderer");
+        private final DiffTableModel model;
+
+        /**
+         * Creates the renderer.
+         * @param model the model of the table
+         */
+        DiffCellRenderer(DiffTableModel model) {
+            this.model = model;
         }
 
         @Override
-        public Component getTableCellRendererComponent(
-                JTable table, Object value, boolean isSelected, boolean hasFocus,
-                int row, int column) {
-            setFont(table.getFont());
-            setText(Objects.toString(value, "").replaceAll("(\\\\+n)", "\n"));
-            adjustRowHeight(table, row, column);
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            if (!isSelected) {
+                int kind = model.getKind(model.getHunk(row));
+                setBackground(column == 0 ? MARKER : column == 1 && (kind == 0 || kind == 3) ? DELETED
+                        : column == 3 && (kind == 2 || kind == 3) ? INSERTED : table.getBackground());
+            }
             return this;
         }
+    }
 
-        /**
-         * Calculate the new preferred height for a given row, and sets the
-         * height on the table.
-         *
-         */
-        private void adjustRowHeight(JTable table, int row, int column) {
-            // The trick to get this to work properly is to set the width of the column to the
-            // textarea. The reason for this is that getPreferredSize(), without a width tries
-            // to place all the text in one line. By setting the size with the with of the column,
-            // getPreferredSize() returnes the proper height which the row should have in
-            // order to make room for the text.
-            // int cWidth = table.getTableHeader().getColumnModel().getColumn(column).getWidth();
-            // int cWidth = table.getCellRect(row, column, false).width; //Ignore IntercellSpacing
-            // setSize(new Dimension(cWidth, 1000));
-
-            setBounds(table.getCellRect(row, column, false));
-            // doLayout();
-
-            int preferredHeight = getPreferredSize().height;
-            while (rowAndCellHeightList.size() <= row) {
-                rowAndCellHeightList.add(new ArrayList<>(column));
-            }
-            List<Integer> cellHeightList = rowAndCellHeightList.get(row);
-            while (cellHeightList.size() <= column) {
-                cellHeightList.add(0);
-            }
-            cellHeightList.set(column, preferredHeight);
-            int max = cellHeightList.stream().max(Integer::compare).get();
-            if (table.getRowHeight(row) != max) {
-                table.setRowHeight(row, max);
-            }
-        }
+    /**
+     * The maximum number of invocations in a trace, for which the method tree is expanded fully when shown.
+     */
+    private static final int MAX_EXPANDED_ROWS = 10000;
+
+    /**
+     * Shows the details and the stacktrace of a method invocation in a new tab.
+     * @param methodTrace the method invocation
+     */
+    private void showMethodTrace(TraceManager.MethodTrace methodTrace) {
+        JEditorPane area1 = new JEditorPane();
+        area1.setContentType("text/html");
+        area1.setText("<html<body><table><tr><td>Class</td><td> <code>" + methodTrace.className + "</code></td></tr>"
+                + "<tr><td>Method</td><td> <code>" + (methodTrace.methodName.equals("<init>") ? "constructor" : methodTrace.methodName) + "</code></td></tr>"
+                + "<tr><td>Method Parameters</td><td> <code>" + (methodTrace.parameters) + "</code></td></tr>"
+                + "<tr><td>Execution Time</td><td> <code>" + (methodTrace.timeOut - methodTrace.timeIn) + " ms</code></td></tr>"
+                + "<tr><td>Execution Started At</td><td> <code>" + (methodTrace.timeIn) + " ms</code></td></tr>"
+                + "<tr><td>Execution Ended At</td><td> <code>" + (methodTrace.timeOut) + " ms</code></td></tr>"
+                + "<tr><td>Stack Trace</td><td> <code>" + (methodTrace.stackTrace.replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;").replaceAll("[\n]", "<br/>")) + "</code></td></tr>");
+        jTabbedPane2.setSelectedComponent(jTabbedPane2.add(methodTrace.className + " -> " + methodTrace.methodName, new JScrollPane(area1)));
     }
-    
+
     /**
      * Generates method tree of the selected trace(s).
      * @param evt The triggering event 
@@ -781,100 +992,12 @@ public class MainFrame extends javax.swing.JFrame {
             if (names != null) {
                 ArrayList<Component> components = new ArrayList<>();
                 for (String name_t : names) {
-                    method_traces = traceManager.getMethodTrace(name_t);
-                    System.out.println(method_traces);
-                    TraceManager.MethodTrace last_method_trace = new TraceManager.MethodTrace();
-
-                    JTree.DynamicUtilTreeNode root = new JTree.DynamicUtilTreeNode(last_method_trace, null), last = root;
-                    last_method_trace.className = "METHOD CALLS - " + name_t;
-                    last_method_trace.isCompleted = true;
-                    last_method_trace.hasException = false;
-                    last_method_trace.stack_level = -1;
-                    long sum_runtime = 0;
-                    int count_runtime = 0;
-                    for (TraceManager.MethodTrace method_trace : method_traces) {
-                        sum_runtime += method_trace.timeOut - method_trace.timeIn;
-                        count_runtime++;
-                    }
-                    if (count_runtime != 0) {
-                        final long avg_runtime = sum_runtime / count_runtime;
-                        for (TraceManager.MethodTrace method_trace : method_traces) {
-                            while (method_trace.stack_level <= last_method_trace.stack_level) {
-                                JTree.DynamicUtilTreeNode parent = (JTree.DynamicUtilTreeNode) last.getParent();
-                                if (parent != null) {
-                                    last = parent;
-                                    last_method_trace = (TraceManager.MethodTrace) last.getUserObject();
-                                } else {
-                                    break;
-                                }
-
-                            }
-                            if (method_trace.stack_level > last_method_trace.stack_level) {
-                                JTree.DynamicUtilTreeNode node = new JTree.DynamicUtilTreeNode(method_trace, null);
-                                if (!last.getAllowsChildren()) {
-                                    last.setAllowsChildren(true);
-                                }
-                                last.add(node);
-                                node.setParent(last);
-                                last = node;
-                                last_method_trace = method_trace;
-                            }
-
-                        }
-                        JTree jtree1 = new JTree(root);
-                        
-                        //Uses JLabel as cell component for applying various text styles using html.
-                        DefaultTreeCellRenderer renderer = new DefaultTreeCellRenderer() {
-                            @Override
-                            public Component getTreeCellRendererComponent(JTree tree,
-                                    Object value, boolean sel, boolean expanded, boolean leaf,
-                                    int row, boolean hasFocus) {
-                                super.getTreeCellRendererComponent(tree, value, sel, expanded,
-                                        leaf, row, hasFocus);
-
-                                final TraceManager.MethodTrace methodTrace = (TraceManager.MethodTrace) (((JTree.DynamicUtilTreeNode) value).getUserObject());
-                                long runtime = methodTrace.timeOut - methodTrace.timeIn;
-                                JLabel label = new JLabel("<html><body>" + methodTrace.className.replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;") + (methodTrace.methodName != null ? " -> <i>" + methodTrace.methodName.replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;") + "</i>" : "") + (methodTrace.hasException ? ";<b> exception thrown</b>" : methodTrace.isCompleted ? "" : "; <b>incomplete execution</b>")
-                                        + (runtime > avg_runtime ? "; <b>takes " + runtime + " ms to execute</b>" : ""));
-                                label.setToolTipText(methodTrace.stackTrace);
-                                label.setForeground(methodTrace.hasException ? Color.RED : !methodTrace.isCompleted ? Color.GRAY : Color.BLACK);
-                                return label;
-                            }
-
-                        };
-                        jtree1.setCellRenderer(renderer);
-                        
-                        //Shows detailed information and stacktrace about the method upon doubleclick.
-                        jtree1.addMouseListener(new MouseAdapter() {
-                            @Override
-                            public void mouseClicked(MouseEvent e) {
-                                if (e.getClickCount() == 2) {
-                                    TreePath path = jtree1.getSelectionPath();
-                                    if (path != null) {
-                                        TraceManager.MethodTrace methodTrace = (TraceManager.MethodTrace) (((JTree.DynamicUtilTreeNode) path.getLastPathComponent()).getUserObject());
-
-                                        JEditorPane area1 = new JEditorPane();
-                                        area1.setContentType("text/html");
-                                        area1.setText("<html<body><table><tr><td>Class</td><td> <code>" + methodTrace.className + "</code></td></tr>"
-                                                + "<tr><td>Method</td><td> <code>" + (methodTrace.methodName.equals("<init>") ? "constructor" : methodTrace.methodName) + "</code></td></tr>"
-                                                + "<tr><td>Method Parameters</td><td> <code>" + (methodTrace.parameters) + "</code></td></tr>"
-                                                + "<tr><td>Execution Time</td><td> <code>" + (methodTrace.timeOut - methodTrace.timeIn) + " ms</code></td></tr>"
-                                                + "<tr><td>Execution Started At</td><td> <code>" + (methodTrace.timeIn) + " ms</code></td></tr>"
-                                                + "<tr><td>Execution Ended At</td><td> <code>" + (methodTrace.timeOut) + " ms</code></td></tr>"
-                                                + "<tr><td>Stack Trace</td><td> <code>" + (methodTrace.stackTrace.replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;").replaceAll("[\n]", "<br/>")) + "</code></td></tr>");
-                                        jTabbedPane2.setSelectedComponent(jTabbedPane2.add(methodTrace.className + " -> " + methodTrace.methodName, new JScrollPane(area1)));
-
-                                    }
-                                }
-                            }
-
-                        });
-                        
-                        //Expands all rows of the JTree
-                        for (int i = 0; i < jtree1.getRowCount(); i++) {
-                            jtree1.expandRow(i);
-                        }
+                    long start = System.nanoTime();
+                    InvocationStore store = traceManager.getInvocations(name_t);
+                    JTree jtree1 = createMethodTree(store, name_t);
+                    if (jtree1 != null) {
                         components.add(new JScrollPane(jtree1));
+                        Metrics.getMetrics().time("render.tree", start);
                     } else {
                         JOptionPane.showMessageDialog(MainFrame.this, "None of your selected methods got invoked in " + name_t + "!");
                     }
@@ -895,6 +1018,57 @@ public class MainFrame extends javax.swing.JFrame {
         }).start();
     }//GEN-LAST:event_jButton3ActionPerformed
 
+    /**
+     * Creates the method tree of a trace, expanded if small enough.
+     * @param store the invocations of the trace
+     * @param name_t the name of the trace
+     * @return the JTree, null if the trace has no invocations
+     */
+    private JTree createMethodTree(InvocationStore store, String name_t) {
+        long sum_runtime = 0;
+        int count_runtime = store != null ? store.size() : 0;
+        for (int i = 0; i < count_runtime; i++) {
+            sum_runtime += store.getTimeOut(i) - store.getTimeIn(i);
+        }
+        if (count_runtime != 0) {
+            final long avg_runtime = sum_runtime / count_runtime;
+            InvocationTreeModel treeModel = new InvocationTreeModel(store);
+            JTree jtree1 = new JTree(treeModel);
+            jtree1.setLargeModel(true);
+            jtree1.setRowHeight(18);
+
+            //A single renderer paints every node, showing the stack trace as the tool tip.
+            InvocationTreeCellRenderer renderer = new InvocationTreeCellRenderer(store, name_t, avg_runtime);
+            ToolTipManager.sharedInstance().registerComponent(jtree1);
+            jtree1.setCellRenderer(renderer);
+
+            //Shows detailed information and stacktrace about the method upon doubleclick.
+            jtree1.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2) {
+                        TreePath path = jtree1.getSelectionPath();
+                        if (path != null && (Integer) path.getLastPathComponent() >= 0) {
+                            showMethodTrace(store.get((Integer) path.getLastPathComponent()));
+                        }
+                    }
+                }
+
+            });
+
+            jtree1.addMouseListener(new TreeSearchAdapter(store));
+
+            //Expands all rows of the JTree, if small enough to be expanded at once.
+            if (store.size() <= MAX_EXPANDED_ROWS) {
+                for (int i = 0; i < jtree1.getRowCount(); i++) {
+                    jtree1.expandRow(i);
+                }
+            }
+            return jtree1;
+        }
+        return null;
+    }
+
     /**
      * Shows method statistics (number of invocations) of the selected trace(s).
      * @param evt The triggering event 
@@ -921,25 +1095,16 @@ public class MainFrame extends javax.swing.JFrame {
 
             if (model != null) {
                 JTable table = new JTable(model);
-                int max = 0;
-                for (int i = 0; i < model.getRowCount(); i++) {
-                    for (int j = 1; j < model.getColumnCount(); j++) {
-                        int temp = Integer.parseInt(model.getValueAt(i, j).toString());
-                        if (temp > max) {
-                            max = temp;
-                        }
-                    }
+                //A single renderer paints the bars of all the traces, to the same scale.
+                int[] columns = new int[model.getColumnCount() - 1];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = i + 1;
                 }
-                final int max_final = max;
-                for (int i = 1; i < model.getColumnCount(); i++) {
-                    table.getColumnModel().getColumn(i).setCellRenderer(new DefaultTableCellRenderer() {
-                        @Override
-                        public Component getTableCellRendererComponent(JTable table,
-                                Object obj, boolean isSelected, boolean hasFocus, int row, int column) {
-                            return new MethodStatProgressPanel(0, max_final, Integer.parseInt(obj.toString()));
-                        }
-                    });
+                BarCellRenderer renderer = new BarCellRenderer(model, columns);
+                for (int column : columns) {
+                    table.getColumnModel().getColumn(column).setCellRenderer(renderer);
                 }
+                table.setRowSorter(new TableRowSorter<>(model));
                 jTabbedPane2.setSelectedComponent(jTabbedPane2.add(title + " - method stats", new JScrollPane(table)));
 
             }
@@ -970,6 +1135,648 @@ public class MainFrame extends javax.swing.JFrame {
     private void jMenuItem8ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem8ActionPerformed
         jButton5ActionPerformed(evt);
     }//GEN-LAST:event_jMenuItem8ActionPerformed
+    /**
+     * Shows the internal timers and counters of the application.
+     * @param evt The triggering event
+     */
+    private void jMenuItem9ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem9ActionPerformed
+        showTableTab(Metrics.getMetrics().getTableModel(), "performance");
+    }//GEN-LAST:event_jMenuItem9ActionPerformed
+
+    /**
+     * Shows the timeline of the selected trace(s), merging all their threads.
+     * Double clicking on a lane shows what every thread was running at that time.
+     * @param evt The triggering event
+     */
+    private void jMenuItem10ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem10ActionPerformed
+        updateWorking(true);
+        new Thread(() -> {
+            int[] indices = jList2.getSelectedIndices();
+            String[] names = null;
+            if (indices.length > 0) {
+                names = new String[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    names[i] = jList2.getModel().getElementAt(indices[i]);
+                }
+            } else if (name != null) {
+                names = new String[]{name};
+            }
+
+            if (names != null) {
+                InvocationStore[] stores = new InvocationStore[names.length];
+                String title = "timeline - ";
+                for (int i = 0; i < names.length; i++) {
+                    stores[i] = traceManager.getInvocations(names[i]);
+                    if (stores[i] == null) {
+                        stores[i] = new InvocationStore();
+                    }
+                    title += names[i] + " ";
+                }
+                Timeline timeline = new Timeline(names, stores);
+                TimelinePanel panel = new TimelinePanel(timeline);
+                panel.addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mouseClicked(MouseEvent e) {
+                        if (e.getClickCount() == 2) {
+                            long time = panel.getTimeAt(e.getX());
+                            showTableTab(timeline.getActiveTableModel(time), "running at " + time);
+                        }
+                    }
+                });
+                JScrollPane scrollPane = new JScrollPane(panel);
+                scrollPane.setRowHeaderView(panel.createLaneHeader());
+                jTabbedPane2.setSelectedComponent(jTabbedPane2.add(title, scrollPane));
+            }
+            updateWorking(false);
+        }).start();
+    }//GEN-LAST:event_jMenuItem10ActionPerformed
+
+    /**
+     * Shows the methods of the selected trace(s), ranked by self time, with the percentiles of their durations.
+     * @param evt The triggering event
+     */
+    private void jMenuItem11ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem11ActionPerformed
+        updateWorking(true);
+        new Thread(() -> {
+            int[] indices = jList2.getSelectedIndices();
+            String[] names = null;
+            if (indices.length > 0) {
+                names = new String[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    names[i] = jList2.getModel().getElementAt(indices[i]);
+                }
+            } else if (name != null) {
+                names = new String[]{name};
+            }
+
+            if (names != null) {
+                for (String name_t : names) {
+                    TableModel model = traceManager.getHotMethods(name_t);
+                    if (model != null) {
+                        showTableTab(model, name_t + " - hot methods");
+                    }
+                }
+            }
+            updateWorking(false);
+        }).start();
+    }//GEN-LAST:event_jMenuItem11ActionPerformed
+
+    /**
+     * Compares the latencies of the methods of the selected traces against the first selected trace,
+     * showing the significant slowdowns first.
+     * @param evt The triggering event
+     */
+    private void jMenuItem12ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem12ActionPerformed
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length < 2) {
+            JOptionPane.showMessageDialog(this, "Select the baseline trace followed by the trace(s) to compare with it.");
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            String[] names = new String[indices.length - 1];
+            String base = jList2.getModel().getElementAt(indices[0]), title = base + " vs ";
+            for (int i = 1; i < indices.length; i++) {
+                names[i - 1] = jList2.getModel().getElementAt(indices[i]);
+                title += names[i - 1] + " ";
+            }
+            TableModel model = traceManager.getRegressions(base, names);
+            if (model != null) {
+                showTableTab(model, title + "- regressions");
+            }
+            updateWorking(false);
+        }).start();
+    }//GEN-LAST:event_jMenuItem12ActionPerformed
+
+    /**
+     * Runs a read-only SQL query on the selected traces, or on every trace in the workspace if none
+     * is selected, streaming the rows of all the traces into one table.
+     * @param evt The triggering event
+     */
+    private void jMenuItem13ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem13ActionPerformed
+        String sql = JOptionPane.showInputDialog("Enter the SELECT statement to run on "
+                + (jList2.isSelectionEmpty() ? "all the traces" : "the selected traces"), "SELECT * FROM point WHERE component='mt';");
+        String limit = sql != null ? JOptionPane.showInputDialog("Maximum rows per trace (0 for no limit)", "1000") : null;
+        if (sql != null && limit != null) {
+            int maxRows;
+            try {
+                maxRows = Integer.parseInt(limit.trim());
+            } catch (NumberFormatException ex) {
+                maxRows = -1;
+            }
+            if (maxRows < 0) {
+                JOptionPane.showMessageDialog(this, "The maximum rows must be a whole number, 0 or more!");
+                return;
+            }
+            List<String> names = jList2.getSelectedValuesList();
+            FederatedQuery query = traceManager.query(sql, maxRows, names.toArray(new String[names.size()]));
+            DefaultTableModel model = new DefaultTableModel() {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            updateWorking(true);
+            new Thread(() -> {
+                query.run(Runtime.getRuntime().availableProcessors(), new FederatedQuery.Listener() {
+                    @Override
+                    public void columns(String[] columnNames) {
+                        SwingUtilities.invokeLater(() -> {
+                            model.setColumnIdentifiers(columnNames);
+                            showTableTab(model, "query");
+                        });
+                    }
+
+                    @Override
+                    public void rows(List<Object[]> rows) {
+                        SwingUtilities.invokeLater(() -> rows.forEach(model::addRow));
+                    }
+
+                    @Override
+                    public void done(long rowCount, List<String> failed) {
+                        if (!failed.isEmpty()) {
+                            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(MainFrame.this,
+                                    "The query failed on " + String.join(", ", failed) + ". Please check your SQL syntax, and that it returns the same columns on every trace."));
+                        }
+                    }
+                });
+                SwingUtilities.invokeLater(() -> updateWorking(false));
+            }).start();
+        }
+    }//GEN-LAST:event_jMenuItem13ActionPerformed
+
+    /**
+     * Lists the exceptional exits of the selected trace(s), grouped by call path, above the method tree;
+     * selecting an exit shows its invocation in the tree.
+     * @param evt The triggering event
+     */
+    private void jMenuItem14ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem14ActionPerformed
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                JTree jtree1 = createMethodTree(store, name_t);
+                if (jtree1 == null) {
+                    continue;
+                }
+                ExceptionIndex exceptions = new ExceptionIndex(store);
+                InvocationTreeModel treeModel = (InvocationTreeModel) jtree1.getModel();
+                JTable table = new JTable(exceptions);
+                table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+                table.getSelectionModel().addListSelectionListener((ListSelectionEvent e) -> {
+                    int row = table.getSelectedRow();
+                    if (!e.getValueIsAdjusting() && row >= 0) {
+                        TreePath path = treeModel.getPath(exceptions.getInvocation(row));
+                        jtree1.setSelectionPath(path);
+                        jtree1.scrollPathToVisible(path);
+                    }
+                });
+                JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), new JScrollPane(jtree1));
+                split.setResizeWeight(0.5);
+                SwingUtilities.invokeLater(() -> jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - exceptions ("
+                        + exceptions.getRowCount() + " in " + exceptions.getGroupCount() + " paths)", split)));
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem14ActionPerformed
+
+    /**
+     * Shows the invocations left open at the end of the selected trace(s), grouped by method across
+     * the threads above the open invocations and idle time of each thread.
+     * @param evt The triggering event
+     */
+    private void jMenuItem15ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem15ActionPerformed
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                if (store == null) {
+                    continue;
+                }
+                HangDetector hangs = new HangDetector(store);
+                JTable hotspots = new JTable(hangs.getHotspotTableModel()), threads = new JTable(hangs.getThreadTableModel());
+                hotspots.setAutoCreateRowSorter(true);
+                threads.setAutoCreateRowSorter(true);
+                JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(hotspots), new JScrollPane(threads));
+                split.setResizeWeight(0.3);
+                SwingUtilities.invokeLater(() -> jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - hangs", split)));
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem15ActionPerformed
+
+    /**
+     * Shows the call graph of the selected trace(s): the methods with their callers and callees, the
+     * heaviest call paths and the recursion cycles.
+     * @param evt The triggering event
+     */
+    private void jMenuItem16ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem16ActionPerformed
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                CallGraph graph = traceManager.getCallGraph(name_t);
+                if (graph == null) {
+                    continue;
+                }
+                JTable methods = new JTable(graph.getNodeTableModel()), callers = new JTable(), callees = new JTable();
+                methods.setAutoCreateRowSorter(true);
+                methods.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+                methods.getSelectionModel().addListSelectionListener((ListSelectionEvent e) -> {
+                    int row = methods.getSelectedRow();
+                    if (!e.getValueIsAdjusting() && row >= 0) {
+                        int node = graph.findNode((String) methods.getModel().getValueAt(methods.convertRowIndexToModel(row), 0));
+                        callers.setModel(graph.getEdgeTableModel(graph.getCallers(node), true));
+                        callees.setModel(graph.getEdgeTableModel(graph.getCallees(node), false));
+                    }
+                });
+                JSplitPane edges = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(callers), new JScrollPane(callees));
+                edges.setResizeWeight(0.5);
+                JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(methods), edges);
+                split.setResizeWeight(0.5);
+                JTabbedPane views = new JTabbedPane();
+                views.add("Methods", split);
+                views.add("Heaviest Paths", new JScrollPane(new JTable(graph.getPathTableModel(CallGraph.HEAVIEST_PATHS))));
+                views.add("Recursion Cycles", new JScrollPane(new JTable(graph.getCycleTableModel())));
+                SwingUtilities.invokeLater(() -> jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - call graph", views)));
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem16ActionPerformed
+
+    /**
+     * Shows the heaviest critical paths of the selected trace(s); selecting a path shows the self time
+     * of each of its steps.
+     * @param evt The triggering event
+     */
+    private void jMenuItem17ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem17ActionPerformed
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                if (store == null) {
+                    continue;
+                }
+                CriticalPath critical = new CriticalPath(store);
+                JTable paths = new JTable(critical.getPathTableModel(CriticalPath.TOP_PATHS)), steps = new JTable();
+                paths.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+                paths.getSelectionModel().addListSelectionListener((ListSelectionEvent e) -> {
+                    int row = paths.getSelectedRow();
+                    if (!e.getValueIsAdjusting() && row >= 0) {
+                        steps.setModel(critical.getStepTableModel(critical.getPaths().get(row)));
+                    }
+                });
+                JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(paths), new JScrollPane(steps));
+                split.setResizeWeight(0.5);
+                SwingUtilities.invokeLater(() -> {
+                    jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - critical path", split));
+                    if (paths.getRowCount() > 0) {
+                        paths.setRowSelectionInterval(0, 0);
+                    }
+                });
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem17ActionPerformed
+
+    /**
+     * Generates the method tree of the selected trace(s), pruned to the methods of a methods specification.
+     * The callees of the invocations left out are shown under their nearest caller kept.
+     * @param evt The triggering event
+     */
+    private void jMenuItem18ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem18ActionPerformed
+        MethodSpec methods = askMethodSpec("Enter the methods to keep");
+        if (methods == null) {
+            return;
+        }
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                if (store == null) {
+                    continue;
+                }
+                JTree jtree1 = createMethodTree(store.filter(methods), name_t);
+                SwingUtilities.invokeLater(() -> {
+                    if (jtree1 != null) {
+                        jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - " + methods, new JScrollPane(jtree1)));
+                    } else {
+                        JOptionPane.showMessageDialog(MainFrame.this, "None of " + methods + " got invoked in " + name_t + "!");
+                    }
+                });
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem18ActionPerformed
+
+    /**
+     * Runs the programs of a batch file with tracing, several at once, importing their traces as they complete.
+     * The state of every job is shown in a table, and the traces are listed once imported.
+     * @param evt The triggering event
+     */
+    private void jMenuItem19ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem19ActionPerformed
+        JFileChooser batchChooser = new JFileChooser();
+        batchChooser.setDialogTitle("Select the batch file");
+        if (batchChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        JFileChooser outputChooser = new JFileChooser(batchChooser.getSelectedFile().getParentFile());
+        outputChooser.setDialogTitle("Select the directory of the trace files");
+        outputChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (outputChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        List<BatchRunner.Job> jobs;
+        try {
+            jobs = BatchRunner.read(batchChooser.getSelectedFile());
+        } catch (IOException | ParseException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage());
+            return;
+        }
+        String parallelism = JOptionPane.showInputDialog("Programs to run at once", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        if (parallelism == null || !parallelism.trim().matches("[1-9][0-9]*")) {
+            return;
+        }
+        BatchRunner batch = new BatchRunner(jobs, outputChooser.getSelectedFile(), traceManager);
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Name", "Program", "Main Class", "State", "Exit Code", "Running Time (ms)"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (BatchRunner.Job job : jobs) {
+            model.addRow(new Object[]{job.name, job.program.getName(), job.mainClass != null ? job.mainClass : "(Main-Class)", job.state, "", ""});
+        }
+        JTable table = new JTable(model);
+        jTabbedPane2.setSelectedComponent(jTabbedPane2.add("batch - " + batchChooser.getSelectedFile().getName(), new JScrollPane(table)));
+        updateWorking(true);
+        new Thread(() -> {
+            boolean done = batch.run(Integer.parseInt(parallelism.trim()), (job) -> {
+                int row = jobs.indexOf(job);
+                String state = job.state;
+                Object exitCode = job.exitCode >= 0 ? job.exitCode : "", time = job.runningTime > 0 ? job.runningTime / 1000000 : "";
+                SwingUtilities.invokeLater(() -> {
+                    model.setValueAt(state, row, 3);
+                    model.setValueAt(exitCode, row, 4);
+                    model.setValueAt(time, row, 5);
+                });
+            });
+            loadTraces();
+            SwingUtilities.invokeLater(() -> {
+                updateWorking(false);
+                if (!done) {
+                    JOptionPane.showMessageDialog(MainFrame.this, "Some of the programs could not be run or imported. See the .log files in " + outputChooser.getSelectedFile());
+                }
+            });
+        }).start();
+    }//GEN-LAST:event_jMenuItem19ActionPerformed
+
+    /**
+     * Exports the selected trace into a compact archive, to be shared and imported elsewhere with
+     * Import Trace File(s) without the binary trace files.
+     * @param evt The triggering event
+     */
+    private void jMenuItem20ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem20ActionPerformed
+        String name_t = jList2.getSelectedValue();
+        if (name_t == null) {
+            JOptionPane.showMessageDialog(this, "Select a trace to export!");
+            return;
+        }
+        JFileChooser jfc = new JFileChooser();
+        jfc.setSelectedFile(new File(name_t + TraceArchive.EXTENSION));
+        if (jfc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File archive = jfc.getSelectedFile();
+        updateWorking(true);
+        new Thread(() -> {
+            boolean exported = traceManager.exportTrace(name_t, archive);
+            SwingUtilities.invokeLater(() -> {
+                updateWorking(false);
+                if (exported) {
+                    JOptionPane.showMessageDialog(this, "Exported " + name_t + " to " + archive + " (" + archive.length() / 1024 + " KB).");
+                } else {
+                    JOptionPane.showMessageDialog(this, "There was an error exporting " + name_t + ".");
+                }
+            });
+        }).start();
+    }//GEN-LAST:event_jMenuItem20ActionPerformed
+
+    /**
+     * Asks for a methods specification, showing why it is invalid if so.
+     * @param message the message of the dialog, to which the format is appended
+     * @return the specification, null if cancelled or invalid
+     */
+    private MethodSpec askMethodSpec(String message) {
+        String spec = JOptionPane.showInputDialog(message + " (as in -Xtrace, e.g. {com/acme/*,!com/acme/Log*.*}):", "*.*");
+        if (spec == null) {
+            return null;
+        }
+        try {
+            return MethodSpec.parse(spec);
+        } catch (ParseException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Asks for the length of a window of time, in milliseconds.
+     * @return the length in nanoseconds, null if cancelled or not a positive number
+     */
+    private Long askWindowNanos() {
+        String windowText = JOptionPane.showInputDialog("Enter the length of a window (ms):", "100");
+        if (windowText == null) {
+            return null;
+        }
+        long window;
+        try {
+            window = (long) (Double.parseDouble(windowText.trim()) * 1000000);
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "The length of a window must be a number!");
+            return null;
+        }
+        if (window <= 0) {
+            JOptionPane.showMessageDialog(this, "The length of a window must be more than 0!");
+            return null;
+        }
+        return window;
+    }
+
+    /**
+     * Shows the calls per second and the p50 and p99 durations of the methods of the selected trace(s) over
+     * windows of time, as sparklines above a table of their peaks. Double-clicking a method shows its windows.
+     * @param evt The triggering event
+     */
+    private void jMenuItem21ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem21ActionPerformed
+        MethodSpec methods = askMethodSpec("Enter the methods");
+        if (methods == null) {
+            return;
+        }
+        Long window = askWindowNanos();
+        if (window == null) {
+            return;
+        }
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                if (store == null) {
+                    continue;
+                }
+                LatencyTimeline timeline;
+                try {
+                    timeline = new LatencyTimeline(store, methods, window);
+                } catch (IllegalArgumentException ex) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, ex.getMessage()));
+                    continue;
+                }
+                SparklineChart chart = timeline.createChart(20);
+                JScrollPane chartPane = new JScrollPane(chart);
+                chartPane.setRowHeaderView(chart.createRowHeader());
+                JTable summary = new JTable(timeline.getSummaryTableModel());
+                summary.setAutoCreateRowSorter(true);
+                summary.addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mouseClicked(MouseEvent e) {
+                        int row = summary.getSelectedRow();
+                        if (e.getClickCount() == 2 && row >= 0) {
+                            int model = summary.convertRowIndexToModel(row);
+                            LatencyTimeline.Series series = model == 0 ? timeline.getAll() : timeline.getSeries().get(model - 1);
+                            showTableTab(timeline.getBucketTableModel(series), name_t + " - " + series.name);
+                        }
+                    }
+                });
+                JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, chartPane, new JScrollPane(summary));
+                split.setResizeWeight(0.7);
+                SwingUtilities.invokeLater(() -> jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - throughput", split)));
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem21ActionPerformed
+
+    /**
+     * Shows how many invocations of each method of the selected trace(s) were in flight at once across the threads,
+     * with the peak and when it happened, charted over windows of time. Double-clicking a method shows its windows.
+     * @param evt The triggering event
+     */
+    private void jMenuItem22ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem22ActionPerformed
+        MethodSpec methods = askMethodSpec("Enter the methods");
+        if (methods == null) {
+            return;
+        }
+        Long window = askWindowNanos();
+        if (window == null) {
+            return;
+        }
+        int[] indices = jList2.getSelectedIndices();
+        if (indices.length == 0) {
+            return;
+        }
+        updateWorking(true);
+        new Thread(() -> {
+            for (int index : indices) {
+                String name_t = jList2.getModel().getElementAt(index);
+                InvocationStore store = traceManager.getInvocations(name_t);
+                if (store == null) {
+                    continue;
+                }
+                ConcurrencyAnalyzer concurrency;
+                try {
+                    concurrency = new ConcurrencyAnalyzer(store, methods, window);
+                } catch (IllegalArgumentException ex) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, ex.getMessage()));
+                    continue;
+                }
+                SparklineChart chart = concurrency.createChart(20);
+                JScrollPane chartPane = new JScrollPane(chart);
+                chartPane.setRowHeaderView(chart.createRowHeader());
+                JTable summary = new JTable(concurrency.getSummaryTableModel());
+                summary.setAutoCreateRowSorter(true);
+                summary.addMouseListener(new MouseAdapter() {
+                    @Override
+                    public void mouseClicked(MouseEvent e) {
+                        int row = summary.getSelectedRow();
+                        if (e.getClickCount() == 2 && row >= 0) {
+                            int model = summary.convertRowIndexToModel(row);
+                            ConcurrencyAnalyzer.Method method = concurrency.getMethods().get(model);
+                            showTableTab(concurrency.getWindowTableModel(method), name_t + " - " + method.name);
+                        }
+                    }
+                });
+                JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, chartPane, new JScrollPane(summary));
+                split.setResizeWeight(0.7);
+                SwingUtilities.invokeLater(() -> jTabbedPane2.setSelectedComponent(jTabbedPane2.add(name_t + " - concurrency", split)));
+            }
+            SwingUtilities.invokeLater(() -> updateWorking(false));
+        }).start();
+    }//GEN-LAST:event_jMenuItem22ActionPerformed
+
+    /**
+     * Lists the invocations of the selected trace(s), across all their threads, in the order of their time of entry.
+     * @param evt The triggering event
+     */
+    private void jMenuItem23ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem23ActionPerformed
+        updateWorking(true);
+        new Thread(() -> {
+            int[] indices = jList2.getSelectedIndices();
+            String[] names = null;
+            if (indices.length > 0) {
+                names = new String[indices.length];
+                for (int i = 0; i < indices.length; i++) {
+                    names[i] = jList2.getModel().getElementAt(indices[i]);
+                }
+            } else if (name != null) {
+                names = new String[]{name};
+            }
+
+            if (names != null) {
+                InvocationStore[] stores = new InvocationStore[names.length];
+                String title = "events - ";
+                for (int i = 0; i < names.length; i++) {
+                    stores[i] = traceManager.getInvocations(names[i]);
+                    if (stores[i] == null) {
+                        stores[i] = new InvocationStore();
+                    }
+                    title += names[i] + " ";
+                }
+                TableModel model = new Timeline(names, stores).getEventTableModel();
+                String title_t = title;
+                SwingUtilities.invokeLater(() -> showTableTab(model, title_t));
+            }
+            updateWorking(false);
+        }).start();
+    }//GEN-LAST:event_jMenuItem23ActionPerformed
+
     /**
      * Lists the traces (imported) from workspace folder into jList2.
      */
@@ -989,6 +1796,10 @@ public class MainFrame extends javax.swing.JFrame {
      * @param args the command line arguments
      */
     public static void main(String args[]) {
+        if (args.length > 0) {
+            CommandLine.main(args);
+            return;
+        }
         /* Set the Nimbus look and feel */
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">
         /* If Nimbus (introduced in Java SE 6) is not available, stay with the default look and feel.
@@ -1032,13 +1843,28 @@ public class MainFrame extends javax.swing.JFrame {
     private javax.swing.JMenu jMenu3;
     private javax.swing.JMenuBar jMenuBar1;
     private javax.swing.JMenuItem jMenuItem1;
+    private javax.swing.JMenuItem jMenuItem10;
+    private javax.swing.JMenuItem jMenuItem11;
+    private javax.swing.JMenuItem jMenuItem12;
+    private javax.swing.JMenuItem jMenuItem13;
+    private javax.swing.JMenuItem jMenuItem14;
+    private javax.swing.JMenuItem jMenuItem15;
+    private javax.swing.JMenuItem jMenuItem16;
+    private javax.swing.JMenuItem jMenuItem17;
+    private javax.swing.JMenuItem jMenuItem18;
+    private javax.swing.JMenuItem jMenuItem19;
     private javax.swing.JMenuItem jMenuItem2;
+    private javax.swing.JMenuItem jMenuItem20;
+    private javax.swing.JMenuItem jMenuItem21;
+    private javax.swing.JMenuItem jMenuItem22;
+    private javax.swing.JMenuItem jMenuItem23;
     private javax.swing.JMenuItem jMenuItem3;
     private javax.swing.JMenuItem jMenuItem4;
     private javax.swing.JMenuItem jMenuItem5;
     private javax.swing.JMenuItem jMenuItem6;
     private javax.swing.JMenuItem jMenuItem7;
     private javax.swing.JMenuItem jMenuItem8;
+    private javax.swing.JMenuItem jMenuItem9;
     private javax.swing.JPopupMenu jPopupMenu1;
     private javax.swing.JScrollPane jScrollPane2;
     private javax.swing.JSplitPane jSplitPane2;
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A methods specification of the -Xtrace option, such as
+ * <code>{com/acme/*,!com/acme/util/Log*.*,java/lang/String.&lt;init&gt;()}</code>, parsed into its
+ * clauses and compiled into a matcher of the traced methods.
+ * <p>
+ * A clause is an optional '!' excluding the methods it matches, a class and a method, separated by
+ * '.', and an optional "()" asking for the parameters to be traced. The class is the '/' separated
+ * name of a class, optionally ending in '*', a package followed by "/*", or '*' for every class; the
+ * method is a name optionally ending in '*', '*', &lt;init&gt; or &lt;clinit&gt;. Several clauses are
+ * listed within braces, where a package followed by "/*" stands for every method of its classes.
+ * A method is matched if it is matched by no excluding clause, and by an including clause or there
+ * are none.
+ * <p>
+ * The clauses are compiled into a trie over the package and class segments of their classes, so
+ * matching a class walks its segments once, checking only the clauses along the way. The results
+ * are cached by method key, as the same methods recur across millions of tracepoints.
+ * @author ani
+ */
+public class MethodSpec {
+
+    /**
+     * A clause of a methods specification.
+     */
+    public static class Clause {
+
+        public final boolean negated;
+        /**
+         * The class, as written, such as "com/acme/Foo", "com/acme/Foo*", "com/acme/*" or "*".
+         */
+        public final String classPattern;
+        /**
+         * The method, as written, such as "bar", "bar*", "*" or "&lt;init&gt;"; "*" if omitted.
+         */
+        public final String methodPattern;
+        public final boolean parameters;
+        private final boolean methodOmitted;
+        /**
+         * The start of the names of the methods matched, null if the method has no wildcard.
+         */
+        private final String methodPrefix;
+
+        /**
+         * Creates a clause.
+         * @param negated true if the clause excludes the methods it matches
+         * @param classPattern the class
+         * @param methodPattern the method, null if omitted
+         * @param parameters true if the parameters are to be traced
+         */
+        Clause(boolean negated, String classPattern, String methodPattern, boolean parameters) {
+            this.negated = negated;
+            this.classPattern = classPattern;
+            this.methodOmitted = methodPattern == null;
+            this.methodPattern = methodOmitted ? "*" : methodPattern;
+            this.parameters = parameters;
+            this.methodPrefix = this.methodPattern.endsWith("*") ? this.methodPattern.substring(0, this.methodPattern.length() - 1) : null;
+        }
+
+        /**
+         * @param methodName the name of a method
+         * @return true if the method of the clause matches the name
+         */
+        boolean matchesMethod(String methodName) {
+            return methodPrefix != null ? methodName.startsWith(methodPrefix) : methodName.equals(methodPattern);
+        }
+
+        /**
+         * @return the class and method of the clause, without negation and parameters, as a trigger takes it
+         */
+        public String getMethodText() {
+            return classPattern + "." + methodPattern;
+        }
+
+        @Override
+        public String toString() {
+            return (negated ? "!" : "") + (methodOmitted ? classPattern : getMethodText()) + (parameters ? "()" : "");
+        }
+    }
+
+    /**
+     * A node of the trie of the class segments, holding the clauses whose classes end at it.
+     */
+    private static class Node {
+
+        private String[] segments = new String[0];
+        private Node[] children = new Node[0];
+        /**
+         * The clauses whose class is exactly the path to this node.
+         */
+        private final List<Clause> exact = new ArrayList<>(1);
+        /**
+         * The clauses whose class is the path to this node followed by a wildcard, after the start
+         * of a further segment held in tails, such as "Foo" for "com/acme/Foo*", or "" for "com/acme/*".
+         */
+        private final List<Clause> wildcard = new ArrayList<>(1);
+        private final List<String> tails = new ArrayList<>(1);
+
+        /**
+         * @param name the class name
+         * @param start the start of the segment in name
+         * @param end the end of the segment in name
+         * @return the child of the segment, null if none
+         */
+        Node find(String name, int start, int end) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].length() == end - start && name.regionMatches(start, segments[i], 0, end - start)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param segment the segment
+         * @return the child of the segment, added if not present
+         */
+        Node add(String segment) {
+            Node child = find(segment, 0, segment.length());
+            if (child == null) {
+                child = new Node();
+                segments = Arrays.copyOf(segments, segments.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                segments[segments.length - 1] = segment;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final String text;
+    private final List<Clause> clauses;
+    private final Node root = new Node();
+    private final boolean hasIncludes;
+    private final ConcurrentHashMap<String, Boolean> matchedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Compiles the parsed clauses of a specification.
+     * @param text the specification
+     * @param clauses the clauses
+     */
+    private MethodSpec(String text, List<Clause> clauses) {
+        this.text = text;
+        this.clauses = Collections.unmodifiableList(clauses);
+        boolean includes = false;
+        for (Clause clause : clauses) {
+            includes |= !clause.negated;
+            String pattern = clause.classPattern;
+            boolean wildcard = pattern.endsWith("*");
+            if (wildcard) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            Node node = root;
+            int start = 0;
+            for (int end = pattern.indexOf('/'); end >= 0; end = pattern.indexOf('/', start)) {
+                node = node.add(pattern.substring(start, end));
+                start = end + 1;
+            }
+            if (wildcard) {
+                node.wildcard.add(clause);
+                node.tails.add(pattern.substring(start));
+            } else {
+                node.add(pattern.substring(start)).exact.add(clause);
+            }
+        }
+        hasIncludes = includes;
+    }
+
+    /**
+     * Parses a methods specification.
+     * @param text the specification
+     * @return the compiled specification
+     * @throws ParseException if the specification is not valid, at the offset of the first invalid character
+     */
+    public static MethodSpec parse(String text) throws ParseException {
+        return new Parser(text).parse();
+    }
+
+    /**
+     * @param text the specification
+     * @return true if the specification can be parsed
+     */
+    public static boolean isValid(String text) {
+        try {
+            parse(text);
+            return true;
+        } catch (ParseException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the clauses of the specification, in the order written
+     */
+    public List<Clause> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Checks if a method is matched by the specification.
+     * @param className the '/' separated name of the class of the method
+     * @param methodName the name of the method
+     * @return true if the method is included and not excluded
+     */
+    public boolean matches(String className, String methodName) {
+        boolean included = false;
+        Node node = root;
+        int start = 0, length = className.length();
+        while (node != null) {
+            for (int i = 0; i < node.wildcard.size(); i++) {
+                if (className.startsWith(node.tails.get(i), start) && node.wildcard.get(i).matchesMethod(methodName)) {
+                    if (node.wildcard.get(i).negated) {
+                        return false;
+                    }
+                    included = true;
+                }
+            }
+            if (start > length) {
+                for (Clause clause : node.exact) {
+                    if (clause.matchesMethod(methodName)) {
+                        if (clause.negated) {
+                            return false;
+                        }
+                        included = true;
+                    }
+                }
+                break;
+            }
+            int end = className.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            node = node.find(className, start, end);
+            start = end + 1;
+        }
+        return included || !hasIncludes;
+    }
+
+    /**
+     * Checks if a method is matched by the specification, caching the result by key.
+     * @param key the '||' separated class name, method name and parameters, identifying the method
+     * @return true if the method is included and not excluded
+     */
+    public boolean matchesKey(String key) {
+        Boolean matched = matchedKeys.get(key);
+        if (matched == null) {
+            int classEnd = key.indexOf("||");
+            if (classEnd < 0) {
+                matched = matches(key, "");
+            } else {
+                int methodEnd = key.indexOf("||", classEnd + 2);
+                matched = matches(key.substring(0, classEnd), key.substring(classEnd + 2, methodEnd < 0 ? key.length() : methodEnd));
+            }
+            matchedKeys.put(key, matched);
+        }
+        return matched;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Parses a specification by recursive descent.
+     */
+    private static class Parser {
+
+        private final String text;
+        private int pos;
+
+        /**
+         * @param text the specification
+         */
+        Parser(String text) {
+            this.text = text;
+        }
+
+        /**
+         * @return the compiled specification
+         * @throws ParseException if the specification is not valid
+         */
+        MethodSpec parse() throws ParseException {
+            List<Clause> clauses = new ArrayList<>();
+            if (accept('{')) {
+                do {
+                    clauses.add(clause(true));
+                } while (accept(','));
+                expect('}');
+            } else {
+                clauses.add(clause(false));
+            }
+            if (pos < text.length()) {
+                throw error("Unexpected '" + text.charAt(pos) + "'");
+            }
+            return new MethodSpec(text, clauses);
+        }
+
+        /**
+         * Parses a clause: [!]class.method[()], or package/* within braces.
+         * @param listed true if the clause is listed within braces
+         * @return the clause
+         * @throws ParseException if the clause is not valid
+         */
+        Clause clause(boolean listed) throws ParseException {
+            boolean negated = accept('!');
+            String classPattern = classPattern();
+            if (listed && !negated && classPattern.endsWith("/*") && (pos == text.length() || text.charAt(pos) != '.')) {
+                return new Clause(false, classPattern, null, false);
+            }
+            expect('.');
+            String methodPattern = methodPattern();
+            boolean parameters = accept('(');
+            if (parameters) {
+                expect(')');
+            }
+            return new Clause(negated, classPattern, methodPattern, parameters);
+        }
+
+        /**
+         * Parses a class: *, (identifier/)*identifier[*] or (identifier/)+*.
+         * @return the class
+         * @throws ParseException if the class is not valid
+         */
+        String classPattern() throws ParseException {
+            int start = pos;
+            if (accept('*')) {
+                return "*";
+            }
+            identifier();
+            while (accept('/')) {
+                if (accept('*')) {
+                    return text.substring(start, pos);
+                }
+                identifier();
+            }
+            accept('*');
+            return text.substring(start, pos);
+        }
+
+        /**
+         * Parses a method: *, identifier[*], &lt;init&gt; or &lt;clinit&gt;.
+         * @return the method
+         * @throws ParseException if the method is not valid
+         */
+        String methodPattern() throws ParseException {
+            int start = pos;
+            if (accept('*')) {
+                return "*";
+            }
+            if (text.startsWith("<init>", pos) || text.startsWith("<clinit>", pos)) {
+                pos = text.indexOf('>', pos) + 1;
+                return text.substring(start, pos);
+            }
+            identifier();
+            accept('*');
+            return text.substring(start, pos);
+        }
+
+        /**
+         * Parses a Java identifier.
+         * @throws ParseException if there is no identifier
+         */
+        void identifier() throws ParseException {
+            if (pos == text.length() || !Character.isJavaIdentifierStart(text.charAt(pos))) {
+                throw error("Identifier expected");
+            }
+            do {
+                pos++;
+            } while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos)));
+        }
+
+        /**
+         * @param c a character
+         * @return true if the next character was c, and is consumed
+         */
+        boolean accept(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param c a character
+         * @throws ParseException if the next character is not c
+         */
+        void expect(char c) throws ParseException {
+            if (!accept(c)) {
+                throw error("'" + c + "' expected");
+            }
+        }
+
+        /**
+         * @param message the description of the error
+         * @return the exception at the current position
+         */
+        ParseException error(String message) {
+            return new ParseException(message + " at " + (pos + 1) + " of the methods: " + text, pos);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Summarises the invocations of each method of a trace: the number of invocations and of exceptional
+ * exits, the total and self time, and a {@link LatencyHistogram} of the durations.
+ * The summary is built from the method tracepoints in a single pass, matching the entries and exits
+ * of each thread, and is stored with the trace in the 'method_summary' table.
+ * @author ani
+ */
+public class MethodSummary {
+
+    /**
+     * The summary of a method.
+     */
+    public static class Stats {
+
+        public long invocations;
+        public long errors;
+        public long totalTime;
+        public long selfTime;
+        public LatencyHistogram histogram = new LatencyHistogram();
+    }
+
+    private final LinkedHashMap<String, Stats> methods;
+
+    private long threadId;
+    private boolean hasThread;
+    private Stats[] open;
+    private long[] openTime, openChildTime;
+    private int stackLevel;
+
+    /**
+     * Creates an empty summary.
+     */
+    public MethodSummary() {
+        methods = new LinkedHashMap<>();
+        open = new Stats[64];
+        openTime = new long[64];
+        openChildTime = new long[64];
+    }
+
+    /**
+     * Adds a method tracepoint. The tracepoints of a thread must be added in order,
+     * and those of different threads not interleaved.
+     * @param threadId the id of the thread of the tracepoint
+     * @param type the type of the tracepoint, 'Entry' or 'Exit'
+     * @param parameters the '||' separated class name, method name and parameters, identifying the method
+     * @param formattedParameters the formatted parameters, starting with '*' for an exceptional exit
+     * @param time the time of the tracepoint
+     */
+    public void add(long threadId, String type, String parameters, String formattedParameters, long time) {
+        if (!hasThread || threadId != this.threadId) {
+            this.threadId = threadId;
+            hasThread = true;
+            stackLevel = 0;
+        }
+        if (type.equalsIgnoreCase("entry")) {
+            Stats stats = methods.computeIfAbsent(parameters, (key) -> new Stats());
+            stats.invocations++;
+            if (stackLevel == open.length) {
+                open = Arrays.copyOf(open, stackLevel * 2);
+                openTime = Arrays.copyOf(openTime, stackLevel * 2);
+                openChildTime = Arrays.copyOf(openChildTime, stackLevel * 2);
+            }
+            open[stackLevel] = stats;
+            openTime[stackLevel] = time;
+            openChildTime[stackLevel++] = 0;
+        } else if (type.equalsIgnoreCase("exit") && stackLevel > 0) {
+            stackLevel--;
+            if (open[stackLevel] == methods.get(parameters)) {
+                Stats stats = open[stackLevel];
+                long duration = time - openTime[stackLevel];
+                stats.histogram.record(duration);
+                stats.totalTime += duration;
+                stats.selfTime += duration - openChildTime[stackLevel];
+                if (formattedParameters.startsWith("*")) {
+                    stats.errors++;
+                }
+                if (stackLevel > 0) {
+                    openChildTime[stackLevel - 1] += duration;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the summaries of the methods, by the '||' separated class name, method name and parameters
+     */
+    public Map<String, Stats> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Inserts the summaries of the methods into the 'method_summary' table.
+     * @param con the connection to the trace database
+     * @throws SQLException on error inserting
+     */
+    public void write(Connection con) throws SQLException {
+        try (PreparedStatement insert = con.prepareStatement("INSERT INTO method_summary VALUES(?,?,?,?,?,?,?,?);")) {
+            for (Map.Entry<String, Stats> method : methods.entrySet()) {
+                Stats stats = method.getValue();
+                insert.setString(1, method.getKey());
+                insert.setLong(2, stats.invocations);
+                insert.setLong(3, stats.errors);
+                insert.setLong(4, stats.totalTime);
+                insert.setLong(5, stats.selfTime);
+                insert.setLong(6, stats.histogram.getMin());
+                insert.setLong(7, stats.histogram.getMax());
+                insert.setBytes(8, stats.histogram.toBytes());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the summary of a trace from its 'method_summary' table or, for traces imported before
+     * the table, builds it from the method tracepoints.
+     * @param con the connection to the trace database
+     * @return the summary
+     * @throws SQLException on error reading
+     */
+    public static MethodSummary read(Connection con) throws SQLException {
+        MethodSummary summary = new MethodSummary();
+        try (Statement stmt = con.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='method_summary';");
+            if (rs.next()) {
+                rs = stmt.executeQuery("SELECT parameters,invocations,errors,total_time,self_time,histogram FROM method_summary;");
+                while (rs.next()) {
+                    Stats stats = new Stats();
+                    stats.invocations = rs.getLong(2);
+                    stats.errors = rs.getLong(3);
+                    stats.totalTime = rs.getLong(4);
+                    stats.selfTime = rs.getLong(5);
+                    stats.histogram = LatencyHistogram.fromBytes(rs.getBytes(6));
+                    summary.methods.put(rs.getString(1), stats);
+                }
+            } else {
+                rs = stmt.executeQuery("SELECT thread_id,type,parameters,formatted_parameters,t_time FROM point WHERE component='mt';");
+                while (rs.next()) {
+                    summary.add(rs.getLong(1), rs.getString(2).trim(), rs.getString(3).trim(), rs.getString(4), rs.getLong(5));
+                }
+            }
+        }
+        return summary;
+    }
+}
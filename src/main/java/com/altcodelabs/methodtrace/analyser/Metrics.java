@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Contains the internal timers and counters of the operations performed by the application.
+ * The metrics are exposed through JMX, the Performance tab and the --metrics-out option of the command line.
+ * @author ani
+ */
+public class Metrics implements MetricsMXBean {
+
+    /**
+     * A single timer or counter.
+     */
+    static class Metric {
+
+        final LongAdder count = new LongAdder(), nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+        volatile boolean timed;
+    }
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Records the time elapsed since start against the timer.
+     * @param name the name of the timer
+     * @param start the value of System.nanoTime() when the operation started
+     */
+    public void time(String name, long start) {
+        long elapsed = System.nanoTime() - start;
+        Metric metric = metrics.computeIfAbsent(name, (key) -> new Metric());
+        metric.timed = true;
+        metric.count.increment();
+        metric.nanos.add(elapsed);
+        metric.maxNanos.accumulate(elapsed);
+    }
+
+    /**
+     * Adds to the counter.
+     * @param name the name of the counter
+     * @param amount the amount to add
+     */
+    public void count(String name, long amount) {
+        metrics.computeIfAbsent(name, (key) -> new Metric()).count.add(amount);
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        TreeMap<String, Long> counts = new TreeMap<>();
+        metrics.forEach((name, metric) -> counts.put(name, metric.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getTotalMillis() {
+        TreeMap<String, Long> totals = new TreeMap<>();
+        metrics.forEach((name, metric) -> {
+            if (metric.timed) {
+                totals.put(name, metric.nanos.sum() / 1000000);
+            }
+        });
+        return totals;
+    }
+
+    @Override
+    public Map<String, Long> getMaxMillis() {
+        TreeMap<String, Long> maxs = new TreeMap<>();
+        metrics.forEach((name, metric) -> {
+            if (metric.timed) {
+                maxs.put(name, metric.maxNanos.get() / 1000000);
+            }
+        });
+        return maxs;
+    }
+
+    @Override
+    public void reset() {
+        metrics.clear();
+    }
+
+    /**
+     * @return the rows of metric name, count, total, mean and max milliseconds; sorted by the name
+     */
+    private Vector<Vector<Object>> getRows() {
+        Vector<Vector<Object>> data = new Vector<>();
+        new TreeMap<>(metrics).forEach((name, metric) -> {
+            Vector<Object> row = new Vector<>();
+            long count = metric.count.sum();
+            row.add(name);
+            row.add(count);
+            if (metric.timed) {
+                double total = metric.nanos.sum() / 1e6;
+                row.add(total);
+                row.add(count > 0 ? total / count : 0.0);
+                row.add(metric.maxNanos.get() / 1e6);
+            } else {
+                row.add(null);
+                row.add(null);
+                row.add(null);
+            }
+            data.add(row);
+        });
+        return data;
+    }
+
+    /**
+     * @return the TableModel containing the current metrics
+     */
+    public DefaultTableModel getTableModel() {
+        Vector<String> columnNames = new Vector<>();
+        columnNames.add("Metric");
+        columnNames.add("Count");
+        columnNames.add("Total (ms)");
+        columnNames.add("Mean (ms)");
+        columnNames.add("Max (ms)");
+        return new DefaultTableModel(getRows(), columnNames) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : columnIndex == 1 ? Long.class : Double.class;
+            }
+
+        };
+    }
+
+    /**
+     * Writes the current metrics to a file, as JSON if the file name ends with '.json', otherwise as CSV.
+     * @param file the file to write
+     * @return true if successful
+     */
+    public boolean write(File file) {
+        boolean json = file.getName().toLowerCase().endsWith(".json");
+        StringBuilder out = new StringBuilder(json ? "{\n" : "metric,count,total_ms,mean_ms,max_ms\n");
+        Vector<Vector<Object>> rows = getRows();
+        for (int i = 0; i < rows.size(); i++) {
+            Vector<Object> row = rows.get(i);
+            if (json) {
+                out.append("  \"").append(row.get(0)).append("\": {\"count\": ").append(row.get(1));
+                if (row.get(2) != null) {
+                    out.append(String.format(Locale.ROOT, ", \"totalMillis\": %.3f, \"meanMillis\": %.3f, \"maxMillis\": %.3f",
+                            row.get(2), row.get(3), row.get(4)));
+                }
+                out.append(i < rows.size() - 1 ? "},\n" : "}\n");
+            } else {
+                out.append(row.get(0)).append(',').append(row.get(1));
+                if (row.get(2) != null) {
+                    out.append(String.format(Locale.ROOT, ",%.3f,%.3f,%.3f", row.get(2), row.get(3), row.get(4)));
+                } else {
+                    out.append(",,,");
+                }
+                out.append('\n');
+            }
+        }
+        if (json) {
+            out.append("}\n");
+        }
+        try (FileWriter fwriter = new FileWriter(file)) {
+            fwriter.write(out.toString());
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(Metrics.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return false;
+    }
+
+    private static final Metrics METRICS = new Metrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, new ObjectName("com.altcodelabs.methodtrace.analyser:type=Metrics"));
+        } catch (JMException ex) {
+            Logger.getLogger(Metrics.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * 
+     * @return The metrics of the application.
+     */
+    public static Metrics getMetrics() {
+        return METRICS;
+    }
+}
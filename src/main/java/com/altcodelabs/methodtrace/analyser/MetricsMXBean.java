@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Map;
+
+/**
+ * The management interface exposing the internal timers and counters of the application through JMX.
+ * @author ani
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return the number of times each operation was recorded
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * @return the total time, in milliseconds, spent in each timed operation
+     */
+    Map<String, Long> getTotalMillis();
+
+    /**
+     * @return the longest time, in milliseconds, spent in a single run of each timed operation
+     */
+    Map<String, Long> getMaxMillis();
+
+    /**
+     * Clears all the recorded metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Interns the strings met while decoding a trace, such as components, types, groups and method
+ * parameters, which repeat for millions of tracepoints. The characters of the strings and the hash
+ * table of their ids are kept off the heap, in direct buffers, and a string is looked up by comparing
+ * its characters in place, so looking up a string seen before allocates nothing. The ids stand for the
+ * strings while decoding, up to the rows inserted into the trace database. Each distinct string is
+ * transformed once, such as by {@link TraceManager#sanitize}, when its text is first needed, and the
+ * result is kept on the heap and shared by all its occurrences.
+ * Once the table holds the maximum number of characters, new strings are transformed without being
+ * interned, so strings that hardly repeat cannot exhaust the memory.
+ * @author ani
+ */
+public class OffHeapSymbolTable {
+
+    private final UnaryOperator<String> transform;
+    private final int maxChars;
+
+    private ByteBuffer chars;
+    private IntBuffer slots, entries;
+    private int mask, size, charCount;
+    private String[] values;
+
+    /**
+     * Creates an empty table.
+     * @param transform the transformation of the strings, applied once per distinct string
+     * @param maxChars the maximum number of characters of the interned strings
+     */
+    public OffHeapSymbolTable(UnaryOperator<String> transform, int maxChars) {
+        this.transform = transform;
+        this.maxChars = maxChars;
+        chars = ByteBuffer.allocateDirect(Math.min(maxChars, 1 << 16) * 2);
+        slots = newSlots(1 << 12);
+        //The offset, length and hash of each string
+        entries = ByteBuffer.allocateDirect(1024 * 3 * 4).asIntBuffer();
+        values = new String[1024];
+    }
+
+    /**
+     * @param capacity the number of slots, a power of two
+     * @return the empty slots of a hash table
+     */
+    private IntBuffer newSlots(int capacity) {
+        IntBuffer buffer = ByteBuffer.allocateDirect(capacity * 4).asIntBuffer();
+        for (int i = 0; i < capacity; i++) {
+            buffer.put(i, -1);
+        }
+        mask = capacity - 1;
+        return buffer;
+    }
+
+    /**
+     * @param key the characters
+     * @return the hash of the characters, as String.hashCode
+     */
+    private static int hash(CharSequence key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash the hash of the characters
+     * @return the first slot to look for the characters in
+     */
+    private int slotOf(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * @param id the id of a string
+     * @param key the characters
+     * @return true if the string is the characters
+     */
+    private boolean matches(int id, CharSequence key) {
+        int offset = entries.get(id * 3), length = entries.get(id * 3 + 1);
+        if (length != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars.getChar((offset + i) * 2) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the id of a string, adding it if not present.
+     * @param key the characters of the string
+     * @return the id of the string, -1 if not present and the table is full
+     */
+    public int intern(CharSequence key) {
+        int hash = hash(key), slot = slotOf(hash);
+        for (int id = slots.get(slot); id >= 0; id = slots.get(slot)) {
+            if (entries.get(id * 3 + 2) == hash && matches(id, key)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int length = key.length();
+        if (charCount + length > maxChars) {
+            return -1;
+        }
+        if ((charCount + length) * 2 > chars.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) Math.min((long) maxChars * 2, Math.max(chars.capacity() * 2L, (charCount + length) * 2L)));
+            chars.position(0).limit(charCount * 2);
+            grown.put(chars);
+            chars = grown;
+        }
+        if ((size + 1) * 3 > entries.capacity()) {
+            IntBuffer grown = ByteBuffer.allocateDirect(entries.capacity() * 2 * 4).asIntBuffer();
+            entries.position(0).limit(size * 3);
+            grown.put(entries);
+            entries = grown;
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        for (int i = 0; i < length; i++) {
+            chars.putChar((charCount + i) * 2, key.charAt(i));
+        }
+        int id = size++;
+        entries.put(id * 3, charCount);
+        entries.put(id * 3 + 1, length);
+        entries.put(id * 3 + 2, hash);
+        charCount += length;
+        slots.put(slot, id);
+        if (size * 2 > mask + 1) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Doubles the slots of the hash table.
+     */
+    private void rehash() {
+        slots = newSlots((mask + 1) * 2);
+        for (int id = 0; id < size; id++) {
+            int slot = slotOf(entries.get(id * 3 + 2));
+            while (slots.get(slot) >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.put(slot, id);
+        }
+    }
+
+    /**
+     * @param id the id of a string
+     * @return the transformed string
+     */
+    public String get(int id) {
+        if (values[id] == null) {
+            int offset = entries.get(id * 3), length = entries.get(id * 3 + 1);
+            char[] text = new char[length];
+            for (int i = 0; i < length; i++) {
+                text[i] = chars.getChar((offset + i) * 2);
+            }
+            values[id] = transform.apply(new String(text));
+        }
+        return values[id];
+    }
+
+    /**
+     * Transforms a string, through the table.
+     * @param key the characters of the string, null for an empty string
+     * @return the transformed string, shared by the occurrences of the string if interned
+     */
+    public String lookup(CharSequence key) {
+        if (key == null) {
+            key = "";
+        }
+        int id = intern(key);
+        return id >= 0 ? get(id) : transform.apply(key.toString());
+    }
+
+    /**
+     * @return the number of interned strings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of characters of the interned strings
+     */
+    public int getCharCount() {
+        return charCount;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Measures the overhead of tracing a program with a methods specification, by running it untraced and
+ * traced, and attributes the overhead to the methods by the events they emitted, an entry and an exit
+ * per invocation as counted in the {@link MethodSummary} of the imported trace. Each event is taken to
+ * cost the same: the difference in wall time divided by the number of events.
+ * <p>
+ * The methods are grouped into patterns by package, class and method, ranked by their events, and the
+ * heaviest are excluded from the specification until the estimated overhead falls within a budget.
+ * @author ani
+ */
+public class OverheadProfiler {
+
+    /**
+     * The levels of the patterns.
+     */
+    public static final String PACKAGE = "Package", CLASS = "Class", METHOD = "Method";
+
+    /**
+     * The methods of a package, a class or a single method, with the events they emitted.
+     */
+    public static class Pattern {
+
+        /**
+         * The pattern in the methods specification, such as "com/acme/*.*", "com/acme/Foo.*" or "com/acme/Foo.bar".
+         */
+        public final String pattern;
+        public final String level;
+        public long events;
+
+        /**
+         * @param pattern the pattern
+         * @param level the level of the pattern
+         */
+        Pattern(String pattern, String level) {
+            this.pattern = pattern;
+            this.level = level;
+        }
+    }
+
+    private final BatchRunner.Job job;
+    private long untracedTime, tracedTime, events;
+    private final List<Pattern> patterns = new ArrayList<>();
+    /**
+     * The events of each method, by class.
+     */
+    private final Map<String, Map<String, Long>> classes = new HashMap<>();
+
+    /**
+     * Creates a profiler of a program.
+     * @param job the program, run with tracing into its output file
+     */
+    public OverheadProfiler(BatchRunner.Job job) {
+        this.job = job;
+    }
+
+    /**
+     * Runs the program untraced and traced, alternately, keeping the shortest wall time of each, then
+     * imports the last trace under the name of the job and counts the events of its methods.
+     * @param runs the number of runs of each
+     * @param traceManager the TraceManager to import the trace with
+     * @return true if the program could be run and its trace imported
+     */
+    public boolean run(int runs, TraceManager traceManager) {
+        long start = System.nanoTime();
+        long untraced = Long.MAX_VALUE, traced = Long.MAX_VALUE;
+        File log = new File(job.output.getAbsoluteFile().getParentFile(), job.name + ".log");
+        for (int r = 0; r < runs; r++) {
+            long time = time(job.getCommand(false), log);
+            if (time < 0) {
+                return false;
+            }
+            untraced = Math.min(untraced, time);
+            time = time(job.getCommand(true), log);
+            if (time < 0) {
+                return false;
+            }
+            traced = Math.min(traced, time);
+        }
+        if (!traceManager.importTrace(Arrays.asList(job.output), job.name)) {
+            return false;
+        }
+        MethodSummary summary = traceManager.getMethodSummary(job.name);
+        if (summary == null) {
+            return false;
+        }
+        analyze(untraced, traced, summary.getMethods());
+        Metrics.getMetrics().time("overhead", start);
+        return true;
+    }
+
+    /**
+     * Runs a command in the directory of the program, appending its output to a log file.
+     * @param command the command
+     * @param log the log file
+     * @return the wall time of the run, -1 if it could not be run
+     */
+    private long time(List<String> command, File log) {
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.directory(job.getDirectory());
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+            long start = System.nanoTime();
+            Process process = processBuilder.start();
+            job.exitCode = process.waitFor();
+            return System.nanoTime() - start;
+        } catch (IOException ex) {
+            Logger.getLogger(OverheadProfiler.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return -1;
+    }
+
+    /**
+     * Attributes the overhead of tracing to the methods of a trace.
+     * @param untracedTime the wall time of the untraced run
+     * @param tracedTime the wall time of the traced run
+     * @param methods the summaries of the methods of the trace, by the '||' separated class name, method name and parameters
+     */
+    void analyze(long untracedTime, long tracedTime, Map<String, MethodSummary.Stats> methods) {
+        this.untracedTime = untracedTime;
+        this.tracedTime = tracedTime;
+        events = 0;
+        patterns.clear();
+        classes.clear();
+        HashMap<String, Pattern> byText = new HashMap<>();
+        for (Map.Entry<String, MethodSummary.Stats> method : methods.entrySet()) {
+            String[] parameters = TextCodec.split(method.getKey());
+            if (parameters.length < 2) {
+                continue;
+            }
+            String className = parameters[0], methodName = parameters[1];
+            //An entry and an exit per invocation
+            long count = 2 * method.getValue().invocations;
+            events += count;
+            classes.computeIfAbsent(className, (key) -> new HashMap<>()).merge(methodName, count, Long::sum);
+            int slash = className.lastIndexOf('/');
+            String[][] levels = {
+                {(slash > 0 ? className.substring(0, slash) + "/*" : "*") + ".*", PACKAGE},
+                {className + ".*", CLASS},
+                {className + "." + methodName, METHOD}};
+            for (String[] level : levels) {
+                Pattern pattern = byText.get(level[0]);
+                if (pattern == null) {
+                    pattern = new Pattern(level[0], level[1]);
+                    byText.put(level[0], pattern);
+                    patterns.add(pattern);
+                }
+                pattern.events += count;
+            }
+        }
+        patterns.sort((a, b) -> Long.compare(b.events, a.events));
+    }
+
+    /**
+     * @return the wall time of the untraced run
+     */
+    public long getUntracedTime() {
+        return untracedTime;
+    }
+
+    /**
+     * @return the wall time of the traced run
+     */
+    public long getTracedTime() {
+        return tracedTime;
+    }
+
+    /**
+     * @return the number of method events of the trace
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the overhead of tracing, as a fraction of the untraced wall time
+     */
+    public double getOverhead() {
+        return untracedTime > 0 ? Math.max(0, tracedTime - untracedTime) / (double) untracedTime : 0;
+    }
+
+    /**
+     * @return the wall time taken by each method event
+     */
+    public double getCostPerEvent() {
+        return events > 0 ? Math.max(0, tracedTime - untracedTime) / (double) events : 0;
+    }
+
+    /**
+     * @return the patterns of the methods, by decreasing events
+     */
+    public List<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * Suggests a narrower methods specification, excluding the classes or methods emitting the most events
+     * until the estimated overhead is within a budget. A method is excluded on its own where it emits at
+     * least half of the remaining events of its class, otherwise its whole class is.
+     * @param budget the overhead allowed, as a fraction of the untraced wall time
+     * @return the specification, the methods of the job if already within the budget
+     */
+    public String suggest(double budget) {
+        double cost = getCostPerEvent(), allowed = budget * untracedTime;
+        long remaining = events;
+        //The classes by decreasing events not yet excluded
+        PriorityQueue<Map.Entry<String, Long>> heaviest = new PriorityQueue<>((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (Map.Entry<String, Map<String, Long>> entry : classes.entrySet()) {
+            long classEvents = entry.getValue().values().stream().mapToLong(Long::longValue).sum();
+            heaviest.add(new AbstractMap.SimpleEntry<>(entry.getKey(), classEvents));
+        }
+        HashMap<String, Map<String, Long>> left = new HashMap<>();
+        classes.forEach((className, methods) -> left.put(className, new HashMap<>(methods)));
+        ArrayList<String> exclusions = new ArrayList<>();
+        while (remaining * cost > allowed && !heaviest.isEmpty()) {
+            Map.Entry<String, Long> top = heaviest.poll();
+            String className = top.getKey();
+            Map<String, Long> methods = left.get(className);
+            Map.Entry<String, Long> method = methods.entrySet().stream().max(Map.Entry.comparingByValue()).get();
+            String clause = "!" + className + "." + method.getKey();
+            if (method.getValue() * 2 >= top.getValue() && methods.size() > 1 && MethodSpec.isValid(clause)) {
+                exclusions.add(clause);
+                remaining -= method.getValue();
+                methods.remove(method.getKey());
+                heaviest.add(new AbstractMap.SimpleEntry<>(className, top.getValue() - method.getValue()));
+            } else {
+                exclusions.add("!" + className + ".*");
+                remaining -= top.getValue();
+            }
+        }
+        if (exclusions.isEmpty()) {
+            return job.methods.toString();
+        }
+        ArrayList<String> clauses = new ArrayList<>();
+        job.methods.getClauses().forEach((c) -> clauses.add(c.toString()));
+        clauses.addAll(exclusions);
+        return "{" + String.join(",", clauses) + "}";
+    }
+
+    /**
+     * Estimates the overhead of tracing with a methods specification, from the events of the methods it matches.
+     * @param spec the methods specification
+     * @return the estimated overhead, as a fraction of the untraced wall time
+     */
+    public double getEstimatedOverhead(MethodSpec spec) {
+        long matched = 0;
+        for (Map.Entry<String, Map<String, Long>> entry : classes.entrySet()) {
+            for (Map.Entry<String, Long> method : entry.getValue().entrySet()) {
+                if (spec.matches(entry.getKey(), method.getKey())) {
+                    matched += method.getValue();
+                }
+            }
+        }
+        return untracedTime > 0 ? matched * getCostPerEvent() / untracedTime : 0;
+    }
+
+    /**
+     * Creates a table of the patterns, with the events they emitted and the overhead attributed to them.
+     * @return the TableModel with a row per pattern, by decreasing events
+     */
+    public DefaultTableModel getPatternTableModel() {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Pattern", "Level", "Events", "Events/s", "Share %", "Estimated Overhead (ms)"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex < 2 ? String.class : columnIndex == 2 ? Long.class : Double.class;
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        double seconds = tracedTime / 1e9, cost = getCostPerEvent();
+        for (Pattern pattern : patterns) {
+            model.addRow(new Object[]{pattern.pattern, pattern.level, pattern.events, seconds > 0 ? pattern.events / seconds : 0.0,
+                events > 0 ? 100.0 * pattern.events / events : 0.0, pattern.events * cost / 1e6});
+        }
+        return model;
+    }
+
+    /**
+     * @return the wall times, overhead and events, as text
+     */
+    public String getSummary() {
+        return String.format("Untraced: %.1f ms, traced: %.1f ms, overhead: %.1f%%, events: %d, %.1f ns per event",
+                untracedTime / 1e6, tracedTime / 1e6, 100 * getOverhead(), events, getCostPerEvent());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Compares the latencies of the methods of traces against a baseline trace, to find what got slower.
+ * For each method, the change in the invocation count, mean and 99th percentile of the durations and
+ * the self time is computed, and the durations are compared with a Mann-Whitney U test, run on the
+ * histograms of the {@link MethodSummary} rather than on the samples themselves.
+ * The results are ranked with the significant slowdowns first, by the increase in self time.
+ * @author ani
+ */
+public class RegressionDetector {
+
+    public static final String SLOWER = "slower", FASTER = "faster", UNCHANGED = "unchanged", ADDED = "added", REMOVED = "removed";
+
+    /**
+     * The comparison of a method in a trace against the baseline.
+     */
+    public static class Result {
+
+        public String method;
+        public String trace;
+        public long baseCount, count;
+        public double baseMean, mean;
+        public long baseP99, p99;
+        public long baseSelfTime, selfTime;
+        /**
+         * The probability that a duration in the trace is longer than one in the baseline, ties counting half.
+         */
+        public double probabilitySlower = 0.5;
+        public double pValue = 1;
+        public String verdict;
+    }
+
+    private final double significance;
+
+    /**
+     * Creates a detector.
+     * @param significance the p-value below which a change in the durations is significant, such as 0.01
+     */
+    public RegressionDetector(double significance) {
+        this.significance = significance;
+    }
+
+    /**
+     * Compares the methods of a trace against the baseline.
+     * @param trace the name of the trace
+     * @param base the summary of the baseline trace
+     * @param other the summary of the trace
+     * @return the results, one per method in either trace
+     */
+    public List<Result> compare(String trace, MethodSummary base, MethodSummary other) {
+        ArrayList<Result> results = new ArrayList<>();
+        for (Map.Entry<String, MethodSummary.Stats> method : base.getMethods().entrySet()) {
+            results.add(compare(trace, method.getKey(), method.getValue(), other.getMethods().get(method.getKey())));
+        }
+        for (Map.Entry<String, MethodSummary.Stats> method : other.getMethods().entrySet()) {
+            if (!base.getMethods().containsKey(method.getKey())) {
+                results.add(compare(trace, method.getKey(), null, method.getValue()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compares a method of a trace against the baseline.
+     * @param trace the name of the trace
+     * @param method the method
+     * @param base the summary of the method in the baseline, null if not invoked
+     * @param other the summary of the method in the trace, null if not invoked
+     * @return the result
+     */
+    private Result compare(String trace, String method, MethodSummary.Stats base, MethodSummary.Stats other) {
+        Result result = new Result();
+        result.method = method;
+        result.trace = trace;
+        if (base != null) {
+            result.baseCount = base.invocations;
+            result.baseMean = base.histogram.getMean();
+            result.baseP99 = base.histogram.getValueAtPercentile(99);
+            result.baseSelfTime = base.selfTime;
+        }
+        if (other != null) {
+            result.count = other.invocations;
+            result.mean = other.histogram.getMean();
+            result.p99 = other.histogram.getValueAtPercentile(99);
+            result.selfTime = other.selfTime;
+        }
+        if (base == null) {
+            result.verdict = ADDED;
+        } else if (other == null) {
+            result.verdict = REMOVED;
+        } else {
+            mannWhitney(base.histogram, other.histogram, result);
+            result.verdict = result.pValue >= significance ? UNCHANGED : result.probabilitySlower > 0.5 ? SLOWER : FASTER;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the Mann-Whitney U test on the durations in two histograms, the values in a bucket being
+     * taken as ties. Uses the normal approximation, with the correction for ties.
+     * @param base the durations of the baseline
+     * @param other the durations of the trace
+     * @param result the result to set the probability of being slower and the two-sided p-value of
+     */
+    static void mannWhitney(LatencyHistogram base, LatencyHistogram other, Result result) {
+        double n1 = base.getCount(), n2 = other.getCount(), n = n1 + n2;
+        if (n1 == 0 || n2 == 0) {
+            return;
+        }
+        double u = 0, below = 0, ties = 0;
+        int buckets = Math.max(base.getBucketCount(), other.getBucketCount());
+        for (int i = 0; i < buckets; i++) {
+            long a = base.getCountAt(i), b = other.getCountAt(i);
+            u += b * (below + a / 2.0);
+            below += a;
+            double t = a + b;
+            ties += t * t * t - t;
+        }
+        result.probabilitySlower = u / (n1 * n2);
+        double variance = n1 * n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+        if (variance <= 0) {
+            return;
+        }
+        double z = (Math.abs(u - n1 * n2 / 2) - 0.5) / Math.sqrt(variance);
+        result.pValue = Math.min(1, 2 * (1 - normalCdf(Math.max(0, z))));
+    }
+
+    /**
+     * @param z a value
+     * @return the standard normal cumulative distribution at z, within 7.5e-8 (half the 1.5e-7 error of the
+     * approximation of erf), so the two-sided p-value is within 1.5e-7
+     */
+    static double normalCdf(double z) {
+        //Abramowitz and Stegun 7.1.26, applied to erf(z / sqrt(2))
+        double x = Math.abs(z) / Math.sqrt(2), t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    /**
+     * Ranks the results: the significant slowdowns first, by the increase in self time,
+     * then the added methods by self time, and the rest by the change in self time.
+     * @param results the results to rank
+     */
+    public void rank(List<Result> results) {
+        results.sort((a, b) -> {
+            int rank = Integer.compare(getRank(a), getRank(b));
+            return rank != 0 ? rank : Long.compare(b.selfTime - b.baseSelfTime, a.selfTime - a.baseSelfTime);
+        });
+    }
+
+    /**
+     * @param result a result
+     * @return the group of the result in the ranking
+     */
+    private int getRank(Result result) {
+        switch (result.verdict) {
+            case SLOWER:
+                return 0;
+            case ADDED:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * Creates a table of the ranked results.
+     * @param results the results
+     * @return the TableModel with a row per result
+     */
+    public static DefaultTableModel getTableModel(List<Result> results) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Method Name", "Trace", "Verdict", "P(slower)", "p-value",
+            "Count (base)", "Count", "Mean (base)", "Mean", "p99 (base)", "p99", "Self Time (base)", "Self Time", "Self Time Change"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                switch (columnIndex) {
+                    case 0:
+                    case 1:
+                    case 2:
+                        return String.class;
+                    case 3:
+                    case 4:
+                    case 7:
+                    case 8:
+                        return Double.class;
+                    default:
+                        return Long.class;
+                }
+            }
+
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (Result result : results) {
+            model.addRow(new Object[]{result.method, result.trace, result.verdict, result.probabilitySlower, result.pValue,
+                result.baseCount, result.count, result.baseMean, result.mean, result.baseP99, result.p99,
+                result.baseSelfTime, result.selfTime, result.selfTime - result.baseSelfTime});
+        }
+        return model;
+    }
+}
@@ -19,14 +19,16 @@ import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 /**
@@ -40,10 +42,8 @@ public class RunTrace extends javax.swing.JFrame {
      */
     public RunTrace() {
         initComponents();
-        classNames = new ArrayList();
         jFileChooser1 = new JFileChooser();
         jFileChooser2 = new JFileChooser();
-        methodsPattern = Pattern.compile("((\\!?(((([A-z$_][A-z0-9$_]*\\/)*[A-z$_][A-z0-9$_]*\\*?)|\\*)|(([A-z$_][A-z0-9$_]*\\/)+\\*))\\.((([A-z$_][A-z0-9$_]*\\*?)|\\*)|<init>)(\\(\\))?))|(\\{((\\!?((([A-z$_][A-z0-9$_]*\\/)*[A-z$_][A-z0-9$_]*\\*?)|\\*)\\.((([A-z$_][A-z0-9$_]*\\*?)|\\*)|<init>)(\\(\\))?)|(([A-z$_][A-z0-9$_]*\\/)+\\*))(\\,((\\!?((([A-z$_][A-z0-9$_]*\\/)*[A-z$_][A-z0-9$_]*\\*?)|\\*)\\.((([A-z$_][A-z0-9$_]*\\*?)|\\*)|<init>)(\\(\\))?)|(([A-z$_][A-z0-9$_]*\\/)+\\*)))*\\})");
         jFileChooser1.setFileFilter(new FileFilter() {
             @Override
             public boolean accept(File f) {
@@ -85,6 +85,7 @@ public class RunTrace extends javax.swing.JFrame {
         jButton3 = new javax.swing.JButton();
         jSeparator2 = new javax.swing.JSeparator();
         jButton4 = new javax.swing.JButton();
+        jButton5 = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
         setResizable(false);
@@ -138,6 +139,13 @@ public class RunTrace extends javax.swing.JFrame {
 
         jButton4.setText("Cancel");
 
+        jButton5.setText("Profile Overhead");
+        jButton5.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton5ActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -174,6 +182,8 @@ public class RunTrace extends javax.swing.JFrame {
                     .addComponent(jSeparator2)
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                         .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(jButton5)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(jButton4)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(jButton3))
@@ -219,6 +229,7 @@ public class RunTrace extends javax.swing.JFrame {
                     .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                            .addComponent(jButton5)
                             .addComponent(jButton4)
                             .addComponent(jButton3))
                         .addContainerGap())))
@@ -228,28 +239,45 @@ public class RunTrace extends javax.swing.JFrame {
     }// </editor-fold>//GEN-END:initComponents
     boolean isJar = false;
     /**
-     * Selects the compiled classes' root directory or a JAR file which is to be run.
+     * The Main-Class of the manifest of the selected JAR file, null if none.
+     */
+    String jarMainClass;
+    /**
+     * Selects the compiled classes' root directory or a JAR file which is to be run, and lists the
+     * classes that can be run from it, indexed by {@link ClassIndex} in the background.
      *  
      */
     private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
         // TODO add your handling code here:
         if (jFileChooser1.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File file = jFileChooser1.getSelectedFile();
-            if (file.isDirectory()) {
-                classNames.clear();
-                for (File file1 : file.listFiles()) {
-                    scanForClassNames(file1, "");
-                }
-
-                isJar = false;
-                jTextField1.setText(file.getAbsolutePath());
-                jComboBox1.setEnabled(true);
-                jComboBox1.setModel(new DefaultComboBoxModel<>(classNames.toArray(new String[classNames.size()])));
-            } else if (file.getName().toLowerCase().endsWith(".jar")) {
-                isJar = true;
-                jTextField1.setText(file.getAbsolutePath());
+            if (file.isDirectory() || file.getName().toLowerCase().endsWith(".jar")) {
+                isJar = !file.isDirectory();
+                jarMainClass = null;
+                String path = file.getAbsolutePath();
+                jTextField1.setText(path);
                 jComboBox1.setModel(new DefaultComboBoxModel<>());
                 jComboBox1.setEnabled(false);
+                jComboBox1.setToolTipText("Indexing the classes...");
+                new Thread(() -> {
+                    ClassIndex.Result index = ClassIndex.getClassIndex().scan(file);
+                    //The classes having a main method are offered, or every class if none has
+                    List<String> classes = index.mainClasses.isEmpty() ? index.classNames : index.mainClasses;
+                    SwingUtilities.invokeLater(() -> {
+                        if (!path.equals(jTextField1.getText())) {
+                            //Another selection has been made meanwhile
+                            return;
+                        }
+                        DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(classes.toArray(new String[classes.size()]));
+                        if (index.manifestMainClass != null) {
+                            model.setSelectedItem(index.manifestMainClass);
+                        }
+                        jarMainClass = index.manifestMainClass;
+                        jComboBox1.setModel(model);
+                        jComboBox1.setEnabled(true);
+                        jComboBox1.setToolTipText(index.mainClasses.size() + " of " + index.classNames.size() + " classes can be run");
+                    });
+                }).start();
             } else {
                 JOptionPane.showMessageDialog(this, "Selection is neither a directory, nor a JAR file.");
             }
@@ -261,12 +289,19 @@ public class RunTrace extends javax.swing.JFrame {
 
     }//GEN-LAST:event_jTextField3KeyTyped
     /**
-     * Checks the to be traced methods, using a RegEx and highlights if acceptable or not, using background color
-     * of jTextField3.
+     * Checks the to be traced methods, using a {@link MethodSpec} and highlights if acceptable or not, using background color
+     * of jTextField3, telling what is wrong in its tool tip.
      * @param evt The triggering event 
      */
     private void jTextField3FocusLost(java.awt.event.FocusEvent evt) {//GEN-FIRST:event_jTextField3FocusLost
-        jTextField3.setBackground(isValidMethods(jTextField3.getText()) ? Color.GREEN.brighter() : Color.RED.brighter());
+        try {
+            MethodSpec.parse(jTextField3.getText());
+            jTextField3.setBackground(Color.GREEN.brighter());
+            jTextField3.setToolTipText(null);
+        } catch (ParseException ex) {
+            jTextField3.setBackground(Color.RED.brighter());
+            jTextField3.setToolTipText(ex.getMessage());
+        }
     }//GEN-LAST:event_jTextField3FocusLost
     /**
      * Removes the highlighting of jTextField3, for editing.
@@ -286,51 +321,51 @@ public class RunTrace extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_jButton2ActionPerformed
     /**
-     * Checks the options for running an starts the application with trace options enabled. 
-     * Automatically imports the generated output file.
-     * @param evt The triggering event 
+     * Checks the options for running, telling the user of the first one missing or not valid.
+     * @return the program run with tracing into the output file, null if an option is not valid
      */
-    private void jButton3ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton3ActionPerformed
-        //Builds the options for Process to be started.
-        ArrayList<String> commands = new ArrayList();
-        commands.add(Preferences.getPreferences().config.get("jre") + File.separator + "bin" + File.separator + "java");
+    private BatchRunner.Job createJob() {
         String dir = jTextField1.getText();
         int classSel = jComboBox1.getSelectedIndex();
         String jvmOp = jTextField2.getText();
         String methods = jTextField3.getText();
         String output = jTextField4.getText();
-        String targets = "";
+        MethodSpec methodSpec = null;
+        try {
+            methodSpec = MethodSpec.parse(methods);
+        } catch (ParseException ex) {
+            //Reported below
+        }
         if (dir.trim().isEmpty()) {
             JOptionPane.showMessageDialog(this, "Select a Project Directory or a JAR File!");
         } else if (!isJar && classSel < 0) {
             JOptionPane.showMessageDialog(this, "Select a class for execution!");
         } else if (output.trim().isEmpty()) {
             JOptionPane.showMessageDialog(this, "Select an Output File!");
-        } else if (!isValidMethods(methods)) {
+        } else if (methodSpec == null) {
             JOptionPane.showMessageDialog(this, "The method(s) you have opted for, are not entered properly. Please check again!");
         } else {
-            //Everything ok and ready to proceed.
-            File cur_dir;
-            if (!jvmOp.trim().isEmpty()) {
-                commands.add(jvmOp);
-            }
-            if (methods.matches("\\{.*\\}")) {
-                for (String method : methods.substring(1, methods.length() - 2).split(",")) {
-                    targets += ",trigger=method{" + method + ",jstacktrace}";
-                }
-            } else {
-                targets += ",trigger=method{" + methods + ",jstacktrace}";
-            }
-
-            commands.add("-Xtrace:maximal=mt,output=" + output + ",methods=" + methods+targets);
-            if (isJar) {
-                commands.add("-jar");
-                commands.add(dir);
-                cur_dir = new File(System.getProperty("user.home"));
-            } else {
-                commands.add(jComboBox1.getSelectedItem() + "");
-                cur_dir = new File(dir);
-            }
+            //Everything ok and ready to proceed. The options for Process to be started are built as for a batch.
+            String mainClass = isJar && (classSel < 0 || String.valueOf(jComboBox1.getSelectedItem()).equals(jarMainClass))
+                    ? null : jComboBox1.getSelectedItem() + "";
+            BatchRunner.Job job = new BatchRunner.Job(new File(output).getName(), new File(dir), mainClass, methodSpec,
+                    jvmOp.trim().isEmpty() ? Collections.emptyList() : Arrays.asList(jvmOp.trim().split("\\s+")), Collections.emptyList());
+            job.output = new File(output);
+            return job;
+        }
+        return null;
+    }
+    /**
+     * Checks the options for running an starts the application with trace options enabled. 
+     * Automatically imports the generated output file.
+     * @param evt The triggering event 
+     */
+    private void jButton3ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton3ActionPerformed
+        BatchRunner.Job job = createJob();
+        if (job != null) {
+            String output = job.output.getPath();
+            List<String> commands = job.getCommand();
+            File cur_dir = job.getDirectory();
 
             if (JOptionPane.showConfirmDialog(this, "You are about to run the following command:\n"
                     + commands.toString() + "\n"
@@ -393,33 +428,65 @@ public class RunTrace extends javax.swing.JFrame {
         }
 
     }//GEN-LAST:event_jButton3ActionPerformed
-    private ArrayList<String> classNames;
-    Pattern methodsPattern;
-
     /**
-     * Checks if the methods string is valid.
-     * @param s the method string
-     * @return true if s is valid
+     * Runs the application untraced and traced with the options entered, measuring the overhead of tracing
+     * the methods, and suggests the methods to exclude to bring it within a budget.
+     * @param evt The triggering event
      */
-    private boolean isValidMethods(String s) {
-        return methodsPattern.matcher(s).matches();
-    }
-
-    /**
-     * Recursively scans the folder for .class files and add the names to the classNames variable.
-     * @param file The java class file or the folder containing these files.
-     * @param s The base path which overrides the path
-     */
-    private void scanForClassNames(File file, String s) {
-        String fileName = file.getName();
-        if (file.isDirectory()) {
-            for (File file1 : file.listFiles()) {
-                scanForClassNames(file1, s + fileName + ".");
-            }
-        } else if (file.isFile() && fileName.toLowerCase().endsWith(".class")) {
-            classNames.add(s + fileName.substring(0, fileName.length() - 6));
+    private void jButton5ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton5ActionPerformed
+        BatchRunner.Job job = createJob();
+        if (job == null) {
+            return;
         }
-    }
+        String budget = JOptionPane.showInputDialog(this, "Overhead budget (% of the untraced run time):", "5");
+        String runs = budget == null ? null : JOptionPane.showInputDialog(this, "Runs of the program, untraced and traced:", "3");
+        if (runs == null) {
+            return;
+        }
+        double budgetFraction;
+        int runCount;
+        try {
+            budgetFraction = Double.parseDouble(budget.trim()) / 100;
+            runCount = Math.max(1, Integer.parseInt(runs.trim()));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "The budget and the runs must be numbers!");
+            return;
+        }
+        jButton5.setEnabled(false);
+        jButton5.setText("Profiling...");
+        new Thread(() -> {
+            OverheadProfiler profiler = new OverheadProfiler(job);
+            boolean profiled = profiler.run(runCount, TraceManager.getTraceManager());
+            SwingUtilities.invokeLater(() -> {
+                jButton5.setEnabled(true);
+                jButton5.setText("Profile Overhead");
+                if (!profiled) {
+                    JOptionPane.showMessageDialog(this, "The application could not be run or its trace imported. See " + job.name + ".log next to the trace file.");
+                    return;
+                }
+                String suggestion = profiler.suggest(budgetFraction);
+                double estimate = 0;
+                try {
+                    estimate = profiler.getEstimatedOverhead(MethodSpec.parse(suggestion));
+                } catch (ParseException ex) {
+                    Logger.getLogger(RunTrace.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                javax.swing.JTable table = new javax.swing.JTable(profiler.getPatternTableModel());
+                table.setAutoCreateRowSorter(true);
+                javax.swing.JScrollPane scrollPane = new javax.swing.JScrollPane(table);
+                scrollPane.setPreferredSize(new java.awt.Dimension(700, 300));
+                if (suggestion.equals(job.methods.toString())) {
+                    JOptionPane.showMessageDialog(this, new Object[]{profiler.getSummary(), scrollPane, "The methods are within the budget."},
+                            "Tracing Overhead", JOptionPane.INFORMATION_MESSAGE);
+                } else if (JOptionPane.showConfirmDialog(this, new Object[]{profiler.getSummary(), scrollPane,
+                    String.format("Suggested methods, estimated overhead %.1f%%:", 100 * estimate), suggestion,
+                    "Use the suggested methods?"}, "Tracing Overhead", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                    jTextField3.setText(suggestion);
+                    jTextField3.setBackground(Color.WHITE);
+                }
+            });
+        }).start();
+    }//GEN-LAST:event_jButton5ActionPerformed
 
     
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -427,6 +494,7 @@ public class RunTrace extends javax.swing.JFrame {
     private javax.swing.JButton jButton2;
     private javax.swing.JButton jButton3;
     private javax.swing.JButton jButton4;
+    private javax.swing.JButton jButton5;
     private javax.swing.JComboBox<String> jComboBox1;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel2;
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows series of values over fixed windows of time as sparklines, a row per chart, with the time along
+ * the x-axis. Each row holds one or more lines on a common scale, from zero to the largest value of the
+ * row: the first is filled, the others drawn over it. The largest value of the first line of each row
+ * is marked, and the tooltip shows the values of the row at the window under the mouse. Scrolling the
+ * mouse wheel with Ctrl pressed zooms the time axis.
+ * @author ani
+ */
+public class SparklineChart extends JComponent implements Scrollable {
+
+    static final int ROW_HEIGHT = 48, MAX_COLUMN_WIDTH = 64;
+
+    private static final Color STRIPE_COLOR = new Color(0xf4f4f4);
+
+    private static final Color[] LINE_COLORS = {new Color(0x9ec5e8), new Color(0x1f4e9e), new Color(0xd0342c), new Color(0x2e8b57)};
+
+    /**
+     * A row of the chart.
+     */
+    private static class Row {
+
+        private final String label;
+        private final String[] names;
+        private final double[][] lines;
+        private final double max;
+        private final int peak;
+
+        /**
+         * @param label the label of the row
+         * @param names the names of the lines
+         * @param lines the values of the lines, one per window
+         */
+        Row(String label, String[] names, double[][] lines) {
+            this.label = label;
+            this.names = names;
+            this.lines = lines;
+            double largest = 0;
+            for (double[] line : lines) {
+                for (double value : line) {
+                    largest = Math.max(largest, value);
+                }
+            }
+            max = largest;
+            int largestAt = 0;
+            for (int i = 0; i < lines[0].length; i++) {
+                if (lines[0][i] > lines[0][largestAt]) {
+                    largestAt = i;
+                }
+            }
+            peak = largestAt;
+        }
+    }
+
+    private final long startTime, window;
+    private final int windows;
+    private final List<Row> rows = new ArrayList<>();
+    private int columnWidth;
+
+    /**
+     * Creates an empty chart, zoomed to fit all the windows in about 1600 pixels.
+     * @param startTime the time of the start of the first window
+     * @param window the length of a window
+     * @param windows the number of windows
+     */
+    public SparklineChart(long startTime, long window, int windows) {
+        this.startTime = startTime;
+        this.window = window;
+        this.windows = windows;
+        columnWidth = Math.max(1, Math.min(MAX_COLUMN_WIDTH, 1600 / Math.max(1, windows)));
+        setToolTipText("");
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        addMouseWheelListener((MouseWheelEvent e) -> {
+            if (e.isControlDown()) {
+                columnWidth = Math.max(1, Math.min(MAX_COLUMN_WIDTH, e.getWheelRotation() < 0 ? columnWidth * 2 : columnWidth / 2));
+                revalidate();
+                repaint();
+            } else {
+                JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (scrollPane != null) {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scrollPane));
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a row to the chart.
+     * @param label the label of the row
+     * @param names the names of the lines
+     * @param lines the values of the lines, one per window
+     */
+    public void addRow(String label, String[] names, double[]... lines) {
+        rows.add(new Row(label, names, lines));
+        revalidate();
+    }
+
+    /**
+     * @param x the x coordinate
+     * @return the index of the window at the x coordinate, -1 if none
+     */
+    public int getWindowAt(int x) {
+        int index = x / columnWidth;
+        return index >= 0 && index < windows ? index : -1;
+    }
+
+    /**
+     * @param y the y coordinate
+     * @return the index of the row at the y coordinate, -1 if none
+     */
+    public int getRowAt(int y) {
+        int index = y / ROW_HEIGHT;
+        return index >= 0 && index < rows.size() ? index : -1;
+    }
+
+    /**
+     * @param index the index of a window
+     * @return the time of the start of the window
+     */
+    public long getTime(int index) {
+        return startTime + index * window;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(Math.max(1, windows * columnWidth), rows.size() * ROW_HEIGHT);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(getSize());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        int first = Math.max(0, clip.y / ROW_HEIGHT), last = Math.min(rows.size() - 1, (clip.y + clip.height) / ROW_HEIGHT);
+        int from = Math.max(0, clip.x / columnWidth - 1), to = Math.min(windows - 1, (clip.x + clip.width) / columnWidth + 1);
+        for (int r = first; r <= last; r++) {
+            int y = r * ROW_HEIGHT;
+            if (r % 2 == 1) {
+                g.setColor(STRIPE_COLOR);
+                g.fillRect(clip.x, y, clip.width, ROW_HEIGHT);
+            }
+            paintRow(g, rows.get(r), y, from, to);
+        }
+        Metrics.getMetrics().time("render.sparkline", start);
+    }
+
+    /**
+     * Paints the lines of a row over a range of windows.
+     * @param g the graphics
+     * @param row the row
+     * @param y the y coordinate of the row
+     * @param from the index of the first window to paint
+     * @param to the index of the last window to paint
+     */
+    private void paintRow(Graphics g, Row row, int y, int from, int to) {
+        if (row.max <= 0) {
+            return;
+        }
+        int height = ROW_HEIGHT - 6, bottom = y + ROW_HEIGHT - 2;
+        g.setColor(LINE_COLORS[0]);
+        for (int i = from; i <= to; i++) {
+            int h = (int) Math.round(row.lines[0][i] / row.max * height);
+            g.fillRect(i * columnWidth, bottom - h, Math.max(1, columnWidth - (columnWidth > 3 ? 1 : 0)), h);
+        }
+        for (int l = 1; l < row.lines.length; l++) {
+            g.setColor(LINE_COLORS[l % LINE_COLORS.length]);
+            int lastX = -1, lastY = 0;
+            for (int i = from; i <= to; i++) {
+                int x = i * columnWidth + columnWidth / 2, ly = bottom - (int) Math.round(row.lines[l][i] / row.max * height);
+                if (lastX >= 0) {
+                    g.drawLine(lastX, lastY, x, ly);
+                }
+                lastX = x;
+                lastY = ly;
+            }
+        }
+        if (row.peak >= from && row.peak <= to && row.lines[0][row.peak] > 0) {
+            g.setColor(Color.RED);
+            g.fillRect(row.peak * columnWidth, y + 1, Math.max(2, columnWidth - 1), 3);
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int r = getRowAt(event.getY()), index = getWindowAt(event.getX());
+        if (r < 0 || index < 0) {
+            return null;
+        }
+        Row row = rows.get(r);
+        StringBuilder text = new StringBuilder("<html>").append(row.label.replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;"))
+                .append("<br/>").append(getTime(index)).append(" - ").append(getTime(index + 1));
+        for (int l = 0; l < row.lines.length; l++) {
+            text.append("<br/>").append(row.names[l]).append(": ").append(String.format("%.1f", row.lines[l][index]));
+        }
+        return text.append("<br/>peak ").append(String.format("%.1f", row.lines[0][row.peak])).append(" at ").append(getTime(row.peak)).toString();
+    }
+
+    /**
+     * @return a component showing the labels of the rows, to be used as the row header
+     */
+    public JComponent createRowHeader() {
+        return new JComponent() {
+            @Override
+            public Dimension getPreferredSize() {
+                return new Dimension(320, SparklineChart.this.getPreferredSize().height);
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                Rectangle clip = g.getClipBounds();
+                g.setColor(Color.WHITE);
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+                int first = Math.max(0, clip.y / ROW_HEIGHT), last = Math.min(rows.size() - 1, (clip.y + clip.height) / ROW_HEIGHT);
+                for (int r = first; r <= last; r++) {
+                    Row row = rows.get(r);
+                    g.setColor(Color.BLACK);
+                    g.drawString(row.label, 4, r * ROW_HEIGHT + 16);
+                    int x = 4;
+                    for (int l = 0; l < row.names.length; l++) {
+                        g.setColor(LINE_COLORS[l % LINE_COLORS.length]);
+                        g.drawString(row.names[l], x, r * ROW_HEIGHT + 34);
+                        x += g.getFontMetrics().stringWidth(row.names[l]) + 8;
+                    }
+                    g.setColor(Color.GRAY);
+                    g.drawString(String.format("0 - %.1f", row.max), x, r * ROW_HEIGHT + 34);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension size = getPreferredSize();
+        return new Dimension(Math.min(size.width, 1000), Math.min(size.height, 600));
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? ROW_HEIGHT : columnWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
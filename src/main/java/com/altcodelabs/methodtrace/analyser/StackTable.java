@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Stores the stack traces captured by the jstacktrace trigger, as a trie of frames shared from
+ * the outermost frame. Each stack trace is identified by the node of its innermost frame, so
+ * repeated stack traces, and stack traces with common callers, share their frames.
+ * The frame numbers ('[1] ', '[2] ', ...) prefixed to the frames by the trigger are stripped
+ * before storing, and added back when the stack trace is read.
+ * @author ani
+ */
+public class StackTable {
+
+    private final SymbolTable frames;
+    private final HashMap<Long, Integer> nodes;
+    private int[] parent, frame;
+    private int size;
+
+    /**
+     * Creates an empty table.
+     */
+    public StackTable() {
+        frames = new SymbolTable();
+        nodes = new HashMap<>();
+        parent = new int[256];
+        frame = new int[256];
+    }
+
+    /**
+     * Gets the id of a stack trace, adding it if not present.
+     * @param stackTrace the frames of the stack trace, innermost first
+     * @return the id of the stack trace, -1 if there are no frames
+     */
+    public int intern(List<String> stackTrace) {
+        int node = -1;
+        for (int i = stackTrace.size() - 1; i >= 0; i--) {
+            String text = stackTrace.get(i), number = "[" + (i + 1) + "] ";
+            int id = text.startsWith(number) ? frames.intern(text.substring(number.length())) << 1 | 1 : frames.intern(text) << 1;
+            node = getNode(node, id);
+        }
+        return node;
+    }
+
+    /**
+     * Gets the node of a frame called from a node, adding it if not present.
+     * @param parentNode the node of the calling frame, -1 if outermost
+     * @param frameId the id of the frame
+     * @return the node
+     */
+    private int getNode(int parentNode, int frameId) {
+        long key = ((long) parentNode << 32) | (frameId & 0xffffffffL);
+        Integer node = nodes.get(key);
+        if (node == null) {
+            if (size == parent.length) {
+                parent = Arrays.copyOf(parent, size * 2);
+                frame = Arrays.copyOf(frame, size * 2);
+            }
+            parent[size] = parentNode;
+            frame[size] = frameId;
+            node = size++;
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Gets the id of a stack trace of another table, adding it if not present.
+     * @param other the table holding the stack trace
+     * @param id the id of the stack trace in other
+     * @return the id of the stack trace in this table, -1 if id is -1
+     */
+    public int add(StackTable other, int id) {
+        int depth = 0;
+        for (int node = id; node >= 0; node = other.parent[node]) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        for (int node = id; node >= 0; node = other.parent[node]) {
+            path[--depth] = node;
+        }
+        int node = -1;
+        for (int otherNode : path) {
+            int otherFrame = other.frame[otherNode];
+            node = getNode(node, frames.intern(other.frames.get(otherFrame >>> 1)) << 1 | (otherFrame & 1));
+        }
+        return node;
+    }
+
+    /**
+     * @param id the id of the stack trace
+     * @return the stack trace, one frame per line with the innermost first
+     */
+    public String getText(int id) {
+        StringBuilder text = new StringBuilder();
+        int number = 1;
+        for (int node = id; node >= 0; node = parent[node], number++) {
+            if ((frame[node] & 1) != 0) {
+                text.append('[').append(number).append("] ");
+            }
+            text.append(frames.get(frame[node] >>> 1)).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the number of distinct frames
+     */
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * @return the number of nodes in the trie
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the statements inserting the frames and the nodes into the 'frame' and 'stack' tables to the batch of stmt.
+     * @param stmt the statement of the trace database
+     * @throws SQLException on error adding to the batch
+     */
+    public void addBatch(Statement stmt) throws SQLException {
+        for (int i = 0; i < frames.size(); i++) {
+            stmt.addBatch("INSERT INTO frame VALUES(" + i + ",'" + frames.get(i) + "');");
+        }
+        for (int i = 0; i < size; i++) {
+            stmt.addBatch("INSERT INTO stack VALUES(" + i + "," + parent[i] + "," + frame[i] + ");");
+        }
+    }
+
+    /**
+     * Loads the frames and the nodes from the 'frame' and 'stack' tables, if present.
+     * @param con the connection to the trace database
+     * @return true if the tables were present
+     * @throws SQLException on error reading the tables
+     */
+    public boolean read(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='stack';");
+            if (!rs.next()) {
+                return false;
+            }
+            rs = stmt.executeQuery("SELECT text FROM frame ORDER BY id;");
+            while (rs.next()) {
+                frames.intern(rs.getString(1));
+            }
+            rs = stmt.executeQuery("SELECT parent,frame FROM stack ORDER BY id;");
+            while (rs.next()) {
+                getNode(rs.getInt(1), rs.getInt(2));
+            }
+            return true;
+        }
+    }
+}
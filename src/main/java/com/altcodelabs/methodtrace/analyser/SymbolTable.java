@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Interns strings into consecutive int ids, so that repeated strings of a trace are stored only once.
+ * @author ani
+ */
+public class SymbolTable {
+
+    private final HashMap<String, Integer> ids;
+    private String[] symbols;
+    private int size;
+
+    /**
+     * Creates an empty symbol table.
+     */
+    public SymbolTable() {
+        ids = new HashMap<>();
+        symbols = new String[256];
+    }
+
+    /**
+     * Gets the id of the string, adding it to the table if not present.
+     * @param symbol the string
+     * @return the id of the string
+     */
+    public int intern(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            if (size == symbols.length) {
+                symbols = Arrays.copyOf(symbols, size * 2);
+            }
+            symbols[size] = symbol;
+            id = size++;
+            ids.put(symbol, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id the id of the string
+     * @return the string with the id
+     */
+    public String get(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * @return the number of strings in the table
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.util.ArrayList;
+
+/**
+ * Encodes the text stored in the trace databases, and splits it back, in a single pass over the
+ * characters without regular expressions. The results are the same as those of the regular
+ * expressions the traces were imported with, so the databases do not change:
+ * <ul>
+ * <li>sanitize: what.replaceAll("[\n]", "\\n").replaceAll("[\\'\\\"\\s]+", " ").trim()</li>
+ * <li>desanitize: what.replaceAll("\\n", "\n").trim(), which only trims</li>
+ * <li>split: key.split("\\|\\|")</li>
+ * </ul>
+ * Each thread encodes into a character buffer of its own, reused across calls; text that needs no
+ * change is returned as it is.
+ * @author ani
+ */
+public class TextCodec {
+
+    private static final ThreadLocal<TextCodec> CODECS = ThreadLocal.withInitial(TextCodec::new);
+
+    private char[] buffer = new char[256];
+
+    /**
+     * @param c a character
+     * @return true if c is matched by [\'\"\s]
+     */
+    private static boolean isBlank(char c) {
+        switch (c) {
+            case '\'':
+            case '"':
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Replaces the new-lines with 'n', and quotes and runs of whitespaces with a single space, then trims.
+     * @param what the text, null for an empty text
+     * @return the sanitized text
+     */
+    public static String sanitize(String what) {
+        return what != null ? CODECS.get().encode(what) : "";
+    }
+
+    /**
+     * Sanitizes a text into the buffer of the thread.
+     * @param what the text
+     * @return the sanitized text, what itself if unchanged
+     */
+    private String encode(String what) {
+        int length = what.length();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        boolean changed = false, blank = false;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            char c = what.charAt(i);
+            if (c == '\n') {
+                c = 'n';
+                changed = true;
+            } else if (isBlank(c)) {
+                changed |= blank || c != ' ';
+                blank = true;
+                continue;
+            }
+            if (blank) {
+                buffer[count++] = ' ';
+                blank = false;
+            }
+            buffer[count++] = c;
+        }
+        changed |= blank;
+        //As String.trim
+        int start = 0, end = count;
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        if (!changed && start == 0 && end == length) {
+            return what;
+        }
+        return new String(buffer, start, end - start);
+    }
+
+    /**
+     * Reverses {@link #sanitize} as far as the traces ever did, by trimming.
+     * @param what the sanitized text, null for an empty text
+     * @return the text
+     */
+    public static String desanitize(String what) {
+        return what != null ? what.trim() : "";
+    }
+
+    /**
+     * Splits a text around '||', as key.split("\\|\\|"): the separators are matched from the left
+     * without overlapping, and the empty strings at the end are removed.
+     * @param key the text
+     * @return the parts of the text
+     */
+    public static String[] split(String key) {
+        int next = key.indexOf("||");
+        if (next < 0) {
+            return new String[]{key};
+        }
+        ArrayList<String> parts = new ArrayList<>(4);
+        int start = 0;
+        for (; next >= 0; next = key.indexOf("||", start)) {
+            parts.add(key.substring(start, next));
+            start = next + 2;
+        }
+        parts.add(key.substring(start));
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return parts.subList(0, size).toArray(new String[size]);
+    }
+
+    /**
+     * Separates the items in data by a delimiter into a reused builder.
+     * @param out the builder, cleared first
+     * @param delimeter the delimiter
+     * @param max the maximum number of items to include
+     * @param data the items, null for none
+     * @return out, holding the delimeter separated items
+     */
+    public static StringBuilder join(StringBuilder out, String delimeter, int max, Object... data) {
+        out.setLength(0);
+        if (data != null) {
+            for (int i = 0; i < data.length && i < max; i++) {
+                if (i > 0) {
+                    out.append(delimeter);
+                }
+                out.append(data[i].toString());
+            }
+        }
+        return out;
+    }
+}
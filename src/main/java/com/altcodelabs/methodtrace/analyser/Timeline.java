@@ -0,0 +1,368 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * A unified timeline of the invocations of one or more traces, across all their threads.
+ * Each thread of each trace is a lane, holding its invocations in the order of entry; the lanes are
+ * merged (k-way, by the time of entry) into a single global order of the invocations, listed by
+ * {@link #getEventTableModel()}. Painting looks up the invocations of each lane by a binary search instead.
+ * @author ani
+ */
+public class Timeline {
+
+    /**
+     * The invocations of a thread of a trace.
+     */
+    public static class Lane {
+
+        public final int trace;
+        public final int thread;
+        public final int[] invocations;
+
+        /**
+         * Creates a lane.
+         * @param trace the index of the trace
+         * @param thread the index of the thread in the store of the trace
+         * @param invocations the indices of the invocations of the thread, in the order of entry
+         */
+        Lane(int trace, int thread, int[] invocations) {
+            this.trace = trace;
+            this.thread = thread;
+            this.invocations = invocations;
+        }
+    }
+
+    private final String[] names;
+    private final InvocationStore[] stores;
+    private final Lane[] lanes;
+    private final int[] eventLane, eventInvocation;
+    private final long[] endTimes;
+    private long startTime, endTime;
+
+    /**
+     * Creates the timeline of the traces, merging the invocations of all their threads by the time of entry.
+     * @param names the names of the traces
+     * @param stores the invocations of the traces
+     */
+    public Timeline(String[] names, InvocationStore[] stores) {
+        long start = System.nanoTime();
+        this.names = names;
+        this.stores = stores;
+        endTimes = new long[stores.length];
+        startTime = Long.MAX_VALUE;
+        endTime = Long.MIN_VALUE;
+
+        //Splits the invocations of each trace by thread; within a thread, entries are in the order of time.
+        int laneCount = 0, total = 0;
+        for (InvocationStore store : stores) {
+            laneCount += store.getThreadCount();
+            total += store.size();
+        }
+        lanes = new Lane[laneCount];
+        int lane = 0;
+        for (int t = 0; t < stores.length; t++) {
+            InvocationStore store = stores[t];
+            int[] counts = new int[store.getThreadCount()];
+            for (int i = 0; i < store.size(); i++) {
+                counts[store.getThread(i)]++;
+                startTime = Math.min(startTime, store.getTimeIn(i));
+                endTimes[t] = Math.max(endTimes[t], Math.max(store.getTimeIn(i), store.getTimeOut(i)));
+            }
+            int[][] invocations = new int[counts.length][];
+            for (int thread = 0; thread < counts.length; thread++) {
+                invocations[thread] = new int[counts[thread]];
+                counts[thread] = 0;
+            }
+            for (int i = 0; i < store.size(); i++) {
+                int thread = store.getThread(i);
+                invocations[thread][counts[thread]++] = i;
+            }
+            for (int thread = 0; thread < invocations.length; thread++) {
+                lanes[lane++] = new Lane(t, thread, invocations[thread]);
+            }
+            if (store.size() > 0) {
+                endTime = Math.max(endTime, endTimes[t]);
+            }
+        }
+        if (total == 0) {
+            startTime = endTime = 0;
+        }
+
+        //k-way merge of the lanes, using a binary heap of lanes ordered by the time of their next invocation.
+        eventLane = new int[total];
+        eventInvocation = new int[total];
+        int[] heap = new int[lanes.length], cursor = new int[lanes.length];
+        int heapSize = 0;
+        for (int l = 0; l < lanes.length; l++) {
+            if (lanes[l].invocations.length > 0) {
+                heap[heapSize++] = l;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, cursor);
+        }
+        for (int e = 0; e < total; e++) {
+            int l = heap[0];
+            eventLane[e] = l;
+            eventInvocation[e] = lanes[l].invocations[cursor[l]++];
+            if (cursor[l] == lanes[l].invocations.length) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, cursor);
+        }
+        Metrics.getMetrics().time("timeline.merge", start);
+    }
+
+    /**
+     * @param l the lane
+     * @param cursor the positions of the next invocations of the lanes
+     * @return the time of entry of the next invocation of the lane
+     */
+    private long headTime(int l, int[] cursor) {
+        return stores[lanes[l].trace].getTimeIn(lanes[l].invocations[cursor[l]]);
+    }
+
+    /**
+     * Restores the heap order from a position downwards.
+     * @param heap the lanes in the heap
+     * @param heapSize the number of lanes in the heap
+     * @param i the position
+     * @param cursor the positions of the next invocations of the lanes
+     */
+    private void siftDown(int[] heap, int heapSize, int i, int[] cursor) {
+        while (true) {
+            int smallest = i, left = 2 * i + 1, right = left + 1;
+            if (left < heapSize && headTime(heap[left], cursor) < headTime(heap[smallest], cursor)) {
+                smallest = left;
+            }
+            if (right < heapSize && headTime(heap[right], cursor) < headTime(heap[smallest], cursor)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = temp;
+            i = smallest;
+        }
+    }
+
+    /**
+     * @return the lanes of the timeline, grouped by trace
+     */
+    public Lane[] getLanes() {
+        return lanes;
+    }
+
+    /**
+     * @param trace the index of the trace
+     * @return the name of the trace
+     */
+    public String getName(int trace) {
+        return names[trace];
+    }
+
+    /**
+     * @param trace the index of the trace
+     * @return the invocations of the trace
+     */
+    public InvocationStore getStore(int trace) {
+        return stores[trace];
+    }
+
+    /**
+     * @return the number of invocations in the timeline
+     */
+    public int size() {
+        return eventLane.length;
+    }
+
+    /**
+     * @param event the position of the invocation in the global order
+     * @return the lane of the invocation
+     */
+    public int getEventLane(int event) {
+        return eventLane[event];
+    }
+
+    /**
+     * @param event the position of the invocation in the global order
+     * @return the index of the invocation in the store of its trace
+     */
+    public int getEventInvocation(int event) {
+        return eventInvocation[event];
+    }
+
+    /**
+     * Lists the invocations of all the lanes in the global order, by the time of entry. The rows are
+     * computed when shown, so the listing costs nothing beyond the merged order.
+     * @return the table, a row per invocation
+     */
+    public TableModel getEventTableModel() {
+        return new AbstractTableModel() {
+
+            private final String[] columnNames = {"Time In", "Trace", "Thread", "Stack Level", "Method", "Time Out"};
+
+            @Override
+            public int getRowCount() {
+                return eventLane.length;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column == 0 || column == 2 || column == 5 ? Long.class : column == 3 ? Integer.class : String.class;
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                Lane lane = lanes[eventLane[row]];
+                InvocationStore store = stores[lane.trace];
+                int invocation = eventInvocation[row];
+                switch (column) {
+                    case 0:
+                        return store.getTimeIn(invocation);
+                    case 1:
+                        return names[lane.trace];
+                    case 2:
+                        return store.getThreadId(lane.thread);
+                    case 3:
+                        return store.getStackLevel(invocation);
+                    case 4:
+                        return store.getClassName(invocation) + "." + store.getMethodNameOf(invocation);
+                    default:
+                        return getTimeOut(lane, invocation);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the earliest time of entry
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the latest time of entry or exit
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Gets the time of exit of an invocation, taking the end of its trace for an incomplete invocation.
+     * @param lane the lane of the invocation
+     * @param invocation the index of the invocation in the store of its trace
+     * @return the time of exit
+     */
+    public long getTimeOut(Lane lane, int invocation) {
+        InvocationStore store = stores[lane.trace];
+        return store.isCompleted(invocation) ? store.getTimeOut(invocation) : endTimes[lane.trace];
+    }
+
+    /**
+     * Gets the position, in a lane, of the first invocation entered at or after a time.
+     * @param lane the lane
+     * @param time the time
+     * @return the position in the invocations of the lane
+     */
+    public int indexOf(Lane lane, long time) {
+        InvocationStore store = stores[lane.trace];
+        int low = 0, high = lane.invocations.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (store.getTimeIn(lane.invocations[mid]) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the innermost invocation of a lane running at a time.
+     * @param lane the lane
+     * @param time the time
+     * @return the index of the invocation in the store of its trace, -1 if none
+     */
+    public int getActive(Lane lane, long time) {
+        int position = indexOf(lane, time + 1) - 1;
+        if (position < 0) {
+            return -1;
+        }
+        InvocationStore store = stores[lane.trace];
+        for (int i = lane.invocations[position]; i >= 0; i = store.getParent(i)) {
+            if (getTimeOut(lane, i) >= time) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets what every thread of every trace was running at a time.
+     * @param time the time
+     * @return for each lane, the index of its innermost running invocation, -1 if none
+     */
+    public int[] getActive(long time) {
+        int[] active = new int[lanes.length];
+        for (int l = 0; l < lanes.length; l++) {
+            active[l] = getActive(lanes[l], time);
+        }
+        return active;
+    }
+
+    /**
+     * Creates a table of what every thread of every trace was running at a time, with the call path
+     * of the innermost running invocation of each lane.
+     * @param time the time
+     * @return the table, a row per lane running an invocation
+     */
+    public DefaultTableModel getActiveTableModel(long time) {
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Trace", "Thread", "Method", "Entered", "Call Path"}, 0);
+        int[] active = getActive(time);
+        for (int l = 0; l < lanes.length; l++) {
+            if (active[l] >= 0) {
+                InvocationStore store = stores[lanes[l].trace];
+                StringBuilder path = new StringBuilder();
+                for (int i = store.getParent(active[l]); i >= 0; i = store.getParent(i)) {
+                    path.insert(0, store.getClassName(i) + "." + store.getMethodNameOf(i) + (path.length() > 0 ? " > " : ""));
+                }
+                model.addRow(new Object[]{names[lanes[l].trace], store.getThreadId(lanes[l].thread),
+                    store.getClassName(active[l]) + "." + store.getMethodNameOf(active[l]), store.getTimeIn(active[l]), path.toString()});
+            }
+        }
+        return model;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows a {@link Timeline} as a Gantt chart, with a row per lane and the time along the x-axis.
+ * Only the lanes and the time range in view are painted; invocations narrower than a pixel are
+ * painted as a single pixel, skipping the rest of the invocations entered within that pixel.
+ * Scrolling the mouse wheel with Ctrl pressed zooms the time axis.
+ * @author ani
+ */
+public class TimelinePanel extends JComponent implements Scrollable {
+
+    static final int LANE_HEIGHT = 20, MAX_INSET_DEPTH = 8, MAX_WIDTH = 1 << 24;
+
+    private static final Color STRIPE_COLOR = new Color(0xf4f4f4);
+
+    private static final Color[] DEPTH_COLORS = new Color[MAX_INSET_DEPTH + 1];
+
+    static {
+        for (int i = 0; i < DEPTH_COLORS.length; i++) {
+            DEPTH_COLORS[i] = Color.getHSBColor(0.55f + i * 0.05f, 0.45f, 0.95f - i * 0.04f);
+        }
+    }
+
+    private final Timeline timeline;
+    private double timePerPixel;
+
+    /**
+     * Creates the chart, zoomed to fit the whole timeline in about 2000 pixels.
+     * @param timeline the timeline to show
+     */
+    public TimelinePanel(Timeline timeline) {
+        this.timeline = timeline;
+        timePerPixel = Math.max(1e-3, (timeline.getEndTime() - timeline.getStartTime()) / 2000.0);
+        setToolTipText("");
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        addMouseWheelListener((MouseWheelEvent e) -> {
+            if (e.isControlDown()) {
+                zoom(Math.pow(1.25, e.getWheelRotation()), e.getX());
+            } else {
+                JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (scrollPane != null) {
+                    scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scrollPane));
+                }
+            }
+        });
+    }
+
+    /**
+     * Zooms the time axis, keeping the time at x in place.
+     * @param factor the factor by which the time per pixel is multiplied
+     * @param x the x coordinate kept in place
+     */
+    public void zoom(double factor, int x) {
+        long time = getTimeAt(x);
+        double span = timeline.getEndTime() - timeline.getStartTime();
+        timePerPixel = Math.max(Math.max(1e-3, span / MAX_WIDTH), timePerPixel * factor);
+        revalidate();
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            Rectangle view = viewport.getViewRect();
+            int newX = getX(time);
+            viewport.setViewPosition(new java.awt.Point(Math.max(0, newX - (x - view.x)), view.y));
+        }
+        repaint();
+    }
+
+    /**
+     * @param time the time
+     * @return the x coordinate of the time
+     */
+    private int getX(long time) {
+        return (int) Math.max(-1, Math.min(Integer.MAX_VALUE / 2, (time - timeline.getStartTime()) / timePerPixel));
+    }
+
+    /**
+     * @param x the x coordinate
+     * @return the time at the x coordinate
+     */
+    public long getTimeAt(int x) {
+        return timeline.getStartTime() + (long) Math.ceil(x * timePerPixel);
+    }
+
+    /**
+     * @param y the y coordinate
+     * @return the lane at the y coordinate, null if none
+     */
+    public Timeline.Lane getLaneAt(int y) {
+        int lane = y / LANE_HEIGHT;
+        return lane >= 0 && lane < timeline.getLanes().length ? timeline.getLanes()[lane] : null;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        double span = timeline.getEndTime() - timeline.getStartTime();
+        return new Dimension((int) Math.min(MAX_WIDTH, span / timePerPixel) + 1, timeline.getLanes().length * LANE_HEIGHT);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(getSize());
+        }
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        Timeline.Lane[] lanes = timeline.getLanes();
+        int first = Math.max(0, clip.y / LANE_HEIGHT), last = Math.min(lanes.length - 1, (clip.y + clip.height) / LANE_HEIGHT);
+        long startTime = getTimeAt(clip.x), endTime = getTimeAt(clip.x + clip.width);
+        for (int l = first; l <= last; l++) {
+            int y = l * LANE_HEIGHT;
+            if (l % 2 == 1) {
+                g.setColor(STRIPE_COLOR);
+                g.fillRect(clip.x, y, clip.width, LANE_HEIGHT);
+            }
+            paintLane(g, lanes[l], y, startTime, endTime, clip);
+        }
+        Metrics.getMetrics().time("render.timeline", start);
+    }
+
+    /**
+     * Paints the invocations of a lane within a time range.
+     * @param g the graphics
+     * @param lane the lane
+     * @param y the y coordinate of the lane
+     * @param startTime the start of the time range
+     * @param endTime the end of the time range
+     * @param clip the area to paint
+     */
+    private void paintLane(Graphics g, Timeline.Lane lane, int y, long startTime, long endTime, Rectangle clip) {
+        InvocationStore store = timeline.getStore(lane.trace);
+        int position = timeline.indexOf(lane, startTime);
+        paintRunning(g, lane, position, startTime, y, clip);
+        while (position < lane.invocations.length) {
+            int invocation = lane.invocations[position];
+            long timeIn = store.getTimeIn(invocation);
+            if (timeIn > endTime) {
+                break;
+            }
+            int x1 = getX(timeIn), x2 = getX(timeline.getTimeOut(lane, invocation));
+            paintInvocation(g, store, invocation, x1, x2, y, clip);
+            if (x2 <= x1) {
+                //Skips the invocations entered within the same pixel, painting the ones still running after it.
+                long next = getTimeAt(x1 + 1);
+                int nextPosition = timeline.indexOf(lane, next);
+                if (nextPosition > position + 1) {
+                    position = nextPosition;
+                    paintRunning(g, lane, position, next, y, clip);
+                    continue;
+                }
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Paints the invocations entered before a position of a lane and still running at a time.
+     * @param g the graphics
+     * @param lane the lane
+     * @param position the position in the invocations of the lane
+     * @param time the time
+     * @param y the y coordinate of the lane
+     * @param clip the area to paint
+     */
+    private void paintRunning(Graphics g, Timeline.Lane lane, int position, long time, int y, Rectangle clip) {
+        if (position > 0) {
+            InvocationStore store = timeline.getStore(lane.trace);
+            for (int i = lane.invocations[position - 1]; i >= 0; i = store.getParent(i)) {
+                long timeOut = timeline.getTimeOut(lane, i);
+                if (timeOut >= time) {
+                    paintInvocation(g, store, i, getX(store.getTimeIn(i)), getX(timeOut), y, clip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints an invocation as a bar, inset by its stack level.
+     * @param g the graphics
+     * @param store the invocations of the trace
+     * @param invocation the index of the invocation
+     * @param x1 the x coordinate of the entry
+     * @param x2 the x coordinate of the exit
+     * @param y the y coordinate of the lane
+     * @param clip the area to paint
+     */
+    private void paintInvocation(Graphics g, InvocationStore store, int invocation, int x1, int x2, int y, Rectangle clip) {
+        int depth = Math.min(MAX_INSET_DEPTH, store.getStackLevel(invocation));
+        int left = Math.max(x1, clip.x - 1), right = Math.min(Math.max(x2, x1 + 1), clip.x + clip.width + 1);
+        g.setColor(store.hasException(invocation) ? Color.RED : !store.isCompleted(invocation) ? Color.GRAY : DEPTH_COLORS[depth]);
+        g.fillRect(left, y + 1 + depth, right - left, LANE_HEIGHT - 2 - 2 * depth);
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        Timeline.Lane lane = getLaneAt(event.getY());
+        if (lane == null) {
+            return null;
+        }
+        InvocationStore store = timeline.getStore(lane.trace);
+        long time = getTimeAt(event.getX());
+        String header = timeline.getName(lane.trace) + " - thread " + store.getThreadId(lane.thread) + " at " + time;
+        int invocation = timeline.getActive(lane, time);
+        if (invocation < 0) {
+            return header;
+        }
+        return "<html>" + header + "<br/>" + (store.getClassName(invocation) + " -> " + store.getMethodNameOf(invocation))
+                .replaceAll("[<]", "&lt;").replaceAll("[>]", "&gt;")
+                + "<br/>" + store.getTimeIn(invocation) + " - " + (store.isCompleted(invocation) ? store.getTimeOut(invocation) : "incomplete");
+    }
+
+    /**
+     * @return a component showing the names of the lanes, to be used as the row header
+     */
+    public JComponent createLaneHeader() {
+        return new JComponent() {
+            @Override
+            public Dimension getPreferredSize() {
+                return new Dimension(220, TimelinePanel.this.getPreferredSize().height);
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                Rectangle clip = g.getClipBounds();
+                g.setColor(Color.WHITE);
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+                g.setColor(Color.BLACK);
+                Timeline.Lane[] lanes = timeline.getLanes();
+                int first = Math.max(0, clip.y / LANE_HEIGHT), last = Math.min(lanes.length - 1, (clip.y + clip.height) / LANE_HEIGHT);
+                for (int l = first; l <= last; l++) {
+                    g.drawString(timeline.getName(lanes[l].trace) + " [" + timeline.getStore(lanes[l].trace).getThreadId(lanes[l].thread) + "]",
+                            4, l * LANE_HEIGHT + LANE_HEIGHT - 6);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension size = getPreferredSize();
+        return new Dimension(Math.min(size.width, 1000), Math.min(size.height, 600));
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? LANE_HEIGHT : 20;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
@@ -0,0 +1,776 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Exports an imported trace into a compact archive to be shared, and imports it back into a trace
+ * database, without the binary trace files it was imported from.
+ * <p>
+ * An archive starts with the magic "MTRA" and its version, followed by sections, each a tag byte,
+ * the length of its content and the length of its compressed content, followed by the content
+ * compressed with DEFLATE. The sections are the info, the threads, the tracepoints, the frames and
+ * stack traces and the method summaries of the trace, in blocks of at most {@link #BLOCK_ROWS} rows,
+ * ending with an empty {@link #END} section. The strings repeated across the tracepoints, such as
+ * their components, groups and types, are interned: each block of tracepoints is preceded by a block
+ * of the strings it adds to the symbol table, and refers to them by id. The formatted parameters and
+ * the parameters, which hardly repeat, are written in place, as are the formatted times. Numbers are
+ * written 7 bits per byte, and the raw times of the tracepoints as the difference from the previous one.
+ * <p>
+ * The archive is written and read a block at a time, so neither side holds more than a block, beside
+ * the symbol table of the few repeated strings. A file and a stream, such as the standard input, are
+ * both read as they come, through buffers reused from section to section. Sections of unknown tags are
+ * skipped, so that an archive of a newer version adding sections can still be read, unless its version
+ * says otherwise.
+ * @author ani
+ */
+public class TraceArchive {
+
+    /**
+     * The file extension of the archives.
+     */
+    public static final String EXTENSION = ".mtra";
+
+    /**
+     * The version of the archives written, and the latest version read.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'M', 'T', 'R', 'A'};
+
+    /**
+     * The tags of the sections.
+     */
+    static final int END = 0, INFO = 1, THREAD = 2, SYMBOLS = 3, POINT = 4, FRAME = 5, STACK = 6, SUMMARY = 7;
+
+    /**
+     * The maximum number of rows of a section.
+     */
+    static final int BLOCK_ROWS = 1 << 16;
+
+    /**
+     * The length of the tag and the lengths preceding the content of a section.
+     */
+    private static final int SECTION_HEADER = 9;
+
+    /**
+     * The columns of the tracepoints written as ids in the symbol table, and those written in place.
+     */
+    private static final int[] SYMBOL_COLUMNS = {2, 3, 4}, STRING_COLUMNS = {5, 6, 7};
+
+    /**
+     * Checks if a file is an archive, from its magic.
+     * @param file the file
+     * @return true if the file starts with the magic of an archive
+     */
+    public static boolean isArchive(File file) {
+        byte[] magic = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the tables of a trace database to an archive.
+     * @param con the connection to the trace database
+     * @param out the stream to write the archive to, not closed
+     * @throws IOException on error writing the archive
+     * @throws SQLException on error reading the trace database
+     */
+    public static void write(Connection con, OutputStream out) throws IOException, SQLException {
+        try (Writer writer = new Writer(out); Statement stmt = con.createStatement()) {
+            write(con, stmt, writer);
+        }
+    }
+
+    /**
+     * Writes the tables of a trace database as sections.
+     * @param con the connection to the trace database
+     * @param stmt a statement of the trace database
+     * @param writer the writer of the archive
+     * @throws IOException on error writing the archive
+     * @throws SQLException on error reading the trace database
+     */
+    private static void write(Connection con, Statement stmt, Writer writer) throws IOException, SQLException {
+        ResultSet rs = stmt.executeQuery("SELECT key,value FROM info;");
+        while (rs.next()) {
+            writer.writeString(rs.getString(1));
+            writer.writeString(rs.getString(2));
+            writer.endRow(INFO);
+        }
+        writer.flush(INFO);
+        rs = stmt.executeQuery("SELECT id,native_id,name FROM thread;");
+        while (rs.next()) {
+            writer.writeSigned(rs.getLong(1));
+            writer.writeSigned(rs.getLong(2));
+            writer.writeString(rs.getString(3));
+            writer.endRow(THREAD);
+        }
+        writer.flush(THREAD);
+        SymbolTable symbols = new SymbolTable();
+        long time = 0;
+        rs = stmt.executeQuery("SELECT tp_id,component,container_component,debug_info,formatted_parameters,parameters,"
+                + "formatted_time,t_time,groups,type,thread_id FROM point ORDER BY rowid;");
+        while (rs.next()) {
+            writer.writeSigned(rs.getLong(1));
+            for (int column : SYMBOL_COLUMNS) {
+                writer.writeSymbol(symbols, rs.getString(column));
+            }
+            for (int column : STRING_COLUMNS) {
+                writer.writeString(rs.getString(column));
+            }
+            String rawTime = rs.getString(8);
+            Long value = parseLong(rawTime);
+            if (value != null) {
+                writer.writeLong(0);
+                writer.writeSigned(value - time);
+                time = value;
+            } else {
+                writer.writeLong(1);
+                writer.writeString(rawTime);
+            }
+            writer.writeSymbol(symbols, rs.getString(9));
+            writer.writeSymbol(symbols, rs.getString(10));
+            writer.writeSigned(rs.getLong(11));
+            if (writer.endRow(POINT)) {
+                writer.writeSymbols(symbols);
+                writer.flush(POINT);
+            }
+        }
+        writer.writeSymbols(symbols);
+        writer.flush(POINT);
+        rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='stack';");
+        if (rs.next()) {
+            rs = stmt.executeQuery("SELECT text FROM frame ORDER BY id;");
+            while (rs.next()) {
+                writer.writeString(rs.getString(1));
+                writer.endRow(FRAME);
+            }
+            writer.flush(FRAME);
+            rs = stmt.executeQuery("SELECT parent,frame FROM stack ORDER BY id;");
+            while (rs.next()) {
+                writer.writeLong(rs.getLong(1) + 1);
+                writer.writeLong(rs.getLong(2));
+                writer.endRow(STACK);
+            }
+            writer.flush(STACK);
+        }
+        //Built from the tracepoints for traces imported before the method summary
+        for (Map.Entry<String, MethodSummary.Stats> method : MethodSummary.read(con).getMethods().entrySet()) {
+            MethodSummary.Stats stats = method.getValue();
+            writer.writeString(method.getKey());
+            writer.writeLong(stats.invocations);
+            writer.writeLong(stats.errors);
+            writer.writeSigned(stats.totalTime);
+            writer.writeSigned(stats.selfTime);
+            byte[] histogram = stats.histogram.toBytes();
+            writer.writeBytes(histogram);
+            writer.endRow(SUMMARY);
+        }
+        writer.flush(SUMMARY);
+        writer.section(END);
+        writer.out.flush();
+    }
+
+    /**
+     * @param text a number
+     * @return the number, null if text is not a number written as Long.toString would
+     */
+    private static Long parseLong(String text) {
+        try {
+            long value = Long.parseLong(text);
+            return Long.toString(value).equals(text) ? value : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads an archive file into a new trace database, a section at a time.
+     * @param file the archive
+     * @param con the connection to the trace database, with its tables created and auto-commit disabled
+     * @param name the name of the trace
+     * @param methods the methods whose tracepoints are kept, null for all
+     * @param progress the progress of the import
+     * @throws IOException if the archive could not be read or is not valid
+     * @throws SQLException on error inserting into the trace database
+     */
+    public static void read(File file, Connection con, String name, MethodSpec methods, ImportProgress progress) throws IOException, SQLException {
+        progress.totalBytes = file.length();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            read(in, con, name, methods, progress);
+        }
+    }
+
+    /**
+     * Reads an archive from a stream into a new trace database, a section at a time.
+     * @param in the stream of the archive, not closed
+     * @param con the connection to the trace database, with its tables created and auto-commit disabled
+     * @param name the name of the trace
+     * @param methods the methods whose tracepoints are kept, null for all
+     * @param progress the progress of the import
+     * @throws IOException if the archive could not be read or is not valid
+     * @throws SQLException on error inserting into the trace database
+     */
+    public static void read(InputStream in, Connection con, String name, MethodSpec methods, ImportProgress progress) throws IOException, SQLException {
+        DataInputStream data = new DataInputStream(in);
+        try (Reader reader = new Reader(con, name, methods, progress)) {
+            byte[] header = new byte[MAGIC.length + 4];
+            data.readFully(header);
+            reader.readHeader(ByteBuffer.wrap(header));
+            byte[] compressed = new byte[0];
+            for (;;) {
+                int tag = data.readUnsignedByte(), length = data.readInt(), compressedLength = data.readInt();
+                if (compressedLength < 0) {
+                    throw new IOException("The archive has a section of " + compressedLength + " bytes");
+                }
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[Math.max(compressedLength, compressed.length * 2)];
+                }
+                data.readFully(compressed, 0, compressedLength);
+                if (!reader.readSection(tag, length, compressed, compressedLength)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the sections of an archive, buffering the rows of a section until flushed.
+     */
+    private static class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream row = new ByteArrayOutputStream(), section = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater();
+        private final byte[] buffer = new byte[1 << 16];
+        private int rows, symbolsWritten;
+
+        /**
+         * Writes the header of an archive.
+         * @param out the stream to write to
+         * @throws IOException on error writing
+         */
+        Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        /**
+         * @param value a non-negative number
+         */
+        void writeLong(long value) {
+            LatencyHistogram.writeLong(row, value);
+        }
+
+        /**
+         * @param value a number, written zig-zag encoded so that small negative numbers stay short
+         */
+        void writeSigned(long value) {
+            LatencyHistogram.writeLong(row, (value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * @param text a string, written as its length and its UTF-8 bytes
+         */
+        void writeString(String text) {
+            writeBytes((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * @param bytes bytes, written as their length and themselves
+         */
+        void writeBytes(byte[] bytes) {
+            writeLong(bytes.length);
+            row.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * @param symbols the symbol table of the tracepoints
+         * @param text a string, written as its id in the symbol table
+         */
+        void writeSymbol(SymbolTable symbols, String text) {
+            writeLong(symbols.intern(text == null ? "" : text));
+        }
+
+        /**
+         * Ends a row of a section, writing the section once it has {@link #BLOCK_ROWS} rows.
+         * The rows of tracepoints are left to be written by the caller, after the symbols they refer to.
+         * @param tag the tag of the section
+         * @return true if the section is full
+         * @throws IOException on error writing
+         */
+        boolean endRow(int tag) throws IOException {
+            row.writeTo(section);
+            row.reset();
+            if (++rows < BLOCK_ROWS) {
+                return false;
+            }
+            if (tag != POINT) {
+                flush(tag);
+            }
+            return true;
+        }
+
+        /**
+         * Writes the symbols added to the table since last written, as a section of their own.
+         * @param symbols the symbol table of the tracepoints
+         * @throws IOException on error writing
+         */
+        void writeSymbols(SymbolTable symbols) throws IOException {
+            if (symbolsWritten == symbols.size()) {
+                return;
+            }
+            ByteArrayOutputStream points = new ByteArrayOutputStream(section.size());
+            section.writeTo(points);
+            section.reset();
+            int pointRows = rows;
+            rows = 0;
+            for (; symbolsWritten < symbols.size(); symbolsWritten++) {
+                writeString(symbols.get(symbolsWritten));
+                row.writeTo(section);
+                row.reset();
+                rows++;
+            }
+            flush(SYMBOLS);
+            points.writeTo(section);
+            rows = pointRows;
+        }
+
+        /**
+         * Writes the rows buffered as a section, if any.
+         * @param tag the tag of the section
+         * @throws IOException on error writing
+         */
+        void flush(int tag) throws IOException {
+            if (rows > 0) {
+                section(tag);
+            }
+        }
+
+        /**
+         * Writes the rows buffered as a section, preceded by their count, and clears them.
+         * @param tag the tag of the section
+         * @throws IOException on error writing
+         */
+        void section(int tag) throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream(section.size() + 5);
+            LatencyHistogram.writeLong(content, rows);
+            section.writeTo(content);
+            byte[] bytes = content.toByteArray();
+            deflater.reset();
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            out.writeByte(tag);
+            out.writeInt(bytes.length);
+            out.writeInt(compressed.size());
+            compressed.writeTo(out);
+            section.reset();
+            rows = 0;
+            Metrics.getMetrics().count("export.bytes", SECTION_HEADER + compressed.size());
+        }
+
+        /**
+         * Releases the memory of the compressor.
+         */
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Reads the sections of an archive into a trace database.
+     */
+    private static class Reader implements AutoCloseable {
+
+        private final Connection con;
+        private final String name;
+        private final MethodSpec methods;
+        private final ImportProgress progress;
+        private final Inflater inflater = new Inflater();
+        private final ArrayList<String> symbols = new ArrayList<>();
+        private final MethodSummary summary = new MethodSummary();
+        private PreparedStatement insertPoint;
+        private long time, threadId;
+        private boolean skipped, firstPoint = true;
+        private byte[] content = new byte[0];
+        private final int[] position = {0};
+
+        /**
+         * @param con the connection to the trace database
+         * @param name the name of the trace
+         * @param methods the methods whose tracepoints are kept, null for all
+         * @param progress the progress of the import
+         */
+        Reader(Connection con, String name, MethodSpec methods, ImportProgress progress) {
+            this.con = con;
+            this.name = name;
+            this.methods = methods;
+            this.progress = progress;
+        }
+
+        /**
+         * Checks the magic and the version of an archive.
+         * @param header the header
+         * @throws IOException if the header is not of an archive of a version read
+         */
+        void readHeader(ByteBuffer header) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a trace archive");
+            }
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("The trace archive is of version " + version + ", only versions up to " + VERSION + " can be read");
+            }
+            progress.bytesDecoded += MAGIC.length + 4;
+            progress.setStage(ImportProgress.DECODING);
+        }
+
+        /**
+         * Reads a section into the trace database.
+         * @param tag the tag of the section
+         * @param length the length of its content
+         * @param compressed the buffer holding its compressed content
+         * @param compressedLength the length of its compressed content
+         * @return false if the section is the end of the archive
+         * @throws IOException if the section is not valid
+         * @throws SQLException on error inserting into the trace database
+         */
+        boolean readSection(int tag, int length, byte[] compressed, int compressedLength) throws IOException, SQLException {
+            progress.bytesDecoded += SECTION_HEADER + compressedLength;
+            if (tag == END) {
+                finish();
+                return false;
+            }
+            if (length < 0) {
+                throw new IOException("The trace archive has a section of " + length + " bytes");
+            }
+            if (content.length < length) {
+                content = new byte[Math.max(length, content.length * 2)];
+            }
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                int inflated = 0;
+                while (inflated < length && !inflater.finished()) {
+                    int count = inflater.inflate(content, inflated, length - inflated);
+                    if (count == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != length) {
+                    throw new IOException("The trace archive has a section of " + inflated + " bytes instead of " + length);
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("The trace archive has a corrupt section", ex);
+            }
+            position[0] = 0;
+            long rows = readLong();
+            try {
+                switch (tag) {
+                    case INFO:
+                        readInfo(rows);
+                        break;
+                    case THREAD:
+                        readThreads(rows);
+                        break;
+                    case SYMBOLS:
+                        for (long i = 0; i < rows; i++) {
+                            symbols.add(readString());
+                        }
+                        break;
+                    case POINT:
+                        readPoints(rows);
+                        break;
+                    case FRAME:
+                        readFrames(rows);
+                        break;
+                    case STACK:
+                        readStacks(rows);
+                        break;
+                    case SUMMARY:
+                        readSummary(rows);
+                        break;
+                    default:
+                    //Added by a later version
+                }
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException ex) {
+                throw new IOException("The trace archive has a corrupt section", ex);
+            }
+            progress.report(false);
+            return true;
+        }
+
+        /**
+         * Inserts the info, naming the trace by its new name.
+         * @param rows the number of rows
+         * @throws SQLException on error inserting
+         */
+        void readInfo(long rows) throws SQLException {
+            try (PreparedStatement insert = con.prepareStatement("INSERT INTO info VALUES(?,?);")) {
+                for (long i = 0; i < rows; i++) {
+                    String key = readString(), value = readString();
+                    insert.setString(1, key);
+                    insert.setString(2, key.equals("name") ? name : value);
+                    insert.addBatch();
+                }
+                if (methods != null) {
+                    insert.setString(1, "methods");
+                    insert.setString(2, TextCodec.sanitize(methods.toString()));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        /**
+         * Inserts the threads.
+         * @param rows the number of rows
+         * @throws SQLException on error inserting
+         */
+        void readThreads(long rows) throws SQLException {
+            try (PreparedStatement insert = con.prepareStatement("INSERT INTO thread VALUES(?,?,?);")) {
+                for (long i = 0; i < rows; i++) {
+                    insert.setLong(1, readSigned());
+                    insert.setLong(2, readSigned());
+                    insert.setString(3, readString());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                progress.threads += rows;
+            }
+        }
+
+        /**
+         * Inserts the tracepoints, leaving out the method tracepoints of the methods not kept, along with
+         * their stack traces, and summarizing the method tracepoints kept if some are left out.
+         * @param rows the number of rows
+         * @throws SQLException on error inserting
+         */
+        void readPoints(long rows) throws SQLException {
+            if (insertPoint == null) {
+                insertPoint = con.prepareStatement("INSERT INTO point VALUES(?,?,?,?,?,?,?,?,?,?,?);");
+            }
+            long start = System.nanoTime();
+            int batched = 0;
+            for (long i = 0; i < rows; i++) {
+                long tpId = readSigned();
+                String component = readSymbol(), containerComponent = readSymbol(), debugInfo = readSymbol(),
+                        formattedParameters = readString(), parameters = readString(),
+                        formattedTime = readString(), rawTime;
+                if (readLong() == 0) {
+                    time += readSigned();
+                    rawTime = Long.toString(time);
+                } else {
+                    rawTime = readString();
+                }
+                String groups = readSymbol(), type = readSymbol();
+                long thread = readSigned();
+                if (firstPoint || thread != threadId) {
+                    firstPoint = false;
+                    threadId = thread;
+                    progress.threadsDecoded++;
+                }
+                if ("j9trc_aux".equals(component)) {
+                    if (skipped) {
+                        continue;
+                    }
+                } else {
+                    skipped = methods != null && "mt".equals(component) && !methods.matchesKey(parameters);
+                    if (skipped) {
+                        Metrics.getMetrics().count("import.filtered", 1);
+                        continue;
+                    }
+                    if (methods != null && "mt".equals(component)) {
+                        summary.add(thread, type, parameters, formattedParameters, time);
+                    }
+                }
+                insertPoint.setLong(1, tpId);
+                insertPoint.setString(2, component);
+                insertPoint.setString(3, containerComponent);
+                insertPoint.setString(4, debugInfo);
+                insertPoint.setString(5, formattedParameters);
+                insertPoint.setString(6, parameters);
+                insertPoint.setString(7, formattedTime);
+                insertPoint.setString(8, rawTime);
+                insertPoint.setString(9, groups);
+                insertPoint.setString(10, type);
+                insertPoint.setLong(11, thread);
+                insertPoint.addBatch();
+                progress.points++;
+                if (++batched == TraceManager.IMPORT_BATCH_SIZE) {
+                    insertPoint.executeBatch();
+                    progress.rowsInserted += batched;
+                    batched = 0;
+                }
+            }
+            insertPoint.executeBatch();
+            progress.rowsInserted += batched;
+            Metrics.getMetrics().time("import.insert", start);
+        }
+
+        /**
+         * Inserts the frames of the stack traces.
+         * @param rows the number of rows
+         * @throws SQLException on error inserting
+         */
+        void readFrames(long rows) throws SQLException {
+            try (Statement stmt = con.createStatement(); PreparedStatement insert = con.prepareStatement("INSERT INTO frame VALUES(?,?);")) {
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM frame;");
+                long id = rs.next() ? rs.getLong(1) : 0;
+                for (long i = 0; i < rows; i++) {
+                    insert.setLong(1, id++);
+                    insert.setString(2, readString());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        /**
+         * Inserts the nodes of the stack traces.
+         * @param rows the number of rows
+         * @throws SQLException on error inserting
+         */
+        void readStacks(long rows) throws SQLException {
+            try (Statement stmt = con.createStatement(); PreparedStatement insert = con.prepareStatement("INSERT INTO stack VALUES(?,?,?);")) {
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM stack;");
+                long id = rs.next() ? rs.getLong(1) : 0;
+                for (long i = 0; i < rows; i++) {
+                    insert.setLong(1, id++);
+                    insert.setLong(2, readLong() - 1);
+                    insert.setLong(3, readLong());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        /**
+         * Reads the method summaries, unless they are built from the tracepoints kept.
+         * @param rows the number of rows
+         */
+        void readSummary(long rows) {
+            if (methods != null) {
+                return;
+            }
+            for (long i = 0; i < rows; i++) {
+                MethodSummary.Stats stats = new MethodSummary.Stats();
+                String key = readString();
+                stats.invocations = readLong();
+                stats.errors = readLong();
+                stats.totalTime = readSigned();
+                stats.selfTime = readSigned();
+                stats.histogram = LatencyHistogram.fromBytes(readBytes());
+                summary.getMethods().put(key, stats);
+            }
+        }
+
+        /**
+         * Inserts the method summaries, at the end of the archive.
+         * @throws SQLException on error inserting
+         */
+        void finish() throws SQLException {
+            summary.write(con);
+        }
+
+        /**
+         * Releases the statement inserting the tracepoints and the memory of the decompressor.
+         * @throws SQLException on error closing the statement
+         */
+        @Override
+        public void close() throws SQLException {
+            inflater.end();
+            if (insertPoint != null) {
+                insertPoint.close();
+            }
+        }
+
+        /**
+         * @return the next non-negative number of the content
+         */
+        long readLong() {
+            return LatencyHistogram.readLong(content, position);
+        }
+
+        /**
+         * @return the next zig-zag encoded number of the content
+         */
+        long readSigned() {
+            long value = readLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * @return the next bytes of the content
+         */
+        byte[] readBytes() {
+            int length = (int) readLong();
+            byte[] bytes = Arrays.copyOfRange(content, position[0], position[0] + length);
+            position[0] += bytes.length;
+            return bytes;
+        }
+
+        /**
+         * @return the next string of the content
+         */
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the symbol of the next id of the content
+         */
+        String readSymbol() {
+            return symbols.get((int) readLong());
+        }
+    }
+}
@@ -51,6 +51,8 @@ public class TraceContextFactory {
     private TraceContext context;
         long recordsInData = 0;
         long totalBytes = 0;
+    private final HashMap<TraceThread, Long> threadBytes = new HashMap<>();
+    private ImportProgress progress = new ImportProgress(null);
 
     /**
      * Creates an instance of this class.
@@ -85,6 +87,22 @@ public class TraceContextFactory {
         return totalBytes;
     }
     
+    /**
+     * @param thread a thread of the loaded trace
+     * @return the number of bytes of the records of the thread
+     */
+    public long getThreadBytes(TraceThread thread) {
+        return threadBytes.getOrDefault(thread, 0L);
+    }
+
+    /**
+     * Sets the progress to be updated while reading the records.
+     * @param progress the progress of the import
+     */
+    public void setProgress(ImportProgress progress) {
+        this.progress = progress;
+    }
+
     /**
      * 
      * @return processes all the trace files passed in the constructor
@@ -103,6 +121,7 @@ public class TraceContextFactory {
         PrintStream error = System.err;
         PrintStream warning = System.out;
         PrintStream debug = System.out;
+        long start = System.nanoTime();
 
         try {
             while (true) {
@@ -143,6 +162,7 @@ public class TraceContextFactory {
             return false;
         }
 
+        Metrics.getMetrics().time("import.header", start);
         context.setDebugLevel(0);
 
         /* set up the thread filters */
@@ -171,6 +191,14 @@ public class TraceContextFactory {
         /* read in the blocks from the various files and sort them */
 
         /* loop over the generational files and add the blocks to the context */
+        start = System.nanoTime();
+        for (Object file : inputFiles) {
+            try {
+                progress.totalBytes += ((RandomAccessFile) file).length() - context.getHeaderSize();
+            } catch (IOException ex) {
+                Logger.getLogger(TraceContextFactory.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
         for (int i = 0; i < inputFiles.size(); i++) {
             try {
                 long offset = context.getHeaderSize();
@@ -186,6 +214,7 @@ public class TraceContextFactory {
                     try {
                         TraceThread thread = context.addData(traceFile, offset);
                         indentMap.put(thread, "");
+                        threadBytes.merge(thread, recordSize, Long::sum);
                     } catch (IllegalArgumentException e) {
                         context.error(context, "Bad block of trace data in input file at offset " + offset + ": " + e.getMessage());
                     }
@@ -193,13 +222,18 @@ public class TraceContextFactory {
                     offset += recordSize;
                     totalBytes += recordSize;
                     recordsInData++;
+                    progress.bytesRead = totalBytes;
+                    progress.records = recordsInData;
+                    progress.report(false);
                 }
                 
             } catch (IOException ex) {
                 Logger.getLogger(TraceContextFactory.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-
+        Metrics.getMetrics().time("import.blocks", start);
+        Metrics.getMetrics().count("import.records", recordsInData);
+        Metrics.getMetrics().count("import.bytes", totalBytes);
 
         return true;
     }
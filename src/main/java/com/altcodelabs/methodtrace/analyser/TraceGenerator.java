@@ -0,0 +1,365 @@
+/*
+ * Copyright 2019 Aniruddha Sarkar.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.altcodelabs.methodtrace.analyser;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates synthetic method traces, with a configurable call-tree shape, for
+ * reproducible load testing of the import, tree, stats and diff operations.
+ * The traces are written as '.fmt.db' files, in the same layout as produced by
+ * {@link TraceManager#importTrace(java.util.List, java.lang.String)}.
+ * <p>
+ * Binary '.trc' files are not generated: their records are laid out and decoded by the IBM trace
+ * formatter ({@link TraceContextFactory}) against the J9TraceFormat.dat of the JVM, neither of which
+ * is part of this project, so a writer could not be kept in step with the decoder. The synthetic
+ * databases therefore exercise the operations on an imported trace, not the decoding and inserting
+ * stages of the import itself.
+ * @author ani
+ */
+public class TraceGenerator {
+
+    static final int TP_ENTRY = 4, TP_EXIT = 10, TP_EXCEPTION_EXIT = 12, TP_STACK_FRAME = 1;
+
+    /**
+     * The shape of the trace to be generated.
+     */
+    public static class Shape {
+
+        public int threads = 4;
+        public int depth = 8;
+        public int fanOut = 4;
+        public int methods = 500;
+        public double recursionRate = 0.05;
+        public double exceptionRate = 0.01;
+        public double stackTraceRate = 0.02;
+        public int stackTraceDepth = 12;
+        public long size = 64L * 1024 * 1024;
+        public long seed = 42;
+    }
+
+    private final Shape shape;
+    private final Random random;
+    private final String[] classNames, methodNames, signatures;
+    private PreparedStatement insertPoint;
+    private int pendingRows;
+    private long time, threadBytes;
+    private int[] callPath;
+    private StackTable stacks;
+    private MethodSummary summary;
+
+    /**
+     * Creates a generator of traces of the given shape.
+     * @param shape the shape of the traces to be generated
+     */
+    public TraceGenerator(Shape shape) {
+        this.shape = shape;
+        random = new Random(shape.seed);
+        classNames = new String[shape.methods];
+        methodNames = new String[shape.methods];
+        signatures = new String[shape.methods];
+        for (int i = 0; i < shape.methods; i++) {
+            classNames[i] = "com/altcodelabs/synthetic/p" + (i % 16) + "/Class" + (i / 8);
+            methodNames[i] = i % 8 == 0 ? "<init>" : "method" + (i % 8);
+            signatures[i] = i % 3 == 0 ? "()V" : i % 3 == 1 ? "(I)I" : "(Ljava/lang/String;)Ljava/lang/Object;";
+        }
+    }
+
+    /**
+     * Generates a trace database.
+     * @param output the '.fmt.db' file to be written, overwritten if it exists
+     * @param name the name of the trace
+     * @return true if successful
+     */
+    public boolean generate(File output, String name) {
+        if (output.exists()) {
+            output.delete();
+        }
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:" + output.getAbsolutePath())) {
+            con.setAutoCommit(false);
+            try (Statement stmt = con.createStatement()) {
+                TraceManager.createTables(stmt);
+                stmt.addBatch("INSERT INTO info VALUES('name','" + name + "');");
+                stmt.addBatch("INSERT INTO info VALUES('summary','Synthetic trace: " + shape.threads + " threads, depth " + shape.depth
+                        + ", fan-out " + shape.fanOut + ", " + shape.methods + " methods, seed " + shape.seed + "');");
+                stmt.addBatch("INSERT INTO info VALUES('vm','synthetic');");
+                for (int thread = 1; thread <= shape.threads; thread++) {
+                    stmt.addBatch("INSERT INTO thread VALUES(" + thread + "," + (1000 + thread) + ",'synthetic-" + thread + "');");
+                }
+                stmt.executeBatch();
+            }
+            insertPoint = con.prepareStatement("INSERT INTO point VALUES(?,?,?,?,?,?,?,?,?,?,?);");
+            callPath = new int[shape.depth + 1];
+            stacks = new StackTable();
+            summary = new MethodSummary();
+            long budget = shape.size / shape.threads;
+            for (int thread = 1; thread <= shape.threads; thread++) {
+                time = 1000000L * thread;
+                threadBytes = 0;
+                while (threadBytes < budget) {
+                    generateInvocation(thread, random.nextInt(shape.methods), 0);
+                }
+                System.out.println("Generated thread " + thread + " of " + shape.threads);
+            }
+            insertPoint.executeBatch();
+            insertPoint.close();
+            try (Statement stmt = con.createStatement()) {
+                stacks.addBatch(stmt);
+                stmt.addBatch("INSERT INTO info VALUES('stacks','" + stacks.getFrameCount() + " frames, " + stacks.size() + " nodes');");
+                TraceManager.createIndices(stmt);
+                stmt.executeBatch();
+            }
+            summary.write(con);
+            con.commit();
+            return true;
+        } catch (SQLException ex) {
+            Logger.getLogger(TraceGenerator.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Recursively generates an invocation, along with its callees.
+     * @param thread the id of the thread making the invocation
+     * @param method the index of the invoked method
+     * @param level the stack level of the invocation
+     * @throws SQLException on error inserting the tracepoints
+     */
+    private void generateInvocation(int thread, int method, int level) throws SQLException {
+        callPath[level] = method;
+        String parameters = classNames[method] + "||" + methodNames[method] + "||" + signatures[method],
+                signature = classNames[method] + "." + methodNames[method] + signatures[method];
+        addPoint(TP_ENTRY, "mt", ">" + signature + " bytecode method, this = 0x" + Integer.toHexString(method),
+                parameters, "Entry", thread);
+        if (random.nextDouble() < shape.stackTraceRate) {
+            ArrayList<String> stackTrace = new ArrayList<>();
+            for (int i = 0; i < shape.stackTraceDepth; i++) {
+                String frame = i <= level
+                        ? classNames[callPath[level - i]].replace('/', '.') + "." + methodNames[callPath[level - i]]
+                        + " (Class" + (callPath[level - i] / 8) + ".java:" + (10 + callPath[level - i] % 90) + ")"
+                        : "java.lang.Thread.run (Thread.java:" + (800 + i) + ")";
+                stackTrace.add("[" + (i + 1) + "] " + frame);
+            }
+            addPoint(TP_STACK_FRAME, "j9trc_aux", "", Integer.toString(stacks.intern(stackTrace)), TraceManager.STACK_TYPE, thread);
+        }
+        if (level < shape.depth) {
+            int callees = random.nextInt(shape.fanOut + 1);
+            for (int i = 0; i < callees; i++) {
+                generateInvocation(thread, random.nextDouble() < shape.recursionRate ? method : random.nextInt(shape.methods), level + 1);
+            }
+        }
+        boolean exception = random.nextDouble() < shape.exceptionRate;
+        addPoint(exception ? TP_EXCEPTION_EXIT : TP_EXIT, "mt", (exception ? "*" : "<") + signature + " bytecode method",
+                parameters, "Exit", thread);
+    }
+
+    /**
+     * Adds a tracepoint to the batch of inserts.
+     * @param tpId the tracepoint id
+     * @param component the component of the tracepoint
+     * @param formattedParameters the formatted parameters of the tracepoint
+     * @param parameters the '||' separated parameters of the tracepoint
+     * @param type the type of the tracepoint
+     * @param thread the id of the thread
+     * @throws SQLException on error adding to the batch
+     */
+    private void addPoint(int tpId, String component, String formattedParameters, String parameters, String type, int thread) throws SQLException {
+        time += 1 + random.nextInt(5);
+        String formattedTime = String.format("%02d:%02d:%02d.%09d", time / 3600000000000L % 24, time / 60000000000L % 60,
+                time / 1000000000L % 60, time % 1000000000L);
+        insertPoint.setInt(1, tpId);
+        insertPoint.setString(2, component);
+        insertPoint.setString(3, "");
+        insertPoint.setString(4, "");
+        insertPoint.setString(5, formattedParameters);
+        insertPoint.setString(6, parameters);
+        insertPoint.setString(7, formattedTime);
+        insertPoint.setString(8, Long.toString(time));
+        insertPoint.setString(9, "");
+        insertPoint.setString(10, type);
+        insertPoint.setInt(11, thread);
+        insertPoint.addBatch();
+        if ("mt".equals(component)) {
+            summary.add(thread, type, parameters, formattedParameters, time);
+        }
+        threadBytes += 48 + component.length() + formattedParameters.length() + parameters.length() + formattedTime.length() + type.length();
+        if (++pendingRows % 10000 == 0) {
+            insertPoint.executeBatch();
+        }
+    }
+
+    /**
+     * Parses a size such as 512m or 2g into number of bytes.
+     * @param size the size, optionally suffixed with k, m or g
+     * @return the number of bytes
+     */
+    static long parseSize(String size) {
+        String s = size.trim().toLowerCase();
+        long unit = 1;
+        if (s.endsWith("k")) {
+            unit = 1024;
+        } else if (s.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return (long) (Double.parseDouble(s) * unit);
+    }
+
+    /**
+     * Parses a whole number option, printing an error if it is not one.
+     * @param arg the option, to be printed
+     * @param value the value of the option
+     * @param min the smallest value allowed, 0 or more
+     * @return the number, -1 if not a whole number of at least min
+     */
+    private static int parseNumber(String arg, String value, int min) {
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number >= min) {
+                return number;
+            }
+        } catch (NumberFormatException ex) {
+        }
+        System.err.println("Not a whole number of at least " + min + ": " + arg);
+        return -1;
+    }
+
+    /**
+     * Parses a rate option, printing an error if it is not one.
+     * @param arg the option, to be printed
+     * @param value the value of the option
+     * @return the rate, NaN if not a number from 0 to 1
+     */
+    private static double parseRate(String arg, String value) {
+        try {
+            double rate = Double.parseDouble(value.trim());
+            if (rate >= 0 && rate <= 1) {
+                return rate;
+            }
+        } catch (NumberFormatException ex) {
+        }
+        System.err.println("Not a rate from 0 to 1: " + arg);
+        return Double.NaN;
+    }
+
+    /**
+     * Generates a trace from the command line. The arguments are of the form
+     * --option=value, with the options out, name, threads, depth, fanout,
+     * methods, recursion, exceptions, stacktraces, stackdepth, size and seed.
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        Shape shape = new Shape();
+        String out = null, name = null;
+        for (String arg : args) {
+            int loc = arg.indexOf('=');
+            if (!arg.startsWith("--") || loc < 0) {
+                System.err.println("Unrecognised argument: " + arg);
+                return;
+            }
+            String key = arg.substring(2, loc), value = arg.substring(loc + 1);
+            switch (key) {
+                case "out":
+                    out = value;
+                    break;
+                case "name":
+                    name = value;
+                    break;
+                case "threads":
+                    shape.threads = parseNumber(arg, value, 1);
+                    break;
+                case "depth":
+                    shape.depth = parseNumber(arg, value, 0);
+                    break;
+                case "fanout":
+                    shape.fanOut = parseNumber(arg, value, 0);
+                    break;
+                case "methods":
+                    shape.methods = parseNumber(arg, value, 1);
+                    break;
+                case "recursion":
+                    shape.recursionRate = parseRate(arg, value);
+                    break;
+                case "exceptions":
+                    shape.exceptionRate = parseRate(arg, value);
+                    break;
+                case "stacktraces":
+                    shape.stackTraceRate = parseRate(arg, value);
+                    break;
+                case "stackdepth":
+                    shape.stackTraceDepth = parseNumber(arg, value, 1);
+                    break;
+                case "size":
+                    try {
+                        shape.size = parseSize(value);
+                    } catch (NumberFormatException ex) {
+                        shape.size = 0;
+                    }
+                    if (shape.size <= 0) {
+                        System.err.println("Not a positive size: " + arg);
+                        return;
+                    }
+                    break;
+                case "seed":
+                    try {
+                        shape.seed = Long.parseLong(value);
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Not a whole number: " + arg);
+                        return;
+                    }
+                    break;
+                default:
+                    System.err.println("Unrecognised option: " + key);
+                    return;
+            }
+        }
+        //An invalid value has been reported as parsed
+        if (shape.threads < 0 || shape.depth < 0 || shape.fanOut < 0 || shape.methods < 0 || shape.stackTraceDepth < 0
+                || Double.isNaN(shape.recursionRate) || Double.isNaN(shape.exceptionRate) || Double.isNaN(shape.stackTraceRate)) {
+            return;
+        }
+        if (name == null) {
+            name = "synthetic-" + shape.seed;
+        }
+        File output;
+        if (out != null) {
+            output = new File(out);
+        } else if (Preferences.getPreferences().loadPreferences()) {
+            output = new File(Preferences.getPreferences().config.get("ws") + File.separator + name + ".fmt.db");
+        } else {
+            System.err.println("Specify the output file with --out, or set the workspace in preferences.");
+            return;
+        }
+        if (new TraceGenerator(shape).generate(output, name)) {
+            System.out.println("Generated: " + output.getAbsolutePath());
+        } else {
+            System.out.println("Not generated: " + output.getAbsolutePath());
+        }
+    }
+}
@@ -18,18 +18,34 @@ package com.altcodelabs.methodtrace.analyser;
 import com.ibm.jvm.trace.format.api.TraceContext;
 import com.ibm.jvm.trace.format.api.TracePointImpl;
 import com.ibm.jvm.trace.format.api.TraceThread;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -44,12 +60,14 @@ import javax.swing.table.DefaultTableModel;
 public class TraceManager {
 
     HashMap<String, Connection> connects;
+    private final ForkJoinPool reconstructionPool;
 
     /**
      * Creates an instance of the trace file.
      */
     public TraceManager() {
         connects = new HashMap();
+        reconstructionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
     
     /**
@@ -148,9 +166,54 @@ public class TraceManager {
      * @return true if successful
      */
     public boolean importTrace(List<File> input_files, String name) {
+        return importTrace(input_files, name, null);
+    }
+
+    /**
+     * The number of rows handed over from the decoding thread at a time, and the number of such batches queued.
+     */
+    static final int IMPORT_BATCH_SIZE = 10000, IMPORT_QUEUE_CAPACITY = 8;
+
+    /**
+     * The maximum number of characters of the strings interned while decoding a trace, kept off the heap.
+     */
+    static final int IMPORT_SYMBOL_CHARS = 16 << 20;
+
+    /**
+     * Import a trace file, by converting it to a database file, into the workspace directory.
+     * The tracepoints are decoded on a separate thread, and handed over in batches through a bounded
+     * queue to be inserted, so that decoding and inserting overlap.
+     * @param input_files The files to import
+     * @param name the name of the trace
+     * @param listener the listener to report the progress of the import to, null if none
+     * @return true if successful
+     */
+    public boolean importTrace(List<File> input_files, String name, ImportProgress.Listener listener) {
+        return importTrace(input_files, name, listener, null);
+    }
+
+    /**
+     * Import a trace file, by converting it to a database file, into the workspace directory, keeping only
+     * the method tracepoints of the methods matched by a specification, along with their stack traces.
+     * The tracepoints are decoded on a separate thread, and handed over in batches through a bounded
+     * queue to be inserted, so that decoding and inserting overlap. A single {@link TraceArchive} is
+     * imported as with {@link #importArchive}.
+     * @param input_files The files to import
+     * @param name the name of the trace
+     * @param listener the listener to report the progress of the import to, null if none
+     * @param methods the methods to keep, null for all
+     * @return true if successful
+     */
+    public boolean importTrace(List<File> input_files, String name, ImportProgress.Listener listener, MethodSpec methods) {
+        if (input_files.size() == 1 && TraceArchive.isArchive(input_files.get(0))) {
+            return importArchive(input_files.get(0), name, listener, methods);
+        }
+        long importStart = System.nanoTime();
+        ImportProgress progress = new ImportProgress(listener);
         try {
 
             TraceContextFactory factory = new TraceContextFactory(input_files);
+            factory.setProgress(progress);
             if (factory.loadFile()) {
                 File output = new File(Preferences.getPreferences().config.get("ws") + File.separator + name + ".fmt.db");
                 if (output.exists()) {
@@ -162,74 +225,66 @@ public class TraceManager {
 
                     TraceContext context = factory.getContext();
 
-                    stmt.addBatch("CREATE TABLE info(key VARCHAR(16),value TEXT);");
+                    createTables(stmt);
 
                     stmt.addBatch("INSERT INTO info VALUES('name','" + name + "');");
                     stmt.addBatch("INSERT INTO info VALUES('summary','" + context.summary() + "');");
                     stmt.addBatch("INSERT INTO info VALUES('vm','" + context.getVmVersionString() + "');");
+                    if (methods != null) {
+                        stmt.addBatch("INSERT INTO info VALUES('methods','" + sanitize(methods.toString()) + "');");
+                    }
+                    if (!executeBatch(stmt)) {
+                        return false;
+                    }
 
-                    stmt.addBatch("CREATE TABLE thread("
-                            + "id INTEGER,"
-                            + "native_id INTEGER,"
-                            + "name TEXT"
-                            + ");");
-
-                    stmt.addBatch("CREATE TABLE point("
-                            + "tp_id INTEGER,"
-                            + "component TEXT,"
-                            + "container_component TEXT, "
-                            + "debug_info TEXT,"
-                            + "formatted_parameters TEXT,"
-                            + "parameters TEXT,"
-                            + "formatted_time TEXT,"
-                            + "t_time TEXT,"
-                            + "groups TEXT,"
-                            + "type TEXT,"
-                            + "thread_id INTEGER"
-                            + ");");
-
-                    context.getThreads().forEachRemaining((object) -> {
-                        try {
-                            TraceThread thread = (TraceThread) object;
-                            stmt.addBatch("INSERT INTO thread VALUES("
-                                    + thread.getThreadID() + ","
-                                    + thread.getNativeThreadID() + ",'"
-                                    + sanitize(thread.getThreadName()) + "');");
-                            thread.getIterator().forEachRemaining((object2) -> {
-                                try {
-                                    //Add threads to SQLITE
-                                    TracePointImpl point = (TracePointImpl) object2;
-
-                                    stmt.addBatch("INSERT INTO point VALUES("
-                                            + point.getTPID() + ",'"
-                                            + sanitize(point.getComponentName()) + "','"
-                                            + sanitize(point.getContainerComponentName()) + "','"
-                                            + sanitize(point.getDebugInfo()) + "','"
-                                            + sanitize(point.getFormattedParameters()) + "','"
-                                            + sanitize(spaceSeparate("||", 3, point.getParameters())) + "','"
-                                            + sanitize(point.getFormattedTime()) + "','"
-                                            + sanitize(point.getRawTime().toString()) + "','"
-                                            + sanitize(spaceSeparate(",", (Object[]) point.getGroups())) + "','"
-                                            + sanitize(point.getType()) + "','"
-                                            + thread.getThreadID()
-                                            + "');");
-                                } catch (SQLException ex) {
-                                    Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                            });
-                        } catch (SQLException ex) {
-                            Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                    });
-                    int[] res = stmt.executeBatch();
-                    for (Integer i : res) {
-                        if (i == Statement.EXECUTE_FAILED) {
-                            return false;
+                    ArrayList<TraceThread> threads = new ArrayList<>();
+                    context.getThreads().forEachRemaining((object) -> threads.add((TraceThread) object));
+                    progress.threads = threads.size();
+                    progress.setStage(ImportProgress.DECODING);
+                    StackTable stacks = new StackTable();
+                    MethodSummary summary = new MethodSummary();
+                    BlockingQueue<PointBatch> queue = new ArrayBlockingQueue<>(IMPORT_QUEUE_CAPACITY);
+                    AtomicBoolean failed = new AtomicBoolean();
+                    Thread decoder = new Thread(() -> decode(factory, threads, stacks, summary, methods, queue, progress, failed), "import-decoder");
+                    decoder.start();
+                    try (PreparedStatement insertThread = con.prepareStatement("INSERT INTO thread VALUES(?,?,?);");
+                            PreparedStatement insertPoint = con.prepareStatement("INSERT INTO point VALUES(?,?,?,?,?,?,?,?,?,?,?);")) {
+                        //The texts of the symbols of each table of the decoding thread, by id
+                        ArrayList<String> symbolTexts = new ArrayList<>(), formattedTexts = new ArrayList<>();
+                        for (PointBatch batch = queue.take(); batch != PointBatch.END; batch = queue.take()) {
+                            long start = System.nanoTime();
+                            symbolTexts.addAll(batch.symbols);
+                            formattedTexts.addAll(batch.formattedSymbols);
+                            if (!insert(batch, symbolTexts, formattedTexts, insertThread, insertPoint)) {
+                                return false;
+                            }
+                            Metrics.getMetrics().time("import.insert", start);
+                            progress.rowsInserted += batch.threads.size() + batch.size;
+                            progress.report(false);
                         }
+                    } finally {
+                        //Stops the decoding thread, if still waiting to hand over a batch
+                        decoder.interrupt();
+                    }
+                    decoder.join();
+                    if (failed.get()) {
+                        return false;
                     }
+                    stacks.addBatch(stmt);
+                    stmt.addBatch("INSERT INTO info VALUES('stacks','" + stacks.getFrameCount() + " frames, " + stacks.size() + " nodes');");
+                    createIndices(stmt);
+                    if (!executeBatch(stmt)) {
+                        return false;
+                    }
+                    summary.write(con);
+                    progress.setStage(ImportProgress.COMMITTING);
+                    long start = System.nanoTime();
                     con.commit();
-                    connects.put(name, con);
-                    return true;
+                    Metrics.getMetrics().time("import.commit", start);
+                    progress.setStage(ImportProgress.DONE);
+                    Metrics.getMetrics().time("import", importStart);
+                    //Reopened, as this connection is closed on return
+                    return loadTrace(name, output.getAbsolutePath());
 
                 } catch (SQLException ex) {
 
@@ -246,63 +301,564 @@ public class TraceManager {
         }
     }
 
+    /**
+     * Reads an archive into a new trace database.
+     */
+    private interface ArchiveReader {
+
+        /**
+         * @param con the connection to the trace database, with its tables created and auto-commit disabled
+         * @param progress the progress of the import
+         * @throws IOException if the archive could not be read or is not valid
+         * @throws SQLException on error inserting into the trace database
+         */
+        void read(Connection con, ImportProgress progress) throws IOException, SQLException;
+    }
+
+    /**
+     * Imports an archive exported by {@link #exportTrace}, into a database file in the workspace directory,
+     * keeping only the method tracepoints of the methods matched by a specification, along with their
+     * stack traces. The archive is read a section at a time.
+     * @param archive the archive
+     * @param name the name of the trace
+     * @param listener the listener to report the progress of the import to, null if none
+     * @param methods the methods to keep, null for all
+     * @return true if successful
+     */
+    public boolean importArchive(File archive, String name, ImportProgress.Listener listener, MethodSpec methods) {
+        return importArchive(name, listener, (con, progress) -> TraceArchive.read(archive, con, name, methods, progress));
+    }
+
+    /**
+     * Imports an archive exported by {@link #exportTrace} from a stream, as it comes, into a database
+     * file in the workspace directory.
+     * @param in the stream of the archive, not closed
+     * @param name the name of the trace
+     * @param listener the listener to report the progress of the import to, null if none
+     * @param methods the methods to keep, null for all
+     * @return true if successful
+     */
+    public boolean importArchive(InputStream in, String name, ImportProgress.Listener listener, MethodSpec methods) {
+        return importArchive(name, listener, (con, progress) -> TraceArchive.read(in, con, name, methods, progress));
+    }
+
+    /**
+     * Imports an archive into a database file in the workspace directory.
+     * @param name the name of the trace
+     * @param listener the listener to report the progress of the import to, null if none
+     * @param reader the reader of the archive
+     * @return true if successful
+     */
+    private boolean importArchive(String name, ImportProgress.Listener listener, ArchiveReader reader) {
+        long importStart = System.nanoTime();
+        ImportProgress progress = new ImportProgress(listener);
+        File output = new File(Preferences.getPreferences().config.get("ws") + File.separator + name + ".fmt.db");
+        if (output.exists()) {
+            output.delete();
+        }
+        try (Connection con = DriverManager.getConnection("jdbc:sqlite:" + output.getAbsolutePath())) {
+            con.setAutoCommit(false);
+            Statement stmt = con.createStatement();
+            createTables(stmt);
+            if (!executeBatch(stmt)) {
+                return false;
+            }
+            reader.read(con, progress);
+            createIndices(stmt);
+            if (!executeBatch(stmt)) {
+                return false;
+            }
+            progress.setStage(ImportProgress.COMMITTING);
+            long start = System.nanoTime();
+            con.commit();
+            Metrics.getMetrics().time("import.commit", start);
+            progress.setStage(ImportProgress.DONE);
+            Metrics.getMetrics().time("import", importStart);
+            //Reopened, as this connection is closed on return
+            return loadTrace(name, output.getAbsolutePath());
+        } catch (IOException | SQLException ex) {
+            Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Exports a trace into a {@link TraceArchive}, holding its tracepoints, stack traces and method summary,
+     * to be imported elsewhere without the binary trace files.
+     * @param name the name of the trace
+     * @param archive the file to write the archive to
+     * @return true if successful, false if no trace, with the name, found
+     */
+    public boolean exportTrace(String name, File archive) {
+        if (!connects.containsKey(name)) {
+            return false;
+        }
+        try (OutputStream out = new FileOutputStream(archive)) {
+            return exportTrace(name, out);
+        } catch (IOException ex) {
+            Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Exports a trace into a {@link TraceArchive} written to a stream, a section at a time.
+     * @param name the name of the trace
+     * @param out the stream to write the archive to, not closed
+     * @return true if successful, false if no trace, with the name, found
+     */
+    public boolean exportTrace(String name, OutputStream out) {
+        if (connects.containsKey(name)) {
+            long start = System.nanoTime();
+            try {
+                BufferedOutputStream buffered = new BufferedOutputStream(out);
+                TraceArchive.write(connects.get(name), buffered);
+                buffered.flush();
+                Metrics.getMetrics().time("export", start);
+                return true;
+            } catch (IOException | SQLException ex) {
+                Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes the batch of stmt.
+     * @param stmt the statement
+     * @return true if all the statements of the batch were executed
+     * @throws SQLException on error executing the batch
+     */
+    private boolean executeBatch(Statement stmt) throws SQLException {
+        for (int i : stmt.executeBatch()) {
+            if (i == Statement.EXECUTE_FAILED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A batch of rows handed over from the decoding thread to the inserting thread. The strings repeated
+     * across the tracepoints are held as the ids of their symbols in the {@link OffHeapSymbolTable}s of the
+     * decoding thread, and the texts of the symbols first met since the previous batch are handed over
+     * with it, so the inserting thread never touches the tables. A string that could not be interned, as
+     * its table is full, is held in the batch itself, as the negative id -1, -2... of its texts.
+     */
+    private static class PointBatch {
+
+        /**
+         * The batch handed over last, once the decoding thread has stopped.
+         */
+        static final PointBatch END = new PointBatch();
+
+        /**
+         * The id, native id and name of each thread.
+         */
+        final List<Object[]> threads = new ArrayList<>();
+        /**
+         * The texts of the symbols first met in the batch, of the table of the repeated strings and of the
+         * table of the formatted parameters.
+         */
+        final List<String> symbols = new ArrayList<>(), formattedSymbols = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        final int[] tpIds, components, containerComponents, debugInfos, formattedParameters, parameters, groups, types;
+        final String[] formattedTimes, rawTimes;
+        final long[] threadIds;
+        int size;
+
+        /**
+         * Creates an empty batch. It is handed over once it holds {@link #IMPORT_BATCH_SIZE} points, checked
+         * before each tracepoint is decoded, which adds at most its own point and that of the stack trace before it.
+         */
+        PointBatch() {
+            int capacity = IMPORT_BATCH_SIZE + 2;
+            tpIds = new int[capacity];
+            components = new int[capacity];
+            containerComponents = new int[capacity];
+            debugInfos = new int[capacity];
+            formattedParameters = new int[capacity];
+            parameters = new int[capacity];
+            groups = new int[capacity];
+            types = new int[capacity];
+            formattedTimes = new String[capacity];
+            rawTimes = new String[capacity];
+            threadIds = new long[capacity];
+        }
+
+        /**
+         * Gets the id of a string in a table, keeping it in the batch if the table is full.
+         * @param table the table
+         * @param key the characters of the string, null for an empty string
+         * @return the id of the string in the table, or the negative id of the transformed string in the batch
+         */
+        int intern(OffHeapSymbolTable table, CharSequence key) {
+            int id = table.intern(key != null ? key : "");
+            if (id >= 0) {
+                return id;
+            }
+            texts.add(table.lookup(key));
+            return -texts.size();
+        }
+
+        /**
+         * @param table the table the id is of
+         * @param id the id of a string, as returned by {@link #intern}
+         * @return the transformed string
+         */
+        String text(OffHeapSymbolTable table, int id) {
+            return id >= 0 ? table.get(id) : texts.get(-id - 1);
+        }
+
+        /**
+         * @param symbolTexts the texts of the symbols of the table the id is of, by id
+         * @param id the id of a string, as returned by {@link #intern}
+         * @return the transformed string
+         */
+        String text(List<String> symbolTexts, int id) {
+            return id >= 0 ? symbolTexts.get(id) : texts.get(-id - 1);
+        }
+    }
+
+    /**
+     * Inserts the rows of a batch into the trace database.
+     * @param batch the batch
+     * @param symbolTexts the texts of the repeated strings, by id
+     * @param formattedTexts the texts of the formatted parameters, by id
+     * @param insertThread the statement inserting a thread
+     * @param insertPoint the statement inserting a tracepoint
+     * @return true if all the rows were inserted
+     * @throws SQLException on error inserting the rows
+     */
+    private boolean insert(PointBatch batch, List<String> symbolTexts, List<String> formattedTexts, PreparedStatement insertThread,
+            PreparedStatement insertPoint) throws SQLException {
+        if (!batch.threads.isEmpty()) {
+            for (Object[] thread : batch.threads) {
+                insertThread.setLong(1, (Long) thread[0]);
+                insertThread.setLong(2, (Long) thread[1]);
+                insertThread.setString(3, (String) thread[2]);
+                insertThread.addBatch();
+            }
+            if (!executeBatch(insertThread)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < batch.size; i++) {
+            insertPoint.setInt(1, batch.tpIds[i]);
+            insertPoint.setString(2, batch.text(symbolTexts, batch.components[i]));
+            insertPoint.setString(3, batch.text(symbolTexts, batch.containerComponents[i]));
+            insertPoint.setString(4, batch.text(symbolTexts, batch.debugInfos[i]));
+            insertPoint.setString(5, batch.text(formattedTexts, batch.formattedParameters[i]));
+            insertPoint.setString(6, batch.text(symbolTexts, batch.parameters[i]));
+            insertPoint.setString(7, batch.formattedTimes[i]);
+            insertPoint.setString(8, batch.rawTimes[i]);
+            insertPoint.setString(9, batch.text(symbolTexts, batch.groups[i]));
+            insertPoint.setString(10, batch.text(symbolTexts, batch.types[i]));
+            insertPoint.setLong(11, batch.threadIds[i]);
+            insertPoint.addBatch();
+        }
+        return executeBatch(insertPoint);
+    }
+
+    /**
+     * Decodes the tracepoints of the threads into rows, handing them over to the queue in batches,
+     * followed by {@link PointBatch#END}.
+     * The strings repeated across the tracepoints are interned as ids and sanitized once per distinct
+     * string, through an {@link OffHeapSymbolTable}; the formatted parameters, which repeat far less as
+     * they hold the addresses of the objects, through a table of their own, so they cannot crowd the
+     * other strings out.
+     * @param factory the factory of the loaded trace
+     * @param threads the threads of the trace
+     * @param stacks the table to add the stack traces to
+     * @param summary the summary to add the method tracepoints to
+     * @param methods the methods whose tracepoints are kept, null for all
+     * @param queue the queue to hand the batches over to
+     * @param progress the progress of the import
+     * @param failed set if decoding failed
+     */
+    private void decode(TraceContextFactory factory, List<TraceThread> threads, StackTable stacks, MethodSummary summary, MethodSpec methods,
+            BlockingQueue<PointBatch> queue, ImportProgress progress, AtomicBoolean failed) {
+        long start = System.nanoTime();
+        OffHeapSymbolTable symbols = new OffHeapSymbolTable(this::sanitize, IMPORT_SYMBOL_CHARS);
+        OffHeapSymbolTable formatted = new OffHeapSymbolTable(this::sanitize, IMPORT_SYMBOL_CHARS);
+        StringBuilder key = new StringBuilder();
+        //The number of symbols of each table handed over
+        int[] handedOver = new int[2];
+        //Set once every tracepoint is decoded, and once the inserting thread has stopped taking batches
+        boolean decoded = false, stopped = false;
+        try {
+            PointBatch batch = new PointBatch();
+            for (TraceThread thread : threads) {
+                batch.threads.add(new Object[]{thread.getThreadID(), thread.getNativeThreadID(), sanitize(thread.getThreadName())});
+                //The frames of a stack trace are stored once in the stack table, and referred by a single point
+                ArrayList<String> stackTrace = new ArrayList<>();
+                TracePointImpl stackPoint = null;
+                //Set after a method tracepoint left out, to leave out its stack trace too
+                boolean skipped = false;
+                Iterator points = thread.getIterator();
+                while (points.hasNext()) {
+                    if (batch.size >= IMPORT_BATCH_SIZE) {
+                        handOver(batch, symbols, formatted, handedOver, queue);
+                        batch = new PointBatch();
+                    }
+                    TracePointImpl point = (TracePointImpl) points.next();
+                    if ("j9trc_aux".equals(point.getComponentName())) {
+                        if (skipped) {
+                            continue;
+                        }
+                        if (stackTrace.isEmpty()) {
+                            stackPoint = point;
+                        }
+                        stackTrace.add(symbols.lookup(point.getFormattedParameters()));
+                        continue;
+                    }
+                    if (!stackTrace.isEmpty()) {
+                        addStackPoint(batch, symbols, formatted, key, stackPoint, stacks.intern(stackTrace), thread, progress);
+                        stackTrace.clear();
+                    }
+                    int parameters = batch.intern(symbols, TextCodec.join(key, "||", 3, point.getParameters()));
+                    String parametersText = batch.text(symbols, parameters);
+                    skipped = methods != null && "mt".equals(point.getComponentName()) && !methods.matchesKey(parametersText);
+                    if (skipped) {
+                        Metrics.getMetrics().count("import.filtered", 1);
+                        continue;
+                    }
+                    int formattedParameters = batch.intern(formatted, point.getFormattedParameters()), type = batch.intern(symbols, point.getType());
+                    addPoint(batch, symbols, key, point, formattedParameters, parameters, type, thread, progress);
+                    if ("mt".equals(point.getComponentName())) {
+                        summary.add(thread.getThreadID(), batch.text(symbols, type), parametersText, batch.text(formatted, formattedParameters),
+                                point.getRawTime().longValue());
+                    }
+                }
+                if (!stackTrace.isEmpty()) {
+                    addStackPoint(batch, symbols, formatted, key, stackPoint, stacks.intern(stackTrace), thread, progress);
+                }
+                progress.threadsDecoded++;
+                progress.bytesDecoded += factory.getThreadBytes(thread);
+                progress.report(false);
+                if (batch.size >= IMPORT_BATCH_SIZE) {
+                    handOver(batch, symbols, formatted, handedOver, queue);
+                    batch = new PointBatch();
+                }
+            }
+            if (batch.size > 0 || !batch.threads.isEmpty()) {
+                handOver(batch, symbols, formatted, handedOver, queue);
+            }
+            decoded = true;
+        } catch (InterruptedException ex) {
+            stopped = true;
+        } catch (RuntimeException ex) {
+            Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            //Even on an Error from the trace formatter, as the inserting thread waits for the end
+            if (!decoded) {
+                failed.set(true);
+            }
+            if (!stopped) {
+                try {
+                    queue.put(PointBatch.END);
+                } catch (InterruptedException ex) {
+                    failed.set(true);
+                }
+            }
+            Metrics.getMetrics().count("import.symbols", symbols.size() + formatted.size());
+            Metrics.getMetrics().time("import.decode", start);
+        }
+    }
+
+    /**
+     * Hands a batch over to the inserting thread, along with the texts of the symbols it is the first to use.
+     * @param batch the batch
+     * @param symbols the table of the repeated strings
+     * @param formatted the table of the formatted parameters
+     * @param handedOver the number of symbols of each table handed over so far, updated
+     * @param queue the queue to hand the batch over to
+     * @throws InterruptedException if the inserting thread has stopped
+     */
+    private static void handOver(PointBatch batch, OffHeapSymbolTable symbols, OffHeapSymbolTable formatted, int[] handedOver,
+            BlockingQueue<PointBatch> queue) throws InterruptedException {
+        for (; handedOver[0] < symbols.size(); handedOver[0]++) {
+            batch.symbols.add(symbols.get(handedOver[0]));
+        }
+        for (; handedOver[1] < formatted.size(); handedOver[1]++) {
+            batch.formattedSymbols.add(formatted.get(handedOver[1]));
+        }
+        queue.put(batch);
+    }
+
+    /**
+     * Adds a tracepoint to the batch.
+     * @param batch the batch
+     * @param symbols the table interning the repeated strings
+     * @param key the builder reused for the keys interned in symbols
+     * @param point the tracepoint
+     * @param formattedParameters the id of the formatted parameters of the tracepoint
+     * @param parameters the id of the '||' separated parameters of the tracepoint
+     * @param type the id of the type of the tracepoint
+     * @param thread the thread of the tracepoint
+     * @param progress the progress of the import
+     */
+    private void addPoint(PointBatch batch, OffHeapSymbolTable symbols, StringBuilder key, TracePointImpl point, int formattedParameters,
+            int parameters, int type, TraceThread thread, ImportProgress progress) {
+        int i = batch.size++;
+        batch.tpIds[i] = point.getTPID();
+        batch.components[i] = batch.intern(symbols, point.getComponentName());
+        batch.containerComponents[i] = batch.intern(symbols, point.getContainerComponentName());
+        batch.debugInfos[i] = batch.intern(symbols, point.getDebugInfo());
+        batch.formattedParameters[i] = formattedParameters;
+        batch.parameters[i] = parameters;
+        batch.formattedTimes[i] = sanitize(point.getFormattedTime());
+        batch.rawTimes[i] = sanitize(point.getRawTime().toString());
+        batch.groups[i] = batch.intern(symbols, TextCodec.join(key, ",", Integer.MAX_VALUE, (Object[]) point.getGroups()));
+        batch.types[i] = type;
+        batch.threadIds[i] = thread.getThreadID();
+        progress.points++;
+        Metrics.getMetrics().count("import.points", 1);
+    }
+
+    /**
+     * Adds the point referring to a stack trace to the batch.
+     * The point has the type {@link #STACK_TYPE} and the id of the stack trace as its parameters.
+     * @param batch the batch
+     * @param symbols the table interning the repeated strings
+     * @param formatted the table interning the formatted parameters
+     * @param key the builder reused for the keys interned in symbols
+     * @param point the tracepoint of the first frame of the stack trace
+     * @param stackId the id of the stack trace in the stack table
+     * @param thread the thread of the tracepoint
+     * @param progress the progress of the import
+     */
+    private void addStackPoint(PointBatch batch, OffHeapSymbolTable symbols, OffHeapSymbolTable formatted, StringBuilder key,
+            TracePointImpl point, int stackId, TraceThread thread, ImportProgress progress) {
+        addPoint(batch, symbols, key, point, batch.intern(formatted, ""), batch.intern(symbols, Integer.toString(stackId)),
+                batch.intern(symbols, STACK_TYPE), thread, progress);
+    }
+
+    /**
+     * The type of the points referring to a stack trace in the stack table.
+     */
+    static final String STACK_TYPE = "Stack";
+
+    /**
+     * Adds the statements creating the tables of a trace database to the batch of stmt.
+     * @param stmt the statement of the new trace database
+     * @throws SQLException on error adding to the batch
+     */
+    static void createTables(Statement stmt) throws SQLException {
+        stmt.addBatch("CREATE TABLE info(key VARCHAR(16),value TEXT);");
+
+        stmt.addBatch("CREATE TABLE thread("
+                + "id INTEGER,"
+                + "native_id INTEGER,"
+                + "name TEXT"
+                + ");");
+
+        stmt.addBatch("CREATE TABLE point("
+                + "tp_id INTEGER,"
+                + "component TEXT,"
+                + "container_component TEXT, "
+                + "debug_info TEXT,"
+                + "formatted_parameters TEXT,"
+                + "parameters TEXT,"
+                + "formatted_time TEXT,"
+                + "t_time TEXT,"
+                + "groups TEXT,"
+                + "type TEXT,"
+                + "thread_id INTEGER"
+                + ");");
+
+        stmt.addBatch("CREATE TABLE frame("
+                + "id INTEGER PRIMARY KEY,"
+                + "text TEXT"
+                + ");");
+
+        stmt.addBatch("CREATE TABLE stack("
+                + "id INTEGER PRIMARY KEY,"
+                + "parent INTEGER,"
+                + "frame INTEGER"
+                + ");");
+
+        stmt.addBatch("CREATE TABLE method_summary("
+                + "parameters TEXT PRIMARY KEY,"
+                + "invocations INTEGER,"
+                + "errors INTEGER,"
+                + "total_time INTEGER,"
+                + "self_time INTEGER,"
+                + "min_time INTEGER,"
+                + "max_time INTEGER,"
+                + "histogram BLOB"
+                + ");");
+    }
+
+    /**
+     * Adds the statements creating the indices of a trace database to the batch of stmt,
+     * to be run after the points are inserted.
+     * @param stmt the statement of the new trace database
+     * @throws SQLException on error adding to the batch
+     */
+    static void createIndices(Statement stmt) throws SQLException {
+        stmt.addBatch("CREATE INDEX point_thread ON point(thread_id);");
+    }
+
     /**
      * Enlists the Method Invocations in a trace
      * @param name the name of the trace file
      * @return the list containing entries, null if no trace, with the name, found.
      */
     public List<MethodTrace> getMethodTrace(String name) {
+        InvocationStore store = getInvocations(name);
+        return store != null ? store.asList() : null;
+    }
+
+    /**
+     * Reconstructs the Method Invocations in a trace, from the entry and exit tracepoints
+     * of each thread, along with the stack traces following the entries.
+     * The threads of traces indexed by thread are reconstructed in parallel, each from its own
+     * connection, and appended to the store in the order they were imported.
+     * @param name the name of the trace file
+     * @return the store containing the invocations, null if no trace, with the name, found.
+     */
+    public InvocationStore getInvocations(String name) {
         if (connects.containsKey(name)) {
             try {
+                long start = System.nanoTime();
                 Connection con = connects.get(name);
-                Statement stmt2 = con.createStatement();
-                ArrayList<MethodTrace> methods = new ArrayList<>();
-                ResultSet rs = stmt2.executeQuery("SELECT * FROM point WHERE component LIKE 'mt' OR component LIKE 'j9trc_aux';");
-                MethodTrace tempMethodTrace = null;
-                int stackLevel = 0;
-                while (rs.next()) {
-                    String component = rs.getString("component"), type = rs.getString("type");
-                    if (component.trim().equalsIgnoreCase("mt")) {
-                        String[] parameters = desanitize(rs.getString("parameters")).split("\\|\\|");
-                        if (type.trim().equalsIgnoreCase("entry")) {
-                            tempMethodTrace = new MethodTrace();
-                            if (parameters.length >= 3) {
-                                tempMethodTrace.className = parameters[0];
-                                tempMethodTrace.methodName = parameters[1];
-                                tempMethodTrace.parameters = parameters[2];
-                                tempMethodTrace.definition = rs.getString("formatted_parameters").substring(1);
-                                tempMethodTrace.timeIn = rs.getLong("t_time");
-                                tempMethodTrace.stackTrace = "";
-                                tempMethodTrace.tp_ids = new String[]{rs.getString("tp_id"), ""};
-                                tempMethodTrace.stack_level = stackLevel;
-                                stackLevel++;
-                                methods.add(tempMethodTrace);
-                            }
-                        } else if (type.trim().equalsIgnoreCase("exit")) {
-                            MethodTrace tempMethodTrace1 = new MethodTrace();
-                            if (parameters.length >= 3) {
-                                stackLevel--;
-                                tempMethodTrace1.className = parameters[0];
-                                tempMethodTrace1.methodName = parameters[1];
-                                tempMethodTrace1.parameters = parameters[2];
-                                tempMethodTrace1.stack_level = stackLevel;
-                                int i = methods.lastIndexOf(tempMethodTrace1);
-                                if (i >= 0) {
-                                    tempMethodTrace1 = methods.get(i);
-                                    tempMethodTrace1.timeOut = rs.getLong("t_time");
-                                    tempMethodTrace1.isCompleted = true;
-                                    tempMethodTrace1.tp_ids[1] = rs.getString("tp_id");
-                                    tempMethodTrace1.hasException = rs.getString("formatted_parameters").startsWith("*");
-                                }
-                            }
+                InvocationStore store = new InvocationStore();
+                store.getStacks().read(con);
+                ArrayList<Long> threadIds = new ArrayList<>();
+                try (Statement stmt2 = con.createStatement()) {
+                    ResultSet rs = stmt2.executeQuery("SELECT name FROM sqlite_master WHERE type='index' AND name='point_thread';");
+                    if (rs.next()) {
+                        rs = stmt2.executeQuery("SELECT thread_id,MIN(rowid) FROM point GROUP BY thread_id ORDER BY 2;");
+                        while (rs.next()) {
+                            threadIds.add(rs.getLong(1));
                         }
-                    } else if (component.trim().equalsIgnoreCase("j9trc_aux")) {
-                        if (tempMethodTrace != null) {
-                            tempMethodTrace.stackTrace += rs.getString("formatted_parameters") + "\n";
+                    }
+                }
+                if (threadIds.size() > 1) {
+                    String url = con.getMetaData().getURL();
+                    ArrayList<ForkJoinTask<InvocationStore>> tasks = new ArrayList<>();
+                    for (long threadId : threadIds) {
+                        tasks.add(reconstructionPool.submit(() -> getInvocations(url, threadId)));
+                    }
+                    for (ForkJoinTask<InvocationStore> task : tasks) {
+                        InvocationStore threadStore = task.join();
+                        if (threadStore == null) {
+                            return null;
                         }
+                        store.append(threadStore);
+                    }
+                    Metrics.getMetrics().count("reconstruct.threads", threadIds.size());
+                } else {
+                    //Traces imported before the thread index, or with a single thread
+                    try (Statement stmt2 = con.createStatement()) {
+                        reconstruct(stmt2.executeQuery("SELECT tp_id,component,type,parameters,formatted_parameters,t_time,thread_id FROM point "
+                                + "WHERE component LIKE 'mt' OR component LIKE 'j9trc_aux';"), store);
                     }
                 }
-                return methods;
+                Metrics.getMetrics().time("reconstruct", start);
+                Metrics.getMetrics().count("reconstruct.invocations", store.size());
+                return store;
             } catch (SQLException ex) {
                 Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
             }
@@ -310,17 +866,87 @@ public class TraceManager {
         return null;
     }
 
+    /**
+     * Reconstructs the Method Invocations of a thread, reading the trace from a connection of its own.
+     * @param url the JDBC url of the trace database
+     * @param threadId the id of the thread
+     * @return the store containing the invocations of the thread, null on error
+     */
+    private InvocationStore getInvocations(String url, long threadId) {
+        try (Connection con = DriverManager.getConnection(url); Statement stmt2 = con.createStatement()) {
+            InvocationStore store = new InvocationStore();
+            reconstruct(stmt2.executeQuery("SELECT tp_id,component,type,parameters,formatted_parameters,t_time,thread_id FROM point "
+                    + "WHERE thread_id=" + threadId + " AND (component LIKE 'mt' OR component LIKE 'j9trc_aux') ORDER BY rowid;"), store);
+            return store;
+        } catch (SQLException ex) {
+            Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Reconstructs the Method Invocations from the tracepoints, adding them to the store.
+     * @param rs the tracepoints, with the columns tp_id, component, type, parameters, formatted_parameters, t_time and thread_id
+     * @param store the store to add the invocations to
+     * @throws SQLException on error reading the tracepoints
+     */
+    private void reconstruct(ResultSet rs, InvocationStore store) throws SQLException {
+        int[] open = new int[64];
+        int stackLevel = 0, last = -1, thread = -1;
+        long threadId = 0;
+        ArrayList<String> stackTrace = new ArrayList<>();
+        while (rs.next()) {
+            String component = rs.getString(2).trim(), type = rs.getString(3).trim();
+            if (component.equalsIgnoreCase("mt")) {
+                if (thread < 0 || rs.getLong(7) != threadId) {
+                    threadId = rs.getLong(7);
+                    thread = store.getThreadIndex(threadId);
+                    stackLevel = 0;
+                }
+                String key = desanitize(rs.getString(4));
+                String[] parameters = TextCodec.split(key);
+                if (parameters.length < 3) {
+                    continue;
+                }
+                if (type.equalsIgnoreCase("entry")) {
+                    if (last >= 0 && !stackTrace.isEmpty()) {
+                        store.setStackTrace(last, store.getStacks().intern(stackTrace));
+                        stackTrace.clear();
+                    }
+                    if (stackLevel == open.length) {
+                        open = Arrays.copyOf(open, stackLevel * 2);
+                    }
+                    String definition = rs.getString(5);
+                    last = store.addEntry(store.getMethodId(key, parameters), definition.isEmpty() ? "" : definition.substring(1),
+                            thread, stackLevel, stackLevel > 0 ? open[stackLevel - 1] : -1, rs.getInt(1), rs.getLong(6));
+                    open[stackLevel++] = last;
+                } else if (type.equalsIgnoreCase("exit") && stackLevel > 0) {
+                    stackLevel--;
+                    if (store.getMethod(open[stackLevel]) == store.getMethodId(key, parameters)) {
+                        store.setExit(open[stackLevel], rs.getInt(1), rs.getLong(6), rs.getString(5).startsWith("*"));
+                    }
+                }
+            } else if (component.equalsIgnoreCase("j9trc_aux") && last >= 0) {
+                if (type.equals(STACK_TYPE)) {
+                    store.setStackTrace(last, Integer.parseInt(rs.getString(4)));
+                } else {
+                    //Traces imported before the stack table, with a row per frame
+                    stackTrace.add(rs.getString(5));
+                }
+            }
+        }
+        if (last >= 0 && !stackTrace.isEmpty()) {
+            store.setStackTrace(last, store.getStacks().intern(stackTrace));
+        }
+    }
+
     /**
      * Replaces the new-lines with \\n and quotes and multiple whitespaces with a single whitespace.
      * @param what the string to process
      * @return the processed string
      */
     public String sanitize(String what) {
-        if (what != null) {
-            return what.replaceAll("[\n]", "\\n").replaceAll("[\\'\\\"\\s]+", " ").trim();
-        } else {
-            return "";
-        }
+        return TextCodec.sanitize(what);
     }
 
     /**
@@ -329,11 +955,7 @@ public class TraceManager {
      * @return the processed string
      */
     public String desanitize(String what) {
-        if (what != null) {
-            return what.replaceAll("\\n", "\n").trim();
-        } else {
-            return "";
-        }
+        return TextCodec.desanitize(what);
     }
 
     /**
@@ -357,6 +979,27 @@ public class TraceManager {
         return null;
     }
 
+    /**
+     * Creates a read-only SQL query run across several traces, each on a connection of its own.
+     * @param command the SELECT statement
+     * @param limit the maximum number of rows per trace, 0 for no limit
+     * @param names the names of the traces, all the opened traces if none
+     * @return the query, to be run with {@link FederatedQuery#run}
+     */
+    public FederatedQuery query(String command, int limit, String... names) {
+        TreeMap<String, String> urls = new TreeMap<>();
+        for (String name : names.length > 0 ? Arrays.asList(names) : connects.keySet()) {
+            if (connects.containsKey(name)) {
+                try {
+                    urls.put(name, connects.get(name).getMetaData().getURL());
+                } catch (SQLException ex) {
+                    Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        return new FederatedQuery(urls, command, limit);
+    }
+
     /**
      * Gets the method trace entries in the corresponding trace
      * @param name the name of the trace
@@ -364,14 +1007,30 @@ public class TraceManager {
      * @return a String containing method trace entries, null if name is invalid
      */
     public String getMethodTrace(String name, boolean indent) {
+        return getMethodTrace(name, indent, null);
+    }
+
+    /**
+     * Gets the method trace entries of the methods matched by a specification in the corresponding trace.
+     * The entries left out do not count towards the stack level.
+     * @param name the name of the trace
+     * @param indent indentation is done with the stack level if true
+     * @param methods the methods to keep, null for all
+     * @return a String containing method trace entries, null if name is invalid
+     */
+    public String getMethodTrace(String name, boolean indent, MethodSpec methods) {
         if (connects.containsKey(name)) {
             try {
+                long start = System.nanoTime();
                 Connection con = connects.get(name);
                 Statement stmt2 = con.createStatement();
                 ResultSet rs = stmt2.executeQuery("SELECT * FROM point WHERE component LIKE 'mt';");
                 StringBuilder trace = new StringBuilder();
                 int stackLevel = 0;
                 while (rs.next()) {
+                    if (methods != null && !methods.matchesKey(rs.getString("parameters"))) {
+                        continue;
+                    }
                     if (indent) {
                         String type = rs.getString("type");
                         if (type.trim().equalsIgnoreCase("entry")) {
@@ -388,6 +1047,7 @@ public class TraceManager {
                     Matcher match=Pattern.compile("[ ,]").matcher(sig);
                     trace.append(match.find()?sig.substring(0, match.start()):sig).append("\n");
                 }
+                Metrics.getMetrics().time("diff.load", start);
                 return trace.toString();
             } catch (SQLException ex) {
                 Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
@@ -402,8 +1062,9 @@ public class TraceManager {
      * @return the TableModel containing all the method entries
      */
     public DefaultTableModel getMethodStats(String... names) {
-        ArrayList<String> methods = new ArrayList<>();
-        Vector<Vector<String>> data = new Vector();
+        long start = System.nanoTime();
+        HashMap<String, Vector<Object>> methods = new HashMap<>();
+        Vector<Vector<Object>> data = new Vector();
         Vector<String> columnNames = new Vector<>();
         columnNames.add("Method Name");
         int column = 1;
@@ -412,23 +1073,29 @@ public class TraceManager {
                 try {
                     Connection con = connects.get(name);
                     Statement stmt = con.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT parameters,COUNT(parameters) FROM point WHERE component='mt' AND type='Entry' GROUP BY parameters;");
+                    ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='method_summary';");
+                    if (rs.next()) {
+                        rs = stmt.executeQuery("SELECT parameters,invocations FROM method_summary;");
+                    } else {
+                        //Traces imported before the method summary
+                        rs = stmt.executeQuery("SELECT parameters,COUNT(parameters) FROM point WHERE component='mt' AND type='Entry' GROUP BY parameters;");
+                    }
                     columnNames.add(name + " (Invocations count)");
                     while (rs.next()) {
                         String methodsName = rs.getString(1);
-                        Vector<String> data_row;
-                        if (methods.contains(methodsName)) {
-                            data_row = data.get(methods.indexOf(methodsName));
+                        Vector<Object> data_row;
+                        if (methods.containsKey(methodsName)) {
+                            data_row = methods.get(methodsName);
                         } else {
                             data_row = new Vector();
                             data_row.add(methodsName);
                             data.add(data_row);
-                            methods.add(methodsName);
+                            methods.put(methodsName, data_row);
                         }
                         while (data_row.size() < column) {
-                            data_row.add("0");
+                            data_row.add(0L);
                         }
-                        data_row.add(rs.getString(2));
+                        data_row.add(rs.getLong(2));
                     }
 
                     column++;
@@ -438,15 +1105,131 @@ public class TraceManager {
                 }
             }
         }
-        for (Vector<String> vector : data) {
+        for (Vector<Object> vector : data) {
             while (vector.size() < column) {
-                vector.add("0");
+                vector.add(0L);
+            }
+        }
+        DefaultTableModel model = new DefaultTableModel(data, columnNames) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : Long.class;
+            }
+        };
+        Metrics.getMetrics().time("stats", start);
+        return model;
+
+    }
+
+    /**
+     * Gets the summary of the invocations of each method in a trace.
+     * @param name the name of the trace
+     * @return the summary, null if no trace, with the name, found.
+     */
+    public MethodSummary getMethodSummary(String name) {
+        if (connects.containsKey(name)) {
+            try {
+                long start = System.nanoTime();
+                MethodSummary summary = MethodSummary.read(connects.get(name));
+                Metrics.getMetrics().time("summary", start);
+                return summary;
+            } catch (SQLException ex) {
+                Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        DefaultTableModel model = new DefaultTableModel(data, columnNames);
+        return null;
+    }
 
+    /**
+     * Gets the call graph of a trace, from its 'call_node' and 'call_edge' tables if stored, otherwise
+     * building it from the invocations and storing it.
+     * @param name the name of the trace
+     * @return the graph, null if no trace, with the name, found.
+     */
+    public CallGraph getCallGraph(String name) {
+        if (connects.containsKey(name)) {
+            try {
+                Connection con = connects.get(name);
+                CallGraph graph = CallGraph.read(con);
+                if (graph == null) {
+                    InvocationStore store = getInvocations(name);
+                    if (store == null) {
+                        return null;
+                    }
+                    graph = CallGraph.build(store);
+                    boolean autoCommit = con.getAutoCommit();
+                    con.setAutoCommit(false);
+                    try {
+                        graph.write(con);
+                        con.commit();
+                    } catch (SQLException ex) {
+                        //The graph is still usable, it is built again on the next call
+                        con.rollback();
+                        Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+                    } finally {
+                        con.setAutoCommit(autoCommit);
+                    }
+                }
+                return graph;
+            } catch (SQLException ex) {
+                Logger.getLogger(TraceManager.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ranks the methods of a trace by their self time.
+     * @param name the name of the trace
+     * @return the TableModel containing the methods with their invocations, errors, times and percentiles
+     * of duration, null if no trace, with the name, found.
+     */
+    public DefaultTableModel getHotMethods(String name) {
+        MethodSummary summary = getMethodSummary(name);
+        if (summary == null) {
+            return null;
+        }
+        ArrayList<Map.Entry<String, MethodSummary.Stats>> methods = new ArrayList<>(summary.getMethods().entrySet());
+        methods.sort((a, b) -> Long.compare(b.getValue().selfTime, a.getValue().selfTime));
+        DefaultTableModel model = new DefaultTableModel(new String[]{"Method Name", "Invocations", "Errors", "Self Time", "Total Time",
+            "Mean", "p50", "p90", "p99", "Max"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 0 ? String.class : columnIndex == 5 ? Double.class : Long.class;
+            }
+        };
+        for (Map.Entry<String, MethodSummary.Stats> method : methods) {
+            MethodSummary.Stats stats = method.getValue();
+            LatencyHistogram histogram = stats.histogram;
+            model.addRow(new Object[]{method.getKey(), stats.invocations, stats.errors, stats.selfTime, stats.totalTime, histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90), histogram.getValueAtPercentile(99), histogram.getMax()});
+        }
         return model;
+    }
 
+    /**
+     * Compares the latencies of the methods of traces against a baseline trace, ranking what got slower first.
+     * @param base the name of the baseline trace
+     * @param names the names of the traces to compare
+     * @return the TableModel containing the comparison of each method in each trace, null if the baseline trace is not found
+     */
+    public DefaultTableModel getRegressions(String base, String... names) {
+        long start = System.nanoTime();
+        MethodSummary baseSummary = getMethodSummary(base);
+        if (baseSummary == null) {
+            return null;
+        }
+        RegressionDetector detector = new RegressionDetector(0.01);
+        ArrayList<RegressionDetector.Result> results = new ArrayList<>();
+        for (String name : names) {
+            MethodSummary summary = getMethodSummary(name);
+            if (summary != null) {
+                results.addAll(detector.compare(name, baseSummary, summary));
+            }
+        }
+        detector.rank(results);
+        Metrics.getMetrics().time("regress", start);
+        return RegressionDetector.getTableModel(results);
     }
 
     /**
@@ -517,44 +1300,6 @@ public class TraceManager {
 
     }
 
-    /**
-     * Separates the items in data to a delimeter separated string
-     * @param delimeter the delimiter
-     * @param data the items
-     * @return the delimeter separated string
-     */
-    private String spaceSeparate(String delimeter, Object... data) {
-        if (data != null && data.length > 0) {
-            String str = data[0].toString();
-            for (int i = 1; i < data.length; i++) {
-                str += delimeter + data[i].toString();
-            }
-            return str;
-        }
-        return "";
-    }
-
-    /**
-     * Separates the items in data to a delimeter separated string
-     * @param delimeter the delimiter
-     * @param max the maximum number of items to include
-     * @param data the items
-     * @return the delimeter separated string
-     */
-    private String spaceSeparate(String delimeter, int max, Object... data) {
-        if (data != null && data.length > 0) {
-            String str = data[0].toString();
-            if (data.length < max) {
-                max = data.length;
-            }
-            for (int i = 1; i < max; i++) {
-                str += delimeter + data[i].toString();
-            }
-            return str;
-        }
-        return "";
-    }
-
     public static TraceManager traceManager;
 
     /**